@@ -5,16 +5,29 @@
  * @format
  */
 
-import { StyleSheet, useColorScheme } from 'react-native';
+import { useEffect } from 'react';
+import { InteractionManager, StyleSheet, useColorScheme } from 'react-native';
 
 import { SafeAreaProvider, SafeAreaView } from 'react-native-safe-area-context';
 import AppNavigator from './src/navigation/AppNavigator';
 import { SnackbarProvider } from './src/providers/snackbar/SnackbarContext';
 import { AppThemeProvider } from './src/providers/theme/ThemeContext';
+import { warmUpInference } from './src/utils/modelHandler';
+import { registerMemoryPressureHandler } from './src/utils/sessionHandler';
 
 function App() {
   const isDarkMode = useColorScheme() === 'dark';
 
+  useEffect(() => {
+    // Load and warm up the models once the first screen has rendered
+    const warmUp = InteractionManager.runAfterInteractions(() => warmUpInference());
+    const unregister = registerMemoryPressureHandler();
+    return () => {
+      warmUp.cancel();
+      unregister();
+    };
+  }, []);
+
   return (
     <AppThemeProvider>
       <SafeAreaProvider>
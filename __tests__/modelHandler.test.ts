@@ -0,0 +1,220 @@
+/**
+ * @format
+ */
+
+import {
+  cascadeAccepts,
+  classifierThreshold,
+  decodeDetections,
+  getClassification,
+  getThreshold,
+  modelThresholds,
+  runAdaptivePasses,
+  runEnsemble,
+  runShuffleNetInference,
+  SamplingOptions,
+  samplingConverged,
+} from '../src/utils/modelHandler';
+
+// Logits the mocked classifiers return, consumed pass by pass
+const mockQueued: Record<string, number[]> = {};
+
+jest.mock('onnxruntime-react-native', () => ({
+  Tensor: class {
+    constructor(
+      public type: string,
+      public data: Float32Array,
+      public dims: number[],
+    ) {}
+  },
+}));
+
+jest.mock('../src/utils/fileHandler', () => ({
+  decodeFloat32: jest.fn(),
+  readTensorFromFile: jest.fn(),
+}));
+
+jest.mock('../src/utils/sessionHandler', () => ({
+  ensembleThreadBudgets: () => ({ efficientNetThreads: 2, shuffleNetThreads: 1 }),
+  getSession: async () => ({ inputNames: ['input'] }),
+  runSession: async (modelType: string, feeds: Record<string, { dims: number[] }>) => {
+    const passes = feeds.input.dims[0];
+    return { output: { data: Float32Array.from(mockQueued[modelType].splice(0, passes)) } };
+  },
+  warmUpSessions: jest.fn(),
+}));
+
+const SAMPLING: SamplingOptions = { minPasses: 5, maxPasses: 10, step: 5, tolerance: 0.5, margin: 3 };
+const input = new Float32Array(3 * 224 * 224);
+const average = (values: number[]) => values.reduce((sum, val) => sum + val, 0) / values.length;
+// Logit of a probability in percent
+const logit = (probability: number) => Math.log(probability / (100 - probability));
+
+// Five tight passes around a mean, in percent
+const around = (mean: number) => [-0.4, 0.4, -0.2, 0.2, 0].map(offset => mean + offset);
+const logitsAround = (mean: number) => around(mean).map(logit);
+
+beforeEach(() => {
+  jest.spyOn(console, 'log').mockImplementation(() => {});
+  for (const key of Object.keys(mockQueued)) {
+    delete mockQueued[key];
+  }
+});
+
+afterEach(() => {
+  jest.restoreAllMocks();
+});
+
+describe('samplingConverged', () => {
+  const single = (probabilities: number[]) => [
+    { modelType: 'shufflenet.onnx' as const, weight: 1, logits: probabilities.map(logit) },
+  ];
+
+  test('stops once tight and clear of the threshold', () => {
+    expect(samplingConverged(single(around(30)), 47, SAMPLING)).toBe(true);
+  });
+
+  test('keeps sampling a tight mean that sits on the threshold', () => {
+    expect(samplingConverged(single(around(47.2)), 47, SAMPLING)).toBe(false);
+  });
+
+  test('keeps sampling while the standard error is above the tolerance', () => {
+    expect(samplingConverged(single([20, 30, 25, 35, 15]), 47, SAMPLING)).toBe(false);
+  });
+
+  test('needs two passes to estimate an error', () => {
+    expect(samplingConverged(single([30]), 47, SAMPLING)).toBe(false);
+  });
+
+  test('judges an ensemble on its blend', () => {
+    const members = [
+      { modelType: 'efficientnet.onnx' as const, weight: 0.7, logits: logitsAround(62) },
+      { modelType: 'shufflenet.onnx' as const, weight: 0.3, logits: logitsAround(32.5) },
+    ];
+    // Each model alone is clear of its own threshold, the blend (53.15) is not clear of 53
+    expect(samplingConverged([members[0]], 56, SAMPLING)).toBe(true);
+    expect(samplingConverged([members[1]], 47, SAMPLING)).toBe(true);
+    expect(samplingConverged(members, 53, SAMPLING)).toBe(false);
+  });
+});
+
+describe('adaptive sampling', () => {
+  test('stops a single model early once it is decided', async () => {
+    mockQueued['shufflenet.onnx'] = [...logitsAround(30), ...logitsAround(30)];
+    const logits = await runAdaptivePasses('shufflenet.onnx', input, SAMPLING, undefined, 'batched');
+    expect(logits).toHaveLength(5);
+  });
+
+  test('does not flip an ensemble result near its threshold', async () => {
+    // After five passes each the blend is positive, after all ten it is negative
+    const efficientNet = [...around(62), ...around(58)];
+    const shuffleNet = [...around(32.5), ...around(32.5)];
+    const blend = (passes: number) =>
+      0.7 * average(efficientNet.slice(0, passes)) + 0.3 * average(shuffleNet.slice(0, passes));
+    expect(blend(5) / 100).toBeGreaterThanOrEqual(modelThresholds.both);
+    expect(blend(10) / 100).toBeLessThan(modelThresholds.both);
+
+    // EfficientNet alone would have stopped after five passes against its own threshold
+    mockQueued['efficientnet.onnx'] = efficientNet.map(logit);
+    expect(await runAdaptivePasses('efficientnet.onnx', input, SAMPLING, undefined, 'batched')).toHaveLength(5);
+
+    mockQueued['efficientnet.onnx'] = efficientNet.map(logit);
+    mockQueued['shufflenet.onnx'] = shuffleNet.map(logit);
+    const result = await runEnsemble(input);
+
+    expect(result?.passes).toBe(20);
+    expect(result?.mean).toBeCloseTo(blend(10), 3);
+    const record = {
+      fileUri: '', name: '', selectedType: '', selectedModel: '3',
+      probability: result!.mean, uncertainity: result!.stdDev, models: result!.models.join(','),
+    };
+    expect(getClassification(record)).toBe('Negative');
+  });
+});
+
+describe('stored logits', () => {
+  test('are the raw model outputs, saturated ones included', async () => {
+    // Every one of these rounds to a probability of 100%
+    const outputs = Array.from({ length: 20 }, (_, i) => 40 + i);
+    mockQueued['shufflenet.onnx'] = [...outputs];
+    const result = await runShuffleNetInference(input);
+
+    const stored = result!.logits!['shufflenet.onnx']!;
+    expect(stored).toEqual(outputs.slice(0, result!.passes));
+    expect(new Set(stored).size).toBe(stored.length);
+    expect(result!.mean).toBe(100);
+  });
+});
+
+describe('cascadeAccepts', () => {
+  test('accepts ShuffleNet well clear of its threshold', () => {
+    expect(cascadeAccepts({ mean: 20, stdDev: 2 })).toBe(true);
+    expect(cascadeAccepts({ mean: 60, stdDev: 2 })).toBe(true);
+  });
+
+  test('escalates inside the band', () => {
+    expect(cascadeAccepts({ mean: 50, stdDev: 1 })).toBe(false);
+    expect(cascadeAccepts({ mean: 40, stdDev: 0 })).toBe(false);
+  });
+
+  test('widens the band by the spread', () => {
+    // 58 is outside the band, 58 - 2 is not
+    expect(cascadeAccepts({ mean: 58, stdDev: 0 })).toBe(true);
+    expect(cascadeAccepts({ mean: 58, stdDev: 2 })).toBe(false);
+  });
+});
+
+describe('getThreshold', () => {
+  const record = (selectedModel: string, models?: string) => ({
+    fileUri: '', name: '', selectedType: '', selectedModel, probability: 50, uncertainity: 0, models,
+  });
+
+  test('uses the threshold of a single classifier', () => {
+    expect(classifierThreshold('efficientnet.onnx')).toBe(modelThresholds.m1);
+    expect(getThreshold(record('1'))).toBe(modelThresholds.m1);
+    expect(getThreshold(record('2'))).toBe(modelThresholds.m2);
+  });
+
+  test('follows the models that produced an ensemble result', () => {
+    expect(getThreshold(record('3'))).toBe(modelThresholds.both);
+    expect(getThreshold(record('3', 'efficientnet.onnx,shufflenet.onnx'))).toBe(modelThresholds.both);
+    // A cascade accepted by ShuffleNet alone is judged like ShuffleNet
+    expect(getThreshold(record('3', 'shufflenet.onnx'))).toBe(modelThresholds.m2);
+  });
+});
+
+describe('decodeDetections', () => {
+  const options = { scoreThreshold: 0.25, nmsThreshold: 0.45, maxDetections: 10 };
+
+  test('drops low scores and suppresses overlaps, best first', () => {
+    const output = Float32Array.from([
+      0, 0, 100, 100, 0.6, 0,
+      // IoU with the first is 90 / 110, suppressed by it
+      10, 0, 100, 100, 0.5, 0,
+      300, 0, 400, 100, 0.8, 1,
+      500, 0, 600, 100, 0.2, 0,
+    ]);
+    const detections = decodeDetections(output, 1, 1000, 1000, options);
+    expect(detections.map(box => box.score)).toEqual([Math.fround(0.8), Math.fround(0.6)]);
+    expect(detections[0].classId).toBe(1);
+  });
+
+  test('maps back to source pixels and clamps to the image', () => {
+    // 1000x500 resized by 0.5 into the top-left corner
+    const output = Float32Array.from([
+      50, 50, 300, 175, 0.9, 0,
+      -20, -20, 700, 700, 0.8, 0,
+      0, 400, 100, 500, 0.7, 0,
+    ]);
+    const detections = decodeDetections(output, 0.5, 1000, 500, { ...options, nmsThreshold: 1 });
+    expect(detections).toHaveLength(2);
+    expect(detections[0]).toMatchObject({ x1: 100, y1: 100, x2: 600, y2: 350 });
+    expect(detections[1]).toMatchObject({ x1: 0, y1: 0, x2: 1000, y2: 500 });
+  });
+
+  test('keeps at most maxDetections boxes and may find none', () => {
+    const output = Float32Array.from([0, 0, 10, 10, 0.5, 0, 20, 0, 30, 10, 0.4, 0, 40, 0, 50, 10, 0.9, 0]);
+    expect(decodeDetections(output, 1, 100, 100, { ...options, maxDetections: 2 }).map(box => box.x1)).toEqual([40, 0]);
+    expect(decodeDetections(new Float32Array(0), 1, 100, 100, options)).toEqual([]);
+  });
+});
@@ -0,0 +1,120 @@
+package com.deeptestapp;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-maps models stored uncompressed in the APK. The mapping points straight into the
+ * installed APK, so nothing is copied to internal storage and pages are only read when used.
+ * Models must be listed under noCompress in build.gradle, compressed assets cannot be mapped.
+ */
+final class AssetModelProvider {
+
+    /** Optimised model ready on disk, with the time spent getting it there. */
+    static final class Prepared {
+        ModelStore.Entry entry;
+        long mapMs;
+        long optimizeMs;
+        long modelBytes;
+    }
+
+    private final AssetManager assets;
+    private final String apkStamp;
+
+    AssetModelProvider(Context context) {
+        this.assets = context.getAssets();
+        // Changes whenever the app is reinstalled or updated, and with it the bundled models
+        this.apkStamp = apkStamp(context);
+    }
+
+    /** See {@link #apkStamp()}, for callers that key on the build without loading models. */
+    static String apkStamp(Context context) {
+        return String.valueOf(new File(context.getPackageCodePath()).lastModified());
+    }
+
+    /** Changes with every install or update of the app, and so with every change to the models. */
+    String apkStamp() {
+        return apkStamp;
+    }
+
+    /**
+     * Makes sure an optimised copy of a bundled model exists in the store. On a miss the model is
+     * memory-mapped from the APK and optimised by the runtime straight from the mapping, the
+     * original model is never copied out of the APK. Only the JS runtime needs this: it loads
+     * models from a path, so it trades one hash and an extra session creation per install, plus
+     * the optimised file on disk, for skipping graph optimisation on every later launch. Native
+     * sessions load from {@link #map} directly, benchmarkAssetLoad measures both routes.
+     */
+    Prepared prepare(ModelStore store, String assetName, String runtimeKey,
+                     OrtSession.SessionOptions.OptLevel level) throws IOException, OrtException {
+        Prepared prepared = new Prepared();
+        long tic = System.nanoTime();
+        MappedByteBuffer model = map(assetName);
+        prepared.mapMs = (System.nanoTime() - tic) / 1_000_000;
+        prepared.modelBytes = model.capacity();
+        prepared.entry = store.resolveAsset(assetName, model, apkStamp, runtimeKey);
+
+        if (!prepared.entry.cached) {
+            long optimizeTic = System.nanoTime();
+            try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                options.setOptimizationLevel(level);
+                options.setOptimizedModelFilePath(prepared.entry.pendingPath);
+                // Creating the session is what writes the optimised model out
+                OrtEnvironment.getEnvironment().createSession(model, options).close();
+            }
+            if (!store.commit(prepared.entry)) {
+                throw new IOException("Runtime did not write an optimised model for " + assetName);
+            }
+            prepared.optimizeMs = (System.nanoTime() - optimizeTic) / 1_000_000;
+        }
+        return prepared;
+    }
+
+    /** Runtime key matching the one JS builds, so both sides share optimised files. */
+    static String runtimeKey(String optimizationLevel) {
+        return "ort-" + OrtEnvironment.getEnvironment().getVersion() + "-" + optimizationLevel;
+    }
+
+    // Same names onnxruntime-react-native accepts for graphOptimizationLevel
+    static OrtSession.SessionOptions.OptLevel toOptLevel(String level) {
+        switch (level) {
+            case "disabled":
+                return OrtSession.SessionOptions.OptLevel.NO_OPT;
+            case "basic":
+                return OrtSession.SessionOptions.OptLevel.BASIC_OPT;
+            case "extended":
+                return OrtSession.SessionOptions.OptLevel.EXTENDED_OPT;
+            default:
+                return OrtSession.SessionOptions.OptLevel.ALL_OPT;
+        }
+    }
+
+    MappedByteBuffer map(String assetName) throws IOException {
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = assets.openFd(assetName);
+        } catch (FileNotFoundException e) {
+            // openFd also fails this way for assets that exist but were compressed
+            throw new IOException("Asset " + assetName + " is missing or compressed, add it to noCompress", e);
+        }
+
+        try (AssetFileDescriptor fd = descriptor;
+             FileInputStream in = fd.createInputStream();
+             FileChannel channel = in.getChannel()) {
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getDeclaredLength());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.deeptestapp;
+
+import android.os.Process;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preprocesses many images in parallel on a fixed set of worker threads. Every worker owns its
+ * own MatPool (and so its own Mats and CLAHE instances), so workers never contend on buffers.
+ * Results are handed to the listener in input order while later items are still being worked on.
+ */
+final class BatchPreprocessor {
+
+    /** One image of a batch; id is opaque to native code and echoed back in the result. */
+    static final class Item {
+        final String id;
+        final String path;
+        @Nullable final double[] box;
+
+        Item(String id, String path, @Nullable double[] box) {
+            this.id = id;
+            this.path = path;
+            this.box = box;
+        }
+    }
+
+    /** Receives each item's outcome, called on the coordinating thread in input order. */
+    interface Listener {
+        void onResult(int index, Item item, @Nullable ImagePreprocessor.Output output,
+                      @Nullable String error, int completed);
+    }
+
+    static final class Summary {
+        int total;
+        int succeeded;
+        int failed;
+        long elapsedMs;
+    }
+
+    // Results waiting to be emitted per worker, bounds how far workers run ahead of the listener
+    private static final int AHEAD_PER_WORKER = 2;
+
+    private final int workerCount;
+    private final ExecutorService workers;
+    private final List<MatPool> pools = new ArrayList<>();
+    private final ThreadLocal<MatPool> workerPool = new ThreadLocal<MatPool>() {
+        @Override
+        protected MatPool initialValue() {
+            MatPool pool = new MatPool();
+            synchronized (pools) {
+                pools.add(pool);
+            }
+            return pool;
+        }
+    };
+
+    BatchPreprocessor() {
+        // Leave one core for the UI and JS threads
+        workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "clahe-batch-" + count.incrementAndGet()));
+    }
+
+    int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Runs every item through {@link ImagePreprocessor#run} and blocks until all of them have been
+     * reported. A failing item is reported with an error and does not stop the batch; cancelling
+     * the token stops scheduling new items and throws once the running ones have finished.
+     */
+    Summary run(List<Item> items, ImagePreprocessor.Options options,
+                NativeTaskExecutor.CancellationToken token, Listener listener) throws InterruptedException {
+        long tic = System.nanoTime();
+        Summary summary = new Summary();
+        summary.total = items.size();
+
+        ArrayDeque<Future<ImagePreprocessor.Output>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            for (int index = 0; index < items.size(); index++) {
+                // Keep the workers busy without holding every tensor of the batch in memory
+                while (next < items.size() && pending.size() < workerCount * AHEAD_PER_WORKER) {
+                    Item item = items.get(next++);
+                    pending.add(workers.submit(() -> ImagePreprocessor.run(workerPool.get(), item.path,
+                            item.box, options, token, null)));
+                }
+
+                Item item = items.get(index);
+                ImagePreprocessor.Output output = null;
+                String error = null;
+                try {
+                    output = pending.poll().get();
+                    if (output == null) {
+                        error = "Could not decode image";
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof CancellationException) {
+                        throw (CancellationException) cause;
+                    }
+                    error = cause != null ? cause.getMessage() : e.getMessage();
+                }
+
+                if (error == null) {
+                    summary.succeeded++;
+                } else {
+                    summary.failed++;
+                }
+                listener.onResult(index, item, output, error, index + 1);
+            }
+        } finally {
+            for (Future<ImagePreprocessor.Output> future : pending) {
+                future.cancel(false);
+            }
+        }
+
+        summary.elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+        return summary;
+    }
+
+    void shutdown() {
+        workers.shutdownNow();
+        synchronized (pools) {
+            for (MatPool pool : pools) {
+                pool.clear();
+            }
+            pools.clear();
+        }
+    }
+}
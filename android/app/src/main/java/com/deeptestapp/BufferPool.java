@@ -0,0 +1,171 @@
+package com.deeptestapp;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The bookkeeping behind {@link MatPool}, kept free of OpenCV so it can be tested on the JVM.
+ * Idle buffers wait in free lists by shape under a byte budget; once it is exceeded the shapes
+ * used least recently are released first. Buffers handed out are counted as in use until they
+ * come back, so bytes in use plus bytes idle is everything the pool's buffers hold.
+ */
+final class BufferPool<T> {
+
+    /** Frees a buffer the pool no longer keeps. */
+    interface Releaser<T> {
+        void release(T buffer);
+    }
+
+    private static final class Idle<T> {
+        final T buffer;
+        final long size;
+
+        Idle(T buffer, long size) {
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+
+    private final long maxIdleBytes;
+    private final int maxIdlePerShape;
+    private final Releaser<T> releaser;
+    // Access-ordered, so iteration starts at the shape used least recently
+    private final LinkedHashMap<String, ArrayDeque<Idle<T>>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    // Size of every buffer in use at the time it was handed out. Weak, so a buffer dropped without
+    // being recycled is still collected; its bytes stay counted as in use, which is how leaks show
+    private final Map<T, Long> inUse = new WeakHashMap<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long idleBytes;
+    private long inUseBytes;
+    private long acquiredBytes;
+    private long peakBytes;
+
+    BufferPool(long maxIdleBytes, int maxIdlePerShape, Releaser<T> releaser) {
+        this.maxIdleBytes = maxIdleBytes;
+        this.maxIdlePerShape = maxIdlePerShape;
+        this.releaser = releaser;
+    }
+
+    /** An idle buffer of the given shape, or null when the caller has to allocate one. */
+    @Nullable
+    synchronized T poll(String shape) {
+        ArrayDeque<Idle<T>> queue = idle.get(shape);
+        if (queue != null && !queue.isEmpty()) {
+            hits++;
+            Idle<T> entry = queue.pop();
+            idleBytes -= entry.size;
+            return entry.buffer;
+        }
+        misses++;
+        return null;
+    }
+
+    /** Counts a buffer from {@link #poll} or a fresh allocation as in use. */
+    synchronized void lend(T buffer, long size) {
+        Long previous = inUse.put(buffer, size);
+        inUseBytes += size - (previous != null ? previous : 0);
+        acquiredBytes += size;
+        peakBytes = Math.max(peakBytes, inUseBytes + idleBytes);
+    }
+
+    /**
+     * Takes a buffer back with its current shape and size, which may differ from the ones it was
+     * lent with. A size of 0 stands for an empty buffer, which is released rather than kept.
+     */
+    synchronized void recycle(T buffer, String shape, long size) {
+        Long lent = inUse.remove(buffer);
+        if (lent != null) {
+            inUseBytes -= lent;
+        }
+        ArrayDeque<Idle<T>> queue = idle.get(shape);
+        if (size <= 0 || size > maxIdleBytes || (queue != null && queue.size() >= maxIdlePerShape)) {
+            releaser.release(buffer);
+            return;
+        }
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            idle.put(shape, queue);
+        }
+        queue.push(new Idle<>(buffer, size));
+        idleBytes += size;
+        peakBytes = Math.max(peakBytes, inUseBytes + idleBytes);
+        trim();
+    }
+
+    /** Releases every idle buffer. Buffers in use stay counted until they come back. */
+    synchronized void clear() {
+        for (ArrayDeque<Idle<T>> queue : idle.values()) {
+            for (Idle<T> entry : queue) {
+                releaser.release(entry.buffer);
+            }
+        }
+        idle.clear();
+        idleBytes = 0;
+    }
+
+    /** Starts peak tracking over from what is held right now. */
+    synchronized void resetPeak() {
+        peakBytes = inUseBytes + idleBytes;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    synchronized long getInUseBytes() {
+        return inUseBytes;
+    }
+
+    synchronized long getAcquiredBytes() {
+        return acquiredBytes;
+    }
+
+    synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    synchronized int getIdleCount() {
+        int count = 0;
+        for (ArrayDeque<Idle<T>> queue : idle.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    // Releases the oldest buffers of the least recently used shapes until back within budget
+    private void trim() {
+        Iterator<ArrayDeque<Idle<T>>> queues = idle.values().iterator();
+        while (idleBytes > maxIdleBytes && queues.hasNext()) {
+            ArrayDeque<Idle<T>> queue = queues.next();
+            while (idleBytes > maxIdleBytes && !queue.isEmpty()) {
+                Idle<T> entry = queue.removeLast();
+                idleBytes -= entry.size;
+                releaser.release(entry.buffer);
+                evictions++;
+            }
+            if (queue.isEmpty()) {
+                queues.remove();
+            }
+        }
+    }
+}
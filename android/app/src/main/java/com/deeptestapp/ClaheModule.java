@@ -1,7 +1,11 @@
 package com.deeptestapp;
 
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.os.Debug;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -11,22 +15,77 @@ import com.facebook.react.bridge.*;
 import org.opencv.android.Utils;
 import org.opencv.core.*;
 import org.opencv.core.Size;
-import org.opencv.imgproc.CLAHE;
 import org.opencv.imgproc.Imgproc;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.io.FileOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
-import android.graphics.Color;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import android.util.Base64;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 public class ClaheModule extends ReactContextBaseJavaModule {
 
-    public ClaheModule(ReactApplicationContext context) {
+    static final String BATCH_PROGRESS_EVENT = "CLAHEBridgeBatchProgress";
+    static final String MEMORY_PRESSURE_EVENT = "CLAHEBridgeMemoryPressure";
+    // Batch tensors emitted but not yet acknowledged by JS, each one is ~800 KB of base64
+    private static final int DEFAULT_BATCH_WINDOW = 2;
+    // Preview snapshots are scored at about this width, and judged for exposure on mean luma
+    private static final int DEFAULT_PREVIEW_WIDTH = 320;
+    private static final double DEFAULT_MIN_LUMA = 40.0;
+    private static final double DEFAULT_MAX_LUMA = 220.0;
+
+    private final MatPool matPool = new MatPool();
+    private final ImageQualityChecker qualityChecker = new ImageQualityChecker(matPool);
+    // Image work runs here instead of on the shared native-modules thread
+    private final NativeTaskExecutor executor = new NativeTaskExecutor();
+    private final BatchPreprocessor batchPreprocessor = new BatchPreprocessor();
+    // Emit credits of running batches by token, JS hands one back per consumed event
+    private final Map<String, Semaphore> batchCredits = new ConcurrentHashMap<>();
+    private final ImageIngestor ingestor;
+    // Classifier tensors by content hash, shared with NativeInferenceModule
+    private final PreprocessCache cache;
+    private final String apkStamp;
+
+    // Forwards onTrimMemory to JS so cached inference sessions can be dropped as well
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                onMemoryPressure(level);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            onMemoryPressure(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration configuration) {
+        }
+    };
+
+    public ClaheModule(ReactApplicationContext context, PreprocessCache cache) {
         super(context);
+        this.cache = cache;
+        apkStamp = AssetModelProvider.apkStamp(context);
+        context.registerComponentCallbacks(memoryCallbacks);
+        ingestor = new ImageIngestor(context.getContentResolver(), new File(context.getFilesDir(), "images"));
     }
 
     @NonNull
@@ -35,198 +94,840 @@ public class ClaheModule extends ReactContextBaseJavaModule {
         return "CLAHEBridge";
     }
 
+    @Nullable
+    @Override
+    public Map<String, Object> getConstants() {
+        Map<String, Object> constants = new HashMap<>();
+        // JS sizes inference thread budgets from this
+        constants.put("cpuCores", Runtime.getRuntime().availableProcessors());
+        return constants;
+    }
+
+    @Override
+    public void invalidate() {
+        getReactApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        executor.shutdown();
+        batchPreprocessor.shutdown();
+        matPool.clear();
+        super.invalidate();
+    }
+
     @ReactMethod
     public void applyClahe(String imagePath, Promise promise) {
-        try {
-            Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-            if (bitmap == null) {
-                promise.reject("CLAHE_ERROR", "Could not decode image");
-                return;
+        executor.submit(NativeTaskExecutor.Priority.INTERACTIVE, null, promise, token -> {
+            try {
+                // Decode as mutable so the result can be written back into the same bitmap
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+                options.inMutable = true;
+                Bitmap bitmap = BitmapFactory.decodeFile(imagePath, options);
+                if (bitmap == null) {
+                    promise.reject("CLAHE_ERROR", "Could not decode image");
+                    return;
+                }
+
+                int rows = bitmap.getHeight();
+                int cols = bitmap.getWidth();
+                Mat rgba = matPool.acquire(rows, cols, CvType.CV_8UC4);
+                Mat mat = matPool.acquire(rows, cols, CvType.CV_8UC3);
+                String outputPath = imagePath.replace(".png", "_clahe.png");
+                try {
+                    Utils.bitmapToMat(bitmap, rgba);
+                    // Drop alpha channel, convert BGRA→BGR
+                    Imgproc.cvtColor(rgba, mat, Imgproc.COLOR_BGRA2BGR);
+
+                    ImagePreprocessor.equaliseLightness(matPool, mat, Imgproc.COLOR_BGR2Lab, Imgproc.COLOR_Lab2BGR, 1.5, 16);
+
+                    Utils.matToBitmap(mat, bitmap);
+                    try (FileOutputStream out = new FileOutputStream(new File(outputPath))) {
+                        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                    }
+                } finally {
+                    matPool.recycle(rgba);
+                    matPool.recycle(mat);
+                    bitmap.recycle();
+                }
+
+                promise.resolve("file://" + outputPath);
+            } catch (Exception e) {
+                Log.e("CLAHE", "Error processing image", e);
+                promise.reject("CLAHE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+    @ReactMethod
+    public void makeLetterBox(String imagePath, int targetWidth, int targetHeight, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.INTERACTIVE, null, promise, token -> {
+            try {
+                Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
+                if (bitmap == null) {
+                    promise.reject("LETTERBOX_ERROR", "Could not decode image");
+                    return;
+                }
+
+                int srcWidth = bitmap.getWidth();
+                int srcHeight = bitmap.getHeight();
+
+                float scale = Math.min((float) targetWidth / srcWidth, (float) targetHeight / srcHeight);
+                int newWidth = Math.round(srcWidth * scale);
+                int newHeight = Math.round(srcHeight * scale);
+
+                Mat mat = matPool.acquire(srcHeight, srcWidth, CvType.CV_8UC4);
+                Mat bgr = matPool.acquire(srcHeight, srcWidth, CvType.CV_8UC3);
+                Mat resizedMat = matPool.acquire(newHeight, newWidth, CvType.CV_8UC3);
+                Bitmap resized = null;
+                Bitmap canvas = null;
+                String outputPath = imagePath.replace(".png", "_letterbox.png");
+                try {
+                    // High-quality Lanczos resize using OpenCV
+                    Utils.bitmapToMat(bitmap, mat);
+                    // Drop alpha channel
+                    Imgproc.cvtColor(mat, bgr, Imgproc.COLOR_BGRA2BGR);
+                    Imgproc.resize(bgr, resizedMat, new Size(newWidth, newHeight), 0, 0, Imgproc.INTER_LANCZOS4);
+                    resized = Bitmap.createBitmap(newWidth, newHeight, Bitmap.Config.ARGB_8888);
+                    Utils.matToBitmap(resizedMat, resized);
+
+                    canvas = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+
+                    // Fill canvas with black
+                    canvas.eraseColor(android.graphics.Color.BLACK);
+
+                    // Draw resized bitmap centered on canvas
+                    android.graphics.Canvas drawingCanvas = new android.graphics.Canvas(canvas);
+                    int left = (targetWidth - newWidth) / 2;
+                    int top = (targetHeight - newHeight) / 2;
+                    drawingCanvas.drawBitmap(resized, left, top, null);
+
+                    // Save result
+                    try (FileOutputStream out = new FileOutputStream(new File(outputPath))) {
+                        canvas.compress(Bitmap.CompressFormat.PNG, 100, out);
+                    }
+                } finally {
+                    matPool.recycle(mat);
+                    matPool.recycle(bgr);
+                    matPool.recycle(resizedMat);
+                    bitmap.recycle();
+                    if (resized != null) {
+                        resized.recycle();
+                    }
+                    if (canvas != null) {
+                        canvas.recycle();
+                    }
+                }
+
+                promise.resolve("file://" + outputPath);
+            } catch (Exception e) {
+                Log.e("LETTERBOX", "Error creating letterbox image", e);
+                promise.reject("LETTERBOX_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void isImageBlurred(String imagePath, @Nullable Double blurThresholdValue, @Nullable Double blockThresholdValue, Promise promise) {
+        WritableMap options = Arguments.createMap();
+        if (blurThresholdValue != null) {
+            options.putDouble("blurThreshold", blurThresholdValue);
+        }
+        if (blockThresholdValue != null) {
+            options.putDouble("blockThreshold", blockThresholdValue);
+        }
+        // The single full-resolution check it always was, the pyramid gate is opt-in via checkImageQuality
+        checkImageQuality(imagePath, options, promise);
+    }
+
+    @ReactMethod
+    public void checkImageQuality(String imagePath, ReadableMap options, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.INTERACTIVE, null, promise, token -> {
+            try {
+                // Apply default thresholds if options are missing
+                double blurThresh = options.hasKey("blurThreshold") ? options.getDouble("blurThreshold") : ImageQualityChecker.DEFAULT_BLUR_THRESHOLD;
+                double blockThresh = options.hasKey("blockThreshold") ? options.getDouble("blockThreshold") : ImageQualityChecker.DEFAULT_BLOCK_THRESHOLD;
+                double downscale = options.hasKey("downscale") ? options.getDouble("downscale") : 1.0;
+                int pyramidLevels = options.hasKey("pyramidLevels") ? options.getInt("pyramidLevels") : 0;
+                double band = options.hasKey("uncertaintyBand") ? options.getDouble("uncertaintyBand") : ImageQualityChecker.DEFAULT_UNCERTAINTY_BAND;
+                // 1, 2, 4 or 8, applied by the decoder; thresholds are in units of the decoded image
+                int reduction = options.hasKey("decodeReduction") ? options.getInt("decodeReduction") : 1;
+
+                // Reduced decode without a Bitmap, gray mixed the way the thresholds were calibrated
+                long decodeTic = System.nanoTime();
+                Mat gray = ImageQualityChecker.decodeCalibratedGray(matPool, imagePath, reduction);
+                if (gray == null) {
+                    promise.reject("BLUR_CHECK_IMAGE_ERROR", "Could not decode image");
+                    return;
+                }
+                long decodeMs = (System.nanoTime() - decodeTic) / 1_000_000;
+
+                // The pyramid gate always ends at the decoded resolution, so it ignores the downscale factor
+                int blockSize = ImageQualityChecker.blockSize(reduction);
+                ImageQualityChecker.Result quality = pyramidLevels > 0
+                        ? qualityChecker.gate(gray, blockSize, pyramidLevels, band, blurThresh, blockThresh)
+                        : qualityChecker.check(gray, blockSize, downscale, blurThresh, blockThresh);
+                matPool.recycle(gray);
+
+                WritableArray levels = Arguments.createArray();
+                for (ImageQualityChecker.LevelTiming timing : quality.levels) {
+                    WritableMap level = Arguments.createMap();
+                    level.putInt("level", timing.level);
+                    level.putInt("width", timing.width);
+                    level.putInt("height", timing.height);
+                    level.putDouble("blurVariance", timing.blurVariance);
+                    level.putDouble("elapsedMs", timing.elapsedMs);
+                    levels.pushMap(level);
+                }
+
+                WritableMap result = Arguments.createMap();
+                result.putBoolean("isPoor", quality.isPoor);
+                result.putDouble("blurVariance", quality.blurVariance);
+                result.putDouble("blockiness", quality.blockiness);
+                result.putDouble("elapsedMs", quality.elapsedMs);
+                result.putDouble("decodeMs", decodeMs);
+                if (pyramidLevels > 0) {
+                    result.putInt("decidedAtLevel", quality.decidedAtLevel);
+                    result.putArray("levels", levels);
+                }
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("BLUR_CHECK", "Error checking image blur", e);
+                promise.reject("BLUR_CHECK_EXCEPTION", e.getMessage());
             }
+        });
+    }
+
+    /**
+     * Scores sharpness and exposure of a camera preview snapshot, then deletes it. The snapshot
+     * is decoded straight to gray at the coarsest reduction that keeps it at least targetWidth
+     * wide and downsampled the rest of the way, so a call costs a few milliseconds. Laplacian
+     * variance depends on scale, so blurThreshold has to be calibrated for previews; without one
+     * sharpness is not judged.
+     */
+    @ReactMethod
+    public void scorePreviewFrame(String imagePath, ReadableMap options, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.INTERACTIVE, null, promise, token -> {
+            Mat gray = null;
+            Mat small = null;
+            try {
+                long tic = System.nanoTime();
+                int targetWidth = options.hasKey("targetWidth") ? options.getInt("targetWidth") : DEFAULT_PREVIEW_WIDTH;
+                double blurThreshold = options.hasKey("blurThreshold") ? options.getDouble("blurThreshold") : 0.0;
+                double minLuma = options.hasKey("minLuma") ? options.getDouble("minLuma") : DEFAULT_MIN_LUMA;
+                double maxLuma = options.hasKey("maxLuma") ? options.getDouble("maxLuma") : DEFAULT_MAX_LUMA;
+
+                BitmapFactory.Options bounds = DecodePlanner.readBounds(imagePath);
+                int reduction = 1;
+                while (bounds != null && reduction < 8 && bounds.outWidth / (reduction * 2) >= targetWidth) {
+                    reduction *= 2;
+                }
+                gray = bounds != null ? ImageQualityChecker.decodeGray(matPool, imagePath, reduction) : null;
+                if (gray == null) {
+                    promise.reject("PREVIEW_SCORE_ERROR", "Could not decode preview frame");
+                    return;
+                }
 
-            Mat mat = new Mat();
-            Utils.bitmapToMat(bitmap, mat);
-            // Drop alpha channel, convert BGRA→BGR
-            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGRA2BGR);
+                double scale = Math.min(1.0, (double) targetWidth / gray.cols());
+                int cols = Math.max(1, (int) Math.round(gray.cols() * scale));
+                int rows = Math.max(1, (int) Math.round(gray.rows() * scale));
+                small = matPool.acquire(rows, cols, CvType.CV_8UC1);
+                Imgproc.resize(gray, small, new Size(cols, rows), 0, 0, Imgproc.INTER_AREA);
+
+                double sharpness = qualityChecker.sharpness(small);
+                double brightness = Core.mean(small).val[0];
+                boolean isSharp = sharpness >= blurThreshold;
+                boolean isExposed = brightness >= minLuma && brightness <= maxLuma;
+
+                WritableMap result = Arguments.createMap();
+                result.putDouble("sharpness", sharpness);
+                result.putDouble("brightness", brightness);
+                result.putBoolean("isSharp", isSharp);
+                result.putBoolean("isExposed", isExposed);
+                result.putBoolean("passed", isSharp && isExposed);
+                result.putDouble("elapsedMs", (System.nanoTime() - tic) / 1_000_000.0);
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("PREVIEW_SCORE", "Error scoring preview frame", e);
+                promise.reject("PREVIEW_SCORE_EXCEPTION", e.getMessage());
+            } finally {
+                matPool.recycle(gray);
+                matPool.recycle(small);
+                // Snapshots exist only to be scored
+                new File(imagePath).delete();
+            }
+        });
+    }
 
-            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGR2Lab);
-            java.util.List<Mat> lab = new java.util.ArrayList<>(3);
-            Core.split(mat, lab);
+    /**
+     * Times decode and scoring of one image through the old Bitmap path and the gray decodes at
+     * each reduction, averaged over the given number of runs after one warm-up each.
+     */
+    @ReactMethod
+    public void benchmarkQualityDecode(String imagePath, int runs, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.BACKGROUND, null, promise, token -> {
+            try {
+                WritableArray results = Arguments.createArray();
+                for (int reduction : new int[]{0, 1, 2, 4}) {
+                    double decodeMs = 0;
+                    double scoreMs = 0;
+                    ImageQualityChecker.Result quality = null;
+                    int width = 0;
+                    for (int run = 0; run <= runs; run++) {
+                        token.throwIfCancelled();
+                        long tic = System.nanoTime();
+                        // Reduction 0 stands for the Bitmap path the gray decode replaced
+                        Mat gray = reduction == 0
+                                ? ImageQualityChecker.decodeGrayFromBitmap(matPool, imagePath)
+                                : ImageQualityChecker.decodeCalibratedGray(matPool, imagePath, reduction);
+                        if (gray == null) {
+                            promise.reject("BLUR_CHECK_IMAGE_ERROR", "Could not decode image");
+                            return;
+                        }
+                        long decoded = System.nanoTime();
+                        quality = qualityChecker.check(gray, ImageQualityChecker.blockSize(Math.max(1, reduction)), 1.0,
+                                ImageQualityChecker.DEFAULT_BLUR_THRESHOLD, ImageQualityChecker.DEFAULT_BLOCK_THRESHOLD);
+                        long scored = System.nanoTime();
+                        width = gray.cols();
+                        matPool.recycle(gray);
+                        // The first run only warms the pool and the decoder up
+                        if (run > 0) {
+                            decodeMs += (decoded - tic) / 1e6;
+                            scoreMs += (scored - decoded) / 1e6;
+                        }
+                    }
+
+                    WritableMap result = Arguments.createMap();
+                    result.putString("path", reduction == 0 ? "bitmap" : "gray/" + reduction);
+                    result.putInt("width", width);
+                    result.putDouble("decodeMs", decodeMs / Math.max(1, runs));
+                    result.putDouble("scoreMs", scoreMs / Math.max(1, runs));
+                    result.putDouble("blurVariance", quality.blurVariance);
+                    result.putDouble("blockiness", quality.blockiness);
+                    results.pushMap(result);
+                }
+                promise.resolve(results);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                Log.e("BLUR_CHECK", "Error benchmarking quality decode", e);
+                promise.reject("BLUR_CHECK_EXCEPTION", e.getMessage());
+            }
+        });
+    }
 
-            CLAHE clahe = Imgproc.createCLAHE(1.5, new Size(16, 16));
-            clahe.apply(lab.get(0), lab.get(0));
+    @ReactMethod
+    public void prepareTensor(String imagePath, int targetWidth, int targetHeight, String layout,
+                              @Nullable ReadableArray meanValues, @Nullable ReadableArray stdValues,
+                              boolean letterbox, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.INTERACTIVE, null, promise, token -> {
+            try {
+                long tic = System.nanoTime();
+
+                ImagePreprocessor.Options options = new ImagePreprocessor.Options();
+                options.targetWidth = targetWidth;
+                options.targetHeight = targetHeight;
+                options.letterbox = letterbox;
+                options.interpolation = Imgproc.INTER_LINEAR;
+                options.clahe = false;
+                options.layout = layout;
+                options.mean = ImagePreprocessor.toChannels(meanValues);
+                options.std = ImagePreprocessor.toChannels(stdValues);
+
+                ImagePreprocessor.Output output = ImagePreprocessor.run(matPool, imagePath, null, options, token, null);
+                if (output == null) {
+                    promise.reject("TENSOR_ERROR", "Could not decode image");
+                    return;
+                }
+                ImagePreprocessor.Placement placement = output.placement;
+
+                WritableMap result = Arguments.createMap();
+                result.putInt("width", placement.width);
+                result.putInt("height", placement.height);
+                result.putInt("sourceWidth", placement.sourceWidth);
+                result.putInt("sourceHeight", placement.sourceHeight);
+                result.putInt("offsetX", placement.left);
+                result.putInt("offsetY", placement.top);
+                result.putDouble("scale", placement.scale);
+                result.putString("tensor", ImagePreprocessor.encodeFloats(output.tensor));
+
+                Log.d("TENSOR", "Prepared " + layout + " tensor " + targetWidth + "x" + targetHeight + " in "
+                        + (System.nanoTime() - tic) / 1_000_000 + " ms");
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("TENSOR", "Error preparing tensor", e);
+                promise.reject("TENSOR_EXCEPTION", e.getMessage());
+            }
+        });
+    }
 
-            // Apply Gaussian blur to reduce artifacts
-            Imgproc.GaussianBlur(lab.get(0), lab.get(0), new Size(3, 3), 0);
+    /**
+     * Decodes, crops, letterboxes, equalises and normalises the image into a classifier tensor.
+     * Tensors are cached by content hash, box and options, so the same region is only prepared
+     * once. Debug runs and callers passing cache: false always preprocess.
+     */
+    @ReactMethod
+    public void runPreprocessingPipeline(String imagePath, ReadableMap options, Promise promise) {
+        // Interactive by default, batch callers pass "background" and a token to cancel with
+        NativeTaskExecutor.Priority priority = NativeTaskExecutor.Priority.from(
+                options.hasKey("priority") ? options.getString("priority") : null);
+        String taskToken = options.hasKey("token") ? options.getString("token") : null;
+        executor.submit(priority, taskToken, promise, token -> {
+            try {
+                long tic = System.nanoTime();
+
+                // Decode once, every later stage works on in-memory Mats
+                ImagePreprocessor.Options parsed = ImagePreprocessor.Options.from(options);
+                double[] box = options.hasKey("box") && !options.isNull("box")
+                        ? ImagePreprocessor.toBox(options.getMap("box")) : null;
+                boolean cacheable = !parsed.debug && (!options.hasKey("cache") || options.getBoolean("cache"));
+                String key = cacheable ? PreprocessCache.tensorKey(contentHash(imagePath, options), box,
+                        parsed.cacheKey(), apkStamp) : null;
+                byte[] cached = key != null ? cache.get(key) : null;
+                int tensorBytes = 3 * parsed.targetWidth * parsed.targetHeight * 4;
+                float[] tensor;
+                ImagePreprocessor.Output output = null;
+                if (cached != null && cached.length == tensorBytes) {
+                    tensor = toFloats(cached);
+                } else {
+                    cached = null;
+                    output = ImagePreprocessor.run(matPool, imagePath, box, parsed, token, null);
+                    if (output == null) {
+                        promise.reject("PIPELINE_ERROR", "Could not decode image");
+                        return;
+                    }
+                    tensor = output.tensor;
+                    if (key != null) {
+                        cache.put(key, toBytes(tensor));
+                    }
+                }
 
-            Core.merge(lab, mat);
-            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_Lab2BGR);
+                long elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+                WritableMap result = Arguments.createMap();
+                result.putInt("width", parsed.targetWidth);
+                result.putInt("height", parsed.targetHeight);
+                result.putString("tensor", ImagePreprocessor.encodeFloats(tensor));
+                result.putBoolean("cached", cached != null);
+                result.putDouble("elapsedMs", elapsedMs);
+                if (output != null && parsed.debug) {
+                    WritableMap debugFiles = Arguments.createMap();
+                    for (Map.Entry<String, String> file : output.debugFiles.entrySet()) {
+                        debugFiles.putString(file.getKey(), file.getValue());
+                    }
+                    result.putMap("debugFiles", debugFiles);
+                }
 
-            Bitmap output = Bitmap.createBitmap(mat.cols(), mat.rows(), Bitmap.Config.ARGB_8888);
-            Utils.matToBitmap(mat, output);
+                Log.d("PIPELINE", "Preprocessed " + imagePath + " in " + elapsedMs + " ms"
+                        + (cached != null ? " (cached)" : ""));
+                promise.resolve(result);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (IllegalArgumentException e) {
+                promise.reject("PIPELINE_ERROR", e.getMessage());
+            } catch (Exception e) {
+                Log.e("PIPELINE", "Error running preprocessing pipeline", e);
+                promise.reject("PIPELINE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
 
-            String outputPath = imagePath.replace(".png", "_clahe.png");
-            File outFile = new File(outputPath);
-            FileOutputStream out = new FileOutputStream(outFile);
-            output.compress(Bitmap.CompressFormat.PNG, 100, out);
-            out.close();
+    @ReactMethod
+    public void preprocessBatch(ReadableArray items, ReadableMap options, Promise promise) {
+        // Always background, the coordinator mostly waits on the batch workers
+        String taskToken = options.hasKey("token") ? options.getString("token") : null;
+        // Without a token JS cannot acknowledge, so events are emitted as soon as they are ready
+        Semaphore credits = taskToken != null
+                ? new Semaphore(options.hasKey("window") ? options.getInt("window") : DEFAULT_BATCH_WINDOW) : null;
+        executor.submit(NativeTaskExecutor.Priority.BACKGROUND, taskToken, promise, token -> {
+            if (credits != null) {
+                batchCredits.put(taskToken, credits);
+            }
+            try {
+                ImagePreprocessor.Options parsed = ImagePreprocessor.Options.from(options);
+                List<BatchPreprocessor.Item> batch = new ArrayList<>();
+                for (int i = 0; i < items.size(); i++) {
+                    ReadableMap item = items.getMap(i);
+                    double[] box = item.hasKey("box") && !item.isNull("box")
+                            ? ImagePreprocessor.toBox(item.getMap("box")) : null;
+                    String id = item.hasKey("id") ? item.getString("id") : String.valueOf(i);
+                    batch.add(new BatchPreprocessor.Item(id, item.getString("path"), box));
+                }
 
-            promise.resolve("file://" + outputPath);
-        } catch (Exception e) {
-            Log.e("CLAHE", "Error processing image", e);
-            promise.reject("CLAHE_EXCEPTION", e.getMessage());
-        }
+                BatchPreprocessor.Summary summary = batchPreprocessor.run(batch, parsed, token,
+                        (index, item, output, error, completed) -> {
+                            // Blocking here stalls the workers too, they only run a few items ahead
+                            awaitCredit(credits, token);
+                            WritableMap event = Arguments.createMap();
+                            if (taskToken != null) {
+                                event.putString("token", taskToken);
+                            }
+                            event.putInt("index", index);
+                            event.putString("id", item.id);
+                            event.putInt("completed", completed);
+                            event.putInt("total", batch.size());
+                            if (output != null) {
+                                event.putInt("width", parsed.targetWidth);
+                                event.putInt("height", parsed.targetHeight);
+                                event.putString("tensor", ImagePreprocessor.encodeFloats(output.tensor));
+                            } else {
+                                event.putString("error", error);
+                            }
+                            emit(BATCH_PROGRESS_EVENT, event);
+                        });
+
+                WritableMap result = Arguments.createMap();
+                result.putInt("total", summary.total);
+                result.putInt("succeeded", summary.succeeded);
+                result.putInt("failed", summary.failed);
+                result.putDouble("elapsedMs", summary.elapsedMs);
+                result.putInt("workers", batchPreprocessor.getWorkerCount());
+
+                Log.d("BATCH", "Preprocessed " + summary.total + " images on " + batchPreprocessor.getWorkerCount()
+                        + " workers in " + summary.elapsedMs + " ms");
+                promise.resolve(result);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                Log.e("BATCH", "Error running batch preprocessing", e);
+                promise.reject("BATCH_EXCEPTION", e.getMessage());
+            } finally {
+                if (taskToken != null) {
+                    batchCredits.remove(taskToken, credits);
+                }
+            }
+        });
     }
+
+    /** Called by JS once it has consumed a batch event, lets native emit the next one. */
     @ReactMethod
-    public void makeLetterBox(String imagePath, int targetWidth, int targetHeight, Promise promise) {
+    public void acknowledgeBatchItem(String token) {
+        Semaphore credits = batchCredits.get(token);
+        if (credits != null) {
+            credits.release();
+        }
+    }
+
+    private static void awaitCredit(@Nullable Semaphore credits, NativeTaskExecutor.CancellationToken token) {
+        if (credits == null) {
+            return;
+        }
         try {
-            Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-            if (bitmap == null) {
-                promise.reject("LETTERBOX_ERROR", "Could not decode image");
-                return;
-            }
-
-            int srcWidth = bitmap.getWidth();
-            int srcHeight = bitmap.getHeight();
-
-            float scale = Math.min((float) targetWidth / srcWidth, (float) targetHeight / srcHeight);
-            int newWidth = Math.round(srcWidth * scale);
-            int newHeight = Math.round(srcHeight * scale);
-
-            // High-quality Lanczos resize using OpenCV
-            Mat mat = new Mat();
-            Utils.bitmapToMat(bitmap, mat);
-            // Drop alpha channel
-            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGRA2BGR);
-            Mat resizedMat = new Mat();
-            Imgproc.resize(mat, resizedMat, new Size(newWidth, newHeight), 0, 0, Imgproc.INTER_LANCZOS4);
-            Bitmap resized = Bitmap.createBitmap(newWidth, newHeight, Bitmap.Config.ARGB_8888);
-            Utils.matToBitmap(resizedMat, resized);
-
-            Bitmap canvas = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
-
-            // Fill canvas with black
-            canvas.eraseColor(android.graphics.Color.BLACK);
-
-            // Draw resized bitmap centered on canvas
-            android.graphics.Canvas drawingCanvas = new android.graphics.Canvas(canvas);
-            int left = (targetWidth - newWidth) / 2;
-            int top = (targetHeight - newHeight) / 2;
-            drawingCanvas.drawBitmap(resized, left, top, null);
-
-            // Save result
-            String outputPath = imagePath.replace(".png", "_letterbox.png");
-            File outFile = new File(outputPath);
-            FileOutputStream out = new FileOutputStream(outFile);
-            canvas.compress(Bitmap.CompressFormat.PNG, 100, out);
-            out.close();
-
-            promise.resolve("file://" + outputPath);
-        } catch (Exception e) {
-            Log.e("LETTERBOX", "Error creating letterbox image", e);
-            promise.reject("LETTERBOX_EXCEPTION", e.getMessage());
+            // Wakes up regularly so a cancelled batch does not wait for an acknowledgement
+            while (!credits.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                token.throwIfCancelled();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Batch was interrupted");
         }
     }
 
+    // Required by NativeEventEmitter on the JS side
     @ReactMethod
-    public void isImageBlurred(String imagePath, @Nullable Double blurThresholdValue, @Nullable Double blockThresholdValue, Promise promise) {
+    public void addListener(String eventName) {
+    }
+
+    @ReactMethod
+    public void removeListeners(double count) {
+    }
+
+    private void onMemoryPressure(int level) {
+        Log.d("MEMORY", "Trim memory level " + level + ", releasing " + matPool.getBytesHeld() + " pooled bytes");
+        matPool.clear();
+        cache.trimMemory();
+        WritableMap event = Arguments.createMap();
+        event.putInt("level", level);
+        emit(MEMORY_PRESSURE_EVENT, event);
+    }
+
+    private static String contentHash(String imagePath, ReadableMap options) throws IOException {
+        if (options.hasKey("contentHash") && !options.isNull("contentHash")) {
+            return options.getString("contentHash");
+        }
+        return ImageIngestor.contentHash(imagePath);
+    }
+
+    // Native order, the layout NativeInferenceModule caches straight from its input buffer
+    private static byte[] toBytes(float[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.nativeOrder());
+        buffer.asFloatBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static float[] toFloats(byte[] bytes) {
+        float[] values = new float[bytes.length / 4];
+        ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder()).asFloatBuffer().get(values);
+        return values;
+    }
+
+    private void emit(String eventName, WritableMap payload) {
+        ReactApplicationContext context = getReactApplicationContext();
+        if (context.hasActiveReactInstance()) {
+            context.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(eventName, payload);
+        }
+    }
+
+    /**
+     * Pool counters and byte figures. peakBytes is the most the pool's Mats held at once, in use
+     * and idle together; with resetPeak it starts over after being read.
+     */
+    @ReactMethod
+    public void getPoolStats(boolean resetPeak, Promise promise) {
+        WritableMap result = Arguments.createMap();
+        result.putDouble("hits", matPool.getHits());
+        result.putDouble("misses", matPool.getMisses());
+        result.putDouble("evictions", matPool.getEvictions());
+        result.putDouble("bytesHeld", matPool.getBytesHeld());
+        result.putDouble("bytesInUse", matPool.getBytesInUse());
+        result.putDouble("bytesAcquired", matPool.getBytesAcquired());
+        result.putDouble("peakBytes", matPool.getPeakBytes());
+        result.putInt("pooledMats", matPool.getPooledCount());
+        if (resetPeak) {
+            matPool.resetPeak();
+        }
+        promise.resolve(result);
+    }
+
+    @ReactMethod
+    public void releasePool(Promise promise) {
+        matPool.clear();
+        promise.resolve(null);
+    }
+
+    @ReactMethod
+    public void cancelTask(String token, Promise promise) {
+        promise.resolve(executor.cancel(token));
+    }
+
+    @ReactMethod
+    public void getExecutorStats(Promise promise) {
+        WritableMap result = Arguments.createMap();
+        result.putMap("interactive", laneStatsToMap(executor.interactiveStats()));
+        result.putMap("background", laneStatsToMap(executor.backgroundStats()));
+        promise.resolve(result);
+    }
+
+    /**
+     * Resident and peak resident memory of the app process, from /proc/self/status. With reset,
+     * the peak is cleared first (best effort, not every kernel allows it) so a following
+     * measurement only covers what runs after this call.
+     */
+    @ReactMethod
+    public void getMemoryStats(boolean resetPeak, Promise promise) {
         try {
-            Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-            if (bitmap == null) {
-                promise.reject("BLUR_CHECK_IMAGE_ERROR", "Could not decode image");
-                return;
-            }
-
-            Mat mat = new Mat();
-            Utils.bitmapToMat(bitmap, mat);
-            // Drop alpha channel and convert to BGR
-            Imgproc.cvtColor(mat, mat, Imgproc.COLOR_BGRA2BGR);
-
-            // Apply default thresholds if arguments are null
-            double blurThresh = blurThresholdValue != null ? blurThresholdValue : 50.0;
-            double blockThresh = blockThresholdValue != null ? blockThresholdValue : 10.0;
-
-            // Convert to grayscale
-            Mat gray = new Mat();
-            Imgproc.cvtColor(mat, gray, Imgproc.COLOR_BGR2GRAY);
-
-            // Compute Laplacian variance for blur detection
-            Mat laplacian = new Mat();
-            Imgproc.Laplacian(gray, laplacian, CvType.CV_64F);
-            MatOfDouble mean = new MatOfDouble();
-            MatOfDouble stddev = new MatOfDouble();
-            Core.meanStdDev(laplacian, mean, stddev);
-            double variance = stddev.get(0,0)[0] * stddev.get(0,0)[0];
-
-            // Compute blockiness by measuring differences at 8×8 block boundaries
-            int rows = gray.rows();
-            int cols = gray.cols();
-            int blockSize = 8;
-            double blockiness = 0.0;
-            int count = 0;
-            // Horizontal boundaries
-            for (int y = blockSize; y < rows; y += blockSize) {
-                for (int x = 0; x < cols; x++) {
-                    double curr = gray.get(y, x)[0];
-                    double prev = gray.get(y - 1, x)[0];
-                    blockiness += Math.abs(curr - prev);
-                    count++;
-                }
-            }
-            // Vertical boundaries
-            for (int x = blockSize; x < cols; x += blockSize) {
-                for (int y = 0; y < rows; y++) {
-                    double curr = gray.get(y, x)[0];
-                    double prev = gray.get(y, x - 1)[0];
-                    blockiness += Math.abs(curr - prev);
-                    count++;
-                }
-            }
-            blockiness = count > 0 ? blockiness / count : 0.0;
-
-            // Determine if image quality is poor
-            boolean isPoor = (variance < blurThresh) || (blockiness > blockThresh);
+            if (resetPeak) {
+                try (FileOutputStream clearRefs = new FileOutputStream("/proc/self/clear_refs")) {
+                    clearRefs.write("5".getBytes());
+                } catch (IOException e) {
+                    Log.d("MEMORY", "Peak RSS cannot be reset: " + e.getMessage());
+                }
+            }
 
             WritableMap result = Arguments.createMap();
-            result.putBoolean("isPoor", isPoor);
-            result.putDouble("blurVariance", variance);
-            result.putDouble("blockiness", blockiness);
+            try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("VmRSS:")) {
+                        result.putDouble("rssBytes", kilobytes(line) * 1024.0);
+                    } else if (line.startsWith("VmHWM:")) {
+                        result.putDouble("peakRssBytes", kilobytes(line) * 1024.0);
+                    }
+                }
+            }
             promise.resolve(result);
         } catch (Exception e) {
-            Log.e("BLUR_CHECK", "Error checking image blur", e);
-            promise.reject("BLUR_CHECK_EXCEPTION", e.getMessage());
+            Log.e("MEMORY", "Error reading memory stats", e);
+            promise.reject("MEMORY_EXCEPTION", e.getMessage());
         }
     }
 
+    private static long kilobytes(String statusLine) {
+        return Long.parseLong(statusLine.replaceAll("[^0-9]", ""));
+    }
+
+    private static WritableMap laneStatsToMap(NativeTaskExecutor.LaneStats stats) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("queued", stats.queued);
+        map.putInt("active", stats.active);
+        map.putDouble("started", stats.started);
+        map.putDouble("cancelled", stats.cancelled);
+        map.putDouble("averageWaitMs", stats.averageWaitMs);
+        map.putDouble("maxWaitMs", stats.maxWaitMs);
+        return map;
+    }
+
+    /**
+     * Copies an image (path, file:// or content:// URI) into app storage in one streaming pass
+     * and resolves with its content hash, stored size, MIME type and EXIF orientation.
+     */
+    @ReactMethod
+    public void ingestImage(String source, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.INTERACTIVE, null, promise, token -> {
+            try {
+                ImageIngestor.Result ingested = ingestor.ingest(source);
+
+                WritableMap result = Arguments.createMap();
+                result.putString("fileUri", "file://" + ingested.file.getPath());
+                result.putString("contentHash", ingested.contentHash);
+                result.putDouble("bytes", ingested.bytes);
+                result.putInt("width", ingested.metadata.width);
+                result.putInt("height", ingested.metadata.height);
+                result.putInt("orientation", ingested.metadata.orientation);
+                result.putString("mimeType", ingested.metadata.mimeType);
+                result.putBoolean("duplicate", ingested.duplicate);
+                result.putDouble("elapsedMs", ingested.elapsedMs);
+
+                Log.d("INGEST", "Ingested " + source + " (" + ingested.bytes + " B) in " + ingested.elapsedMs + " ms");
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("INGEST", "Error ingesting image", e);
+                promise.reject("INGEST_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
     @ReactMethod
     public void readPNGFromFile(String imagePath, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.INTERACTIVE, null, promise, token -> {
+            try {
+                long tic = System.nanoTime();
+                RgbaImage image = decodeRgba(imagePath);
+                if (image == null) {
+                    promise.reject("READ_PNG_ERROR", "Failed to decode image");
+                    return;
+                }
+
+                String base64 = Base64.encodeToString(image.pixels, Base64.NO_WRAP);
+                WritableMap result = Arguments.createMap();
+                result.putInt("width", image.width);
+                result.putInt("height", image.height);
+                result.putString("rgbaBuffer", base64);
+
+                Log.d("READ_PNG", "Read " + image.width + "x" + image.height + " pixels in "
+                        + (System.nanoTime() - tic) / 1_000_000 + " ms");
+                promise.resolve(result);
+            } catch (Exception e) {
+                promise.reject("READ_PNG_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Times readPNGFromFile's native side on the bulk copy path and on the per-pixel repack it
+     * replaced: decode plus copy, base64 encoding, and the Java heap each path allocates per
+     * frame, measured from ART's allocation counter next to the figure the array sizes predict.
+     */
+    @ReactMethod
+    public void benchmarkPixelTransfer(String imagePath, int runs, Promise promise) {
+        executor.submit(NativeTaskExecutor.Priority.BACKGROUND, null, promise, token -> {
+            try {
+                WritableArray results = Arguments.createArray();
+                for (boolean repack : new boolean[]{true, false}) {
+                    double decodeMs = 0;
+                    double encodeMs = 0;
+                    RgbaImage image = null;
+                    int base64Length = 0;
+                    long allocated = 0;
+                    for (int run = 0; run <= runs; run++) {
+                        token.throwIfCancelled();
+                        long allocatedBefore = allocatedJavaBytes();
+                        long tic = System.nanoTime();
+                        image = repack ? decodeRgbaRepacked(imagePath) : decodeRgba(imagePath);
+                        if (image == null) {
+                            promise.reject("READ_PNG_ERROR", "Failed to decode image");
+                            return;
+                        }
+                        long decoded = System.nanoTime();
+                        base64Length = Base64.encodeToString(image.pixels, Base64.NO_WRAP).length();
+                        long encoded = System.nanoTime();
+                        long allocatedAfter = allocatedJavaBytes();
+                        // The first run only warms the decoder up
+                        if (run > 0) {
+                            decodeMs += (decoded - tic) / 1e6;
+                            encodeMs += (encoded - decoded) / 1e6;
+                            allocated = allocated < 0 || allocatedBefore < 0
+                                    ? -1 : allocated + allocatedAfter - allocatedBefore;
+                        }
+                    }
+
+                    long pixelBytes = (long) image.width * image.height * 4;
+                    WritableMap result = Arguments.createMap();
+                    result.putString("path", repack ? "repack" : "bulk");
+                    result.putInt("width", image.width);
+                    result.putInt("height", image.height);
+                    result.putDouble("decodeMs", decodeMs / Math.max(1, runs));
+                    result.putDouble("encodeMs", encodeMs / Math.max(1, runs));
+                    // Process-wide counter, so anything else allocating meanwhile is included; -1 if unavailable
+                    result.putDouble("allocatedBytes", allocated < 0 ? -1 : (double) allocated / Math.max(1, runs));
+                    // What the arrays alone come to: the pixel copies plus the UTF-16 base64 string
+                    result.putDouble("estimatedBytes", (repack ? 2 : 1) * pixelBytes + 2L * base64Length);
+                    result.putDouble("base64Length", base64Length);
+                    results.pushMap(result);
+                }
+                promise.resolve(results);
+            } catch (CancellationException e) {
+                throw e;
+            } catch (Exception e) {
+                Log.e("READ_PNG", "Error benchmarking pixel transfer", e);
+                promise.reject("READ_PNG_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    // Bytes ART has allocated on the Java heap since the process started, -1 when it does not say
+    private static long allocatedJavaBytes() {
+        String value = Debug.getRuntimeStat("art.gc.bytes-allocated");
         try {
-            Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
-            if (bitmap == null) {
-                promise.reject("READ_PNG_ERROR", "Failed to decode image");
-                return;
-            }
-            int width = bitmap.getWidth();
-            int height = bitmap.getHeight();
-            int[] pixels = new int[width * height];
-            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-            ByteBuffer buffer = ByteBuffer.allocate(width * height * 4);
-            for (int i = 0; i < pixels.length; i++) {
-                int pixel = pixels[i];
-                buffer.put((byte) Color.red(pixel));
-                buffer.put((byte) Color.green(pixel));
-                buffer.put((byte) Color.blue(pixel));
-                buffer.put((byte) Color.alpha(pixel));
-            }
-            byte[] byteArray = buffer.array();
-            String base64 = Base64.encodeToString(byteArray, Base64.NO_WRAP);
-            WritableMap result = Arguments.createMap();
-            result.putInt("width", width);
-            result.putInt("height", height);
-            result.putString("rgbaBuffer", base64);
-            promise.resolve(result);
-        } catch (Exception e) {
-            promise.reject("READ_PNG_EXCEPTION", e.getMessage());
+            return value != null ? Long.parseLong(value) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Decoded RGBA pixels as readPNGFromFile sends them. */
+    private static final class RgbaImage {
+        int width;
+        int height;
+        byte[] pixels;
+    }
+
+    @Nullable
+    private static RgbaImage decodeRgba(String imagePath) {
+        // Decode straight into unpremultiplied ARGB_8888, whose in-memory layout is
+        // already RGBA bytes, so the pixels can be bulk-copied without repacking.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inPremultiplied = false;
+        Bitmap bitmap = BitmapFactory.decodeFile(imagePath, options);
+        if (bitmap == null) {
+            return null;
+        }
+        RgbaImage image = new RgbaImage();
+        image.width = bitmap.getWidth();
+        image.height = bitmap.getHeight();
+        image.pixels = new byte[image.width * image.height * 4];
+        bitmap.copyPixelsToBuffer(ByteBuffer.wrap(image.pixels));
+        bitmap.recycle();
+        return image;
+    }
+
+    // The int[] and per-pixel repack path decodeRgba replaced, kept for benchmarkPixelTransfer
+    @Nullable
+    private static RgbaImage decodeRgbaRepacked(String imagePath) {
+        Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
+        if (bitmap == null) {
+            return null;
+        }
+        RgbaImage image = new RgbaImage();
+        image.width = bitmap.getWidth();
+        image.height = bitmap.getHeight();
+        int[] pixels = new int[image.width * image.height];
+        bitmap.getPixels(pixels, 0, image.width, 0, 0, image.width, image.height);
+        bitmap.recycle();
+        ByteBuffer buffer = ByteBuffer.allocate(image.width * image.height * 4);
+        for (int pixel : pixels) {
+            buffer.put((byte) Color.red(pixel));
+            buffer.put((byte) Color.green(pixel));
+            buffer.put((byte) Color.blue(pixel));
+            buffer.put((byte) Color.alpha(pixel));
         }
+        image.pixels = buffer.array();
+        return image;
     }
-}
\ No newline at end of file
+}
@@ -17,7 +17,11 @@ public class ClahePackage implements ReactPackage {
     @Override
     public List<NativeModule> createNativeModules(@NonNull ReactApplicationContext reactContext) {
         List<NativeModule> modules = new ArrayList<>();
-        modules.add(new ClaheModule(reactContext));
+        // Shared, both modules prepare the same tensors
+        PreprocessCache cache = PreprocessCache.create(reactContext);
+        modules.add(new ClaheModule(reactContext, cache));
+        modules.add(new ModelStoreModule(reactContext));
+        modules.add(new NativeInferenceModule(reactContext, cache));
         return modules;
     }
 
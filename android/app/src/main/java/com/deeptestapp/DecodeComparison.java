@@ -0,0 +1,137 @@
+package com.deeptestapp;
+
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Runs detection and classification over a set of images on one decode path, either the planned
+ * reduced decode or the full-resolution decode and crop it replaced. Called once per path, so
+ * JS can compare boxes and probabilities and read process memory around each run.
+ */
+final class DecodeComparison {
+
+    private static final float SCORE_THRESHOLD = 0.25f;
+    private static final float NMS_THRESHOLD = 0.45f;
+
+    private final MatPool pool;
+    private final InferenceEngine engine;
+    private final ImagePreprocessor.Options detectorOptions = YoloDecoder.inputOptions();
+    private final ImagePreprocessor.Options classifierOptions;
+    private final List<String> classifiers;
+    private final int passes;
+    private final ByteBuffer detectorInput;
+    private final ByteBuffer classifierInput;
+    private final NativeTaskExecutor.CancellationToken token = new NativeTaskExecutor.CancellationToken();
+
+    DecodeComparison(MatPool pool, InferenceEngine engine, ImagePreprocessor.Options classifierOptions,
+                     List<String> classifiers, int passes, boolean fullDecode) {
+        this.pool = pool;
+        this.engine = engine;
+        this.classifierOptions = classifierOptions;
+        this.classifiers = classifiers;
+        // Deterministic engines give the same answer every pass
+        this.passes = engine.samplesDropout() ? passes : 1;
+        detectorOptions.fullDecode = fullDecode;
+        classifierOptions.fullDecode = fullDecode;
+
+        detectorInput = ByteBuffer.allocateDirect(3 * YoloDecoder.INPUT_SIZE * YoloDecoder.INPUT_SIZE * 4)
+                .order(ByteOrder.nativeOrder());
+        classifierInput = ByteBuffer.allocateDirect(3 * classifierOptions.targetWidth * classifierOptions.targetHeight * 4)
+                .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Detects and classifies every image. Classifiers crop the given box when there is one for the
+     * image, so both paths classify the same region, and the path's own detection otherwise.
+     */
+    WritableMap run(List<String> imagePaths, @Nullable double[][] boxes) throws Exception {
+        long heapBefore = NativeInferenceModule.usedJavaHeap();
+        long nativeBefore = Debug.getNativeHeapAllocatedSize();
+        double detectorMs = 0;
+        double classifierMs = 0;
+        long maxDecodedBytes = 0;
+
+        WritableArray images = Arguments.createArray();
+        for (int i = 0; i < imagePaths.size(); i++) {
+            String path = imagePaths.get(i);
+            WritableMap image = Arguments.createMap();
+            image.putString("path", path);
+
+            long tic = System.nanoTime();
+            ImagePreprocessor.Output detectorOutput = ImagePreprocessor.run(pool, path, null, detectorOptions, token,
+                    detectorInput);
+            detectorMs += (System.nanoTime() - tic) / 1e6;
+            if (detectorOutput == null) {
+                Log.w("DECODE", "Skipping " + path + ", could not decode image");
+                images.pushMap(image);
+                continue;
+            }
+            maxDecodedBytes = Math.max(maxDecodedBytes, detectorOutput.decodedBytes);
+
+            List<YoloDecoder.Detection> detections = YoloDecoder.decode(
+                    engine.run(YoloDecoder.MODEL, detectorInput, YoloDecoder.inputShape()),
+                    detectorOutput.placement, SCORE_THRESHOLD, NMS_THRESHOLD, 1);
+            double[] box = detections.isEmpty() ? null : detections.get(0).toBox();
+            if (box != null) {
+                image.putArray("box", toArray(box));
+            }
+
+            double[] classified = boxes != null && i < boxes.length && boxes[i] != null ? boxes[i] : box;
+            if (classified == null) {
+                images.pushMap(image);
+                continue;
+            }
+            tic = System.nanoTime();
+            ImagePreprocessor.Output classifierOutput = ImagePreprocessor.run(pool, path, classified,
+                    classifierOptions, token, classifierInput);
+            classifierMs += (System.nanoTime() - tic) / 1e6;
+            if (classifierOutput == null) {
+                images.pushMap(image);
+                continue;
+            }
+            maxDecodedBytes = Math.max(maxDecodedBytes, classifierOutput.decodedBytes);
+
+            WritableMap probabilities = Arguments.createMap();
+            long[] shape = {1, 3, classifierOptions.targetHeight, classifierOptions.targetWidth};
+            for (String classifier : classifiers) {
+                float[] logits = new float[passes];
+                for (int p = 0; p < passes; p++) {
+                    logits[p] = engine.run(classifier, classifierInput, shape)[0];
+                }
+                probabilities.putDouble(classifier, MonteCarloSampler.summarise(logits)[0]);
+            }
+            image.putMap("probabilities", probabilities);
+            images.pushMap(image);
+        }
+
+        int count = Math.max(1, imagePaths.size());
+        WritableMap result = Arguments.createMap();
+        result.putBoolean("fullDecode", detectorOptions.fullDecode);
+        result.putArray("images", images);
+        result.putDouble("detectorPreprocessMs", detectorMs / count);
+        result.putDouble("classifierPreprocessMs", classifierMs / count);
+        // Largest decoded buffer of the run, the full frame on the old path
+        result.putDouble("maxDecodedBytes", maxDecodedBytes);
+        result.putDouble("javaHeapDeltaBytes", NativeInferenceModule.usedJavaHeap() - heapBefore);
+        result.putDouble("nativeHeapDeltaBytes", Debug.getNativeHeapAllocatedSize() - nativeBefore);
+        return result;
+    }
+
+    private static WritableArray toArray(double[] box) {
+        WritableArray array = Arguments.createArray();
+        for (double value : box) {
+            array.pushDouble(value);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,305 @@
+package com.deeptestapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.media.ExifInterface;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+
+/**
+ * Decodes only the pixels a tensor needs. With a box just that region is decoded, otherwise the
+ * whole frame; either way at the coarsest power-of-two reduction that still leaves at least as
+ * many pixels as the canvas the image is resized onto, so the final resize never upsamples.
+ * Images are decoded as stored and then turned upright by their EXIF orientation, the way
+ * imread does by default; boxes and the plan's source size are in the upright frame.
+ */
+final class DecodePlanner {
+
+    // Reductions Imgcodecs can apply while decoding the whole frame
+    private static final int MAX_FRAME_REDUCTION = 8;
+
+    /** What to decode: a region of the upright image in source pixels, and the reduction factor. */
+    static final class Plan {
+        // Upright size, stored width and height swapped for the orientations that transpose
+        int sourceWidth;
+        int sourceHeight;
+        int storedWidth;
+        int storedHeight;
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        Rect region;
+        int sampleSize;
+        // Off to always decode the frame and crop, which is what decoding looked like before
+        boolean regionDecode = true;
+    }
+
+    private DecodePlanner() {
+    }
+
+    /**
+     * Plans the decode of an image for a targetWidth x targetHeight canvas. Returns null when the
+     * image header cannot be read and throws IllegalArgumentException when the box is empty.
+     */
+    @Nullable
+    static Plan plan(String imagePath, @Nullable double[] box, int targetWidth, int targetHeight) {
+        // Ingested images come with their header already parsed, anything else is read here
+        ImageIngestor.Metadata header = ImageIngestor.remembered(imagePath);
+        if (header == null) {
+            header = ImageIngestor.read(imagePath);
+        }
+        if (header == null) {
+            return null;
+        }
+
+        Plan plan = new Plan();
+        plan.storedWidth = header.width;
+        plan.storedHeight = header.height;
+        plan.orientation = header.orientation;
+        boolean transposed = transposes(plan.orientation);
+        plan.sourceWidth = transposed ? header.height : header.width;
+        plan.sourceHeight = transposed ? header.width : header.height;
+        plan.region = box != null
+                ? ImagePreprocessor.toRect(box, plan.sourceWidth, plan.sourceHeight)
+                : new Rect(0, 0, plan.sourceWidth, plan.sourceHeight);
+        if (plan.region == null) {
+            throw new IllegalArgumentException("Region of interest is empty");
+        }
+
+        // The region is fitted into the canvas, so the tighter axis decides how far it may shrink
+        double shrink = Math.min((double) plan.region.width / targetWidth, (double) plan.region.height / targetHeight);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= shrink) {
+            sampleSize *= 2;
+        }
+        plan.sampleSize = box == null ? Math.min(sampleSize, MAX_FRAME_REDUCTION) : sampleSize;
+        return plan;
+    }
+
+    /**
+     * Decodes the planned region into a pooled, upright BGR Mat, reduced by the sample size.
+     * Regions are read with BitmapRegionDecoder; whole frames, and formats it cannot read, go
+     * through Imgcodecs with a reduced-size decode. Either way only the decoded pixels are rotated.
+     * Returns null when the image cannot be decoded.
+     */
+    @Nullable
+    static Mat decode(MatPool pool, String imagePath, Plan plan) {
+        boolean wholeFrame = plan.region.width == plan.sourceWidth && plan.region.height == plan.sourceHeight;
+        // The region as stored in the file, which is what the decoders read
+        double[] box = toStored(new double[]{plan.region.x, plan.region.y, plan.region.x + plan.region.width,
+                plan.region.y + plan.region.height}, plan.orientation, plan.storedWidth, plan.storedHeight);
+        Rect stored = ImagePreprocessor.toRect(box, plan.storedWidth, plan.storedHeight);
+        if (!wholeFrame && plan.regionDecode) {
+            Mat region = decodeRegion(pool, imagePath, stored, plan.sampleSize);
+            if (region != null) {
+                return orient(pool, region, plan.orientation);
+            }
+        }
+
+        int reduction = Math.min(plan.sampleSize, MAX_FRAME_REDUCTION);
+        Mat frame = pool.acquire(ceilDiv(plan.storedHeight, reduction), ceilDiv(plan.storedWidth, reduction),
+                CvType.CV_8UC3);
+        Imgcodecs.imread(imagePath, frame, readFlags(reduction, false));
+        if (frame.empty()) {
+            pool.recycle(frame);
+            return null;
+        }
+        if (wholeFrame) {
+            return orient(pool, frame, plan.orientation);
+        }
+
+        // The decoder may round the reduced size differently, scale from what it produced
+        double scaleX = (double) frame.cols() / plan.storedWidth;
+        double scaleY = (double) frame.rows() / plan.storedHeight;
+        Rect reduced = ImagePreprocessor.toRect(new double[]{
+                stored.x * scaleX, stored.y * scaleY,
+                (stored.x + stored.width) * scaleX, (stored.y + stored.height) * scaleY
+        }, frame.cols(), frame.rows());
+        if (reduced == null) {
+            pool.recycle(frame);
+            return null;
+        }
+        Mat view = frame.submat(reduced);
+        Mat crop = pool.acquire(reduced.height, reduced.width, CvType.CV_8UC3);
+        view.copyTo(crop);
+        view.release();
+        pool.recycle(frame);
+        return orient(pool, crop, plan.orientation);
+    }
+
+    /** EXIF orientation of the image, upright when it has none or cannot be read. */
+    static int readOrientation(String imagePath) {
+        try {
+            return new ExifInterface(imagePath)
+                    .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    // Orientations 5 to 8 swap width and height
+    static boolean transposes(int orientation) {
+        return orientation >= 5 && orientation <= 8;
+    }
+
+    /**
+     * Maps a box [x1, y1, x2, y2] in the upright image to the same pixels as stored, for an image
+     * storedWidth x storedHeight in the file. The inverse of what {@link #orient} does to pixels.
+     */
+    static double[] toStored(double[] box, int orientation, int storedWidth, int storedHeight) {
+        double w = storedWidth;
+        double h = storedHeight;
+        double[] a;
+        double[] b;
+        switch (orientation) {
+            case 2:
+                a = new double[]{w - box[0], box[1]};
+                b = new double[]{w - box[2], box[3]};
+                break;
+            case 3:
+                a = new double[]{w - box[0], h - box[1]};
+                b = new double[]{w - box[2], h - box[3]};
+                break;
+            case 4:
+                a = new double[]{box[0], h - box[1]};
+                b = new double[]{box[2], h - box[3]};
+                break;
+            case 5:
+                a = new double[]{box[1], box[0]};
+                b = new double[]{box[3], box[2]};
+                break;
+            case 6:
+                a = new double[]{box[1], h - box[0]};
+                b = new double[]{box[3], h - box[2]};
+                break;
+            case 7:
+                a = new double[]{w - box[1], h - box[0]};
+                b = new double[]{w - box[3], h - box[2]};
+                break;
+            case 8:
+                a = new double[]{w - box[1], box[0]};
+                b = new double[]{w - box[3], box[2]};
+                break;
+            default:
+                return box.clone();
+        }
+        return new double[]{Math.min(a[0], b[0]), Math.min(a[1], b[1]), Math.max(a[0], b[0]), Math.max(a[1], b[1])};
+    }
+
+    // Same transforms as imread applies for each orientation. Recycles src when it makes a new Mat
+    private static Mat orient(MatPool pool, Mat src, int orientation) {
+        if (orientation < 2 || orientation > 8) {
+            return src;
+        }
+        Mat dst = transposes(orientation)
+                ? pool.acquire(src.cols(), src.rows(), src.type())
+                : pool.acquire(src.rows(), src.cols(), src.type());
+        switch (orientation) {
+            case 2:
+                Core.flip(src, dst, 1);
+                break;
+            case 3:
+                Core.flip(src, dst, -1);
+                break;
+            case 4:
+                Core.flip(src, dst, 0);
+                break;
+            case 5:
+                Core.transpose(src, dst);
+                break;
+            case 6:
+                Core.rotate(src, dst, Core.ROTATE_90_CLOCKWISE);
+                break;
+            case 7:
+                Core.transpose(src, dst);
+                Core.flip(dst, dst, -1);
+                break;
+            default:
+                Core.rotate(src, dst, Core.ROTATE_90_COUNTERCLOCKWISE);
+                break;
+        }
+        pool.recycle(src);
+        return dst;
+    }
+
+    /** Reads only the image header, null when it is not an image BitmapFactory understands. */
+    @Nullable
+    static BitmapFactory.Options readBounds(String imagePath) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(imagePath, bounds);
+        return bounds.outWidth > 0 && bounds.outHeight > 0 ? bounds : null;
+    }
+
+    /**
+     * Imgcodecs flags decoding to 3-channel BGR or to gray, reduced by 1, 2, 4 or 8. Orientation
+     * is ignored so coordinates match BitmapFactory and BitmapRegionDecoder, callers that need
+     * the upright image rotate the decoded pixels themselves.
+     */
+    static int readFlags(int reduction, boolean gray) {
+        int flags = Imgcodecs.IMREAD_IGNORE_ORIENTATION;
+        switch (reduction) {
+            case 2:
+                return flags | (gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_2 : Imgcodecs.IMREAD_REDUCED_COLOR_2);
+            case 4:
+                return flags | (gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_4 : Imgcodecs.IMREAD_REDUCED_COLOR_4);
+            case 8:
+                return flags | (gray ? Imgcodecs.IMREAD_REDUCED_GRAYSCALE_8 : Imgcodecs.IMREAD_REDUCED_COLOR_8);
+            default:
+                return flags | (gray ? Imgcodecs.IMREAD_GRAYSCALE : Imgcodecs.IMREAD_COLOR);
+        }
+    }
+
+    @Nullable
+    private static Mat decodeRegion(MatPool pool, String imagePath, Rect region, int sampleSize) {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                    ? BitmapRegionDecoder.newInstance(imagePath)
+                    : BitmapRegionDecoder.newInstance(imagePath, false);
+        } catch (IOException e) {
+            Log.w("DECODE", "Region decoding not supported for " + imagePath + ", decoding the frame", e);
+            return null;
+        }
+        if (decoder == null) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decodeRegion(new android.graphics.Rect(region.x, region.y,
+                    region.x + region.width, region.y + region.height), options);
+        } finally {
+            decoder.recycle();
+        }
+        if (bitmap == null) {
+            return null;
+        }
+
+        Mat rgba = pool.acquire(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
+        Mat bgr = pool.acquire(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC3);
+        Utils.bitmapToMat(bitmap, rgba);
+        bitmap.recycle();
+        Imgproc.cvtColor(rgba, bgr, Imgproc.COLOR_RGBA2BGR);
+        pool.recycle(rgba);
+        return bgr;
+    }
+
+    static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
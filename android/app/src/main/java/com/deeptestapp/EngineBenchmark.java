@@ -0,0 +1,235 @@
+package com.deeptestapp;
+
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Compares inference engines on the same images. Every engine gets byte-identical inputs from
+ * ImagePreprocessor, so differences in the outputs come from the engines alone. The first engine
+ * is the reference the others are compared against. Classifier outputs are compared as the mean
+ * probability over Monte-Carlo passes on engines that sample dropout and as the single
+ * deterministic pass on those that do not, which is what each engine would report.
+ */
+final class EngineBenchmark {
+
+    private static final float SCORE_THRESHOLD = 0.25f;
+    private static final float NMS_THRESHOLD = 0.45f;
+
+    /** Load cost, latency and agreement of one engine. */
+    private static final class Stats {
+        final InferenceEngine engine;
+        long loadMs;
+        long nativeHeapBytes;
+        long javaHeapBytes;
+        double detectorMs;
+        final double[] classifierMs;
+        final int[] classifierRuns;
+        // Standard deviation over the passes, summed over the images
+        final double[] stdDevSum;
+        double iouSum;
+        double minIou = 1;
+        final double[] maxAbsDiff;
+        final double[] absDiffSum;
+
+        Stats(InferenceEngine engine, int classifiers) {
+            this.engine = engine;
+            this.classifierMs = new double[classifiers];
+            this.classifierRuns = new int[classifiers];
+            this.stdDevSum = new double[classifiers];
+            this.maxAbsDiff = new double[classifiers];
+            this.absDiffSum = new double[classifiers];
+        }
+    }
+
+    private final MatPool pool;
+    private final ImagePreprocessor.Options classifierOptions;
+    private final ImagePreprocessor.Options detectorOptions = YoloDecoder.inputOptions();
+    private final List<String> classifiers;
+    private final int passes;
+    private final ByteBuffer detectorInput;
+    private final ByteBuffer classifierInput;
+    private final NativeTaskExecutor.CancellationToken token = new NativeTaskExecutor.CancellationToken();
+
+    EngineBenchmark(MatPool pool, ImagePreprocessor.Options classifierOptions, List<String> classifiers, int passes) {
+        this.pool = pool;
+        this.classifierOptions = classifierOptions;
+        this.classifiers = classifiers;
+        this.passes = passes;
+
+        detectorInput = ByteBuffer.allocateDirect(3 * YoloDecoder.INPUT_SIZE * YoloDecoder.INPUT_SIZE * 4)
+                .order(ByteOrder.nativeOrder());
+        classifierInput = ByteBuffer.allocateDirect(3 * classifierOptions.targetWidth * classifierOptions.targetHeight * 4)
+                .order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Loads every model on each engine in turn, measuring time and heap growth, then runs the
+     * detector and each classifier per image on all engines. The classifiers crop the box found
+     * by the reference engine so all engines classify the same region. Detector figures are over
+     * the decoded images, classifier figures over the images the reference found a box in.
+     */
+    WritableMap run(List<InferenceEngine> engines, List<String> imagePaths) throws Exception {
+        if (imagePaths.isEmpty()) {
+            throw new IllegalArgumentException("No images to compare on");
+        }
+
+        Stats[] stats = new Stats[engines.size()];
+        for (int e = 0; e < engines.size(); e++) {
+            stats[e] = new Stats(engines.get(e), classifiers.size());
+            load(stats[e], imagePaths.get(0));
+        }
+
+        int images = 0;
+        int classified = 0;
+        for (String path : imagePaths) {
+            ImagePreprocessor.Output detectorOutput = ImagePreprocessor.run(pool, path, null, detectorOptions, token,
+                    detectorInput);
+            if (detectorOutput == null) {
+                Log.w("BENCHMARK", "Skipping " + path + ", could not decode image");
+                continue;
+            }
+            images++;
+
+            YoloDecoder.Detection[] boxes = new YoloDecoder.Detection[engines.size()];
+            for (int e = 0; e < engines.size(); e++) {
+                long tic = System.nanoTime();
+                float[] output = stats[e].engine.run(YoloDecoder.MODEL, detectorInput, YoloDecoder.inputShape());
+                List<YoloDecoder.Detection> detections = YoloDecoder.decode(output, detectorOutput.placement,
+                        SCORE_THRESHOLD, NMS_THRESHOLD, 1);
+                stats[e].detectorMs += (System.nanoTime() - tic) / 1e6;
+                boxes[e] = detections.isEmpty() ? null : detections.get(0);
+                if (e > 0) {
+                    double iou = iou(boxes[0], boxes[e]);
+                    stats[e].iouSum += iou;
+                    stats[e].minIou = Math.min(stats[e].minIou, iou);
+                }
+            }
+
+            if (boxes[0] == null
+                    || ImagePreprocessor.run(pool, path, boxes[0].toBox(), classifierOptions, token, classifierInput) == null) {
+                continue;
+            }
+            classified++;
+            for (int c = 0; c < classifiers.size(); c++) {
+                double reference = 0;
+                for (int e = 0; e < engines.size(); e++) {
+                    int runs = stats[e].engine.samplesDropout() ? passes : 1;
+                    float[] logits = new float[runs];
+                    long tic = System.nanoTime();
+                    for (int i = 0; i < runs; i++) {
+                        logits[i] = stats[e].engine.run(classifiers.get(c), classifierInput, classifierShape())[0];
+                    }
+                    stats[e].classifierMs[c] += (System.nanoTime() - tic) / 1e6;
+                    stats[e].classifierRuns[c] += runs;
+
+                    double[] summary = MonteCarloSampler.summarise(logits);
+                    stats[e].stdDevSum[c] += summary[1];
+                    double probability = summary[0];
+                    if (e == 0) {
+                        reference = probability;
+                    } else {
+                        double diff = Math.abs(probability - reference);
+                        stats[e].maxAbsDiff[c] = Math.max(stats[e].maxAbsDiff[c], diff);
+                        stats[e].absDiffSum[c] += diff;
+                    }
+                }
+            }
+        }
+
+        WritableArray results = Arguments.createArray();
+        for (Stats engine : stats) {
+            results.pushMap(toMap(engine, images, classified, engine != stats[0]));
+        }
+        WritableMap result = Arguments.createMap();
+        result.putInt("images", images);
+        result.putInt("classified", classified);
+        result.putInt("passes", passes);
+        result.putString("reference", engines.get(0).name());
+        result.putArray("engines", results);
+        return result;
+    }
+
+    // Warms every model up on the first image, so the heap growth includes the first-run buffers
+    private void load(Stats stats, String imagePath) throws Exception {
+        long heapBefore = NativeInferenceModule.usedJavaHeap();
+        long nativeBefore = Debug.getNativeHeapAllocatedSize();
+        long tic = System.nanoTime();
+
+        if (ImagePreprocessor.run(pool, imagePath, null, detectorOptions, token, detectorInput) == null) {
+            throw new IllegalArgumentException("Could not decode " + imagePath);
+        }
+        stats.engine.run(YoloDecoder.MODEL, detectorInput, YoloDecoder.inputShape());
+        if (ImagePreprocessor.run(pool, imagePath, null, classifierOptions, token, classifierInput) == null) {
+            throw new IllegalArgumentException("Could not decode " + imagePath);
+        }
+        for (String classifier : classifiers) {
+            stats.engine.run(classifier, classifierInput, classifierShape());
+        }
+
+        stats.loadMs = (System.nanoTime() - tic) / 1_000_000;
+        stats.nativeHeapBytes = Debug.getNativeHeapAllocatedSize() - nativeBefore;
+        stats.javaHeapBytes = NativeInferenceModule.usedJavaHeap() - heapBefore;
+        Log.d("BENCHMARK", stats.engine.name() + " loaded in " + stats.loadMs + " ms, native heap +"
+                + stats.nativeHeapBytes + " B");
+    }
+
+    private WritableMap toMap(Stats stats, int images, int classified, boolean compared) {
+        WritableMap map = Arguments.createMap();
+        map.putString("engine", stats.engine.name());
+        map.putDouble("loadMs", stats.loadMs);
+        map.putDouble("nativeHeapBytes", stats.nativeHeapBytes);
+        map.putDouble("javaHeapBytes", stats.javaHeapBytes);
+        map.putDouble("detectorMs", images > 0 ? stats.detectorMs / images : 0);
+        if (compared && images > 0) {
+            map.putDouble("detectorMeanIou", stats.iouSum / images);
+            map.putDouble("detectorMinIou", stats.minIou);
+        }
+
+        WritableMap models = Arguments.createMap();
+        for (int c = 0; c < classifiers.size(); c++) {
+            WritableMap model = Arguments.createMap();
+            // Per forward pass, however many passes the engine ran per image
+            model.putDouble("latencyMs", stats.classifierRuns[c] > 0 ? stats.classifierMs[c] / stats.classifierRuns[c] : 0);
+            model.putInt("passes", stats.engine.samplesDropout() ? passes : 1);
+            if (classified > 0) {
+                model.putDouble("meanStdDev", stats.stdDevSum[c] / classified);
+            }
+            if (compared && classified > 0) {
+                model.putDouble("maxAbsDiff", stats.maxAbsDiff[c]);
+                model.putDouble("meanAbsDiff", stats.absDiffSum[c] / classified);
+            }
+            models.putMap(classifiers.get(c), model);
+        }
+        map.putMap("classifiers", models);
+        return map;
+    }
+
+    private long[] classifierShape() {
+        return new long[]{1, 3, classifierOptions.targetHeight, classifierOptions.targetWidth};
+    }
+
+    // Both engines finding nothing counts as full agreement
+    static double iou(@Nullable YoloDecoder.Detection a, @Nullable YoloDecoder.Detection b) {
+        if (a == null || b == null) {
+            return a == b ? 1 : 0;
+        }
+        double width = Math.min(a.x2, b.x2) - Math.max(a.x1, b.x1);
+        double height = Math.min(a.y2, b.y2) - Math.max(a.y1, b.y1);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        double intersection = width * height;
+        double union = (a.x2 - a.x1) * (a.y2 - a.y1) + (b.x2 - b.x1) * (b.y2 - b.y1) - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+}
@@ -0,0 +1,238 @@
+package com.deeptestapp;
+
+import android.content.ContentResolver;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Copies a captured or picked image into app storage. The source is streamed once through a
+ * direct buffer that feeds both the copy and a SHA-256 digest. The copy is named after the
+ * digest, so importing the same image twice is detected without comparing any pixels.
+ * Dimensions, MIME type and EXIF orientation are parsed from the head of the same stream and
+ * remembered for the copy, so the decode planner does not read the header again.
+ */
+final class ImageIngestor {
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    // Start of the stream kept for the header parse, enough for EXIF and the frame header of
+    // camera JPEGs; files with larger leading segments fall back to reading the copy
+    private static final int HEAD_SIZE = 128 * 1024;
+    // Short enough for file names, long enough that collisions do not matter in practice
+    private static final int NAME_HASH_LENGTH = 16;
+    private static final int REMEMBERED_FILES = 64;
+
+    /** Header facts later stages need, read without decoding pixels. Sizes are as stored. */
+    static final class Metadata {
+        final int width;
+        final int height;
+        // EXIF orientation tag, 1 when upright
+        final int orientation;
+        @Nullable
+        final String mimeType;
+
+        Metadata(int width, int height, int orientation, @Nullable String mimeType) {
+            this.width = width;
+            this.height = height;
+            this.orientation = orientation;
+            this.mimeType = mimeType;
+        }
+    }
+
+    /** Where an ingested image ended up, its content hash and header, read without decoding pixels. */
+    static final class Result {
+        File file;
+        String contentHash;
+        long bytes;
+        Metadata metadata;
+        boolean duplicate;
+        long elapsedMs;
+    }
+
+    // Metadata of recent ingests by path, size and mtime, so a replaced file is never matched
+    private static final Map<String, Metadata> REMEMBERED = new LinkedHashMap<String, Metadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest) {
+            return size() > REMEMBERED_FILES;
+        }
+    };
+    // Content hashes by the same key, from ingests or hashed on request
+    private static final Map<String, String> HASHED = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > REMEMBERED_FILES;
+        }
+    };
+
+    private final ContentResolver resolver;
+    private final File directory;
+
+    ImageIngestor(ContentResolver resolver, File directory) {
+        this.resolver = resolver;
+        this.directory = directory;
+    }
+
+    /** Ingests a file path, a file:// URI or a content:// URI. */
+    Result ingest(String source) throws IOException {
+        long tic = System.nanoTime();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        Result result = new Result();
+        byte[] head = new byte[HEAD_SIZE];
+        int headLength = 0;
+        File pending = File.createTempFile("ingest", ".tmp", directory);
+        try {
+            MessageDigest digest = ModelStore.newDigest();
+            try (ReadableByteChannel in = open(source);
+                 FileOutputStream out = new FileOutputStream(pending);
+                 FileChannel channel = out.getChannel()) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    if (headLength < head.length) {
+                        int length = Math.min(buffer.remaining(), head.length - headLength);
+                        buffer.duplicate().get(head, headLength, length);
+                        headLength += length;
+                    }
+                    // The digest reads a duplicate so the same bytes are still there for the copy
+                    digest.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) {
+                        result.bytes += channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+            result.contentHash = ModelStore.toHex(digest.digest());
+
+            result.file = new File(directory, result.contentHash.substring(0, NAME_HASH_LENGTH) + extension(source));
+            if (result.file.exists() && result.file.length() == result.bytes) {
+                result.duplicate = true;
+            } else if (!pending.renameTo(result.file)) {
+                throw new IOException("Could not move ingested image to " + result.file);
+            }
+        } finally {
+            if (pending.exists() && !pending.delete()) {
+                Log.w("INGEST", "Could not delete " + pending);
+            }
+        }
+
+        // Parsed from the bytes already read, the pixels stay undecoded
+        result.metadata = parse(head, headLength);
+        if (result.metadata == null) {
+            result.metadata = read(result.file.getPath());
+        }
+        if (result.metadata == null) {
+            if (!result.duplicate) {
+                result.file.delete();
+            }
+            throw new IOException("Not a supported image: " + source);
+        }
+        synchronized (REMEMBERED) {
+            REMEMBERED.put(key(result.file), result.metadata);
+            HASHED.put(key(result.file), result.contentHash);
+        }
+
+        result.elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+        return result;
+    }
+
+    /** Metadata of an image ingested recently and unchanged since, null for any other file. */
+    @Nullable
+    static Metadata remembered(String imagePath) {
+        synchronized (REMEMBERED) {
+            return REMEMBERED.get(key(new File(imagePath)));
+        }
+    }
+
+    /**
+     * SHA-256 of a file, as ingest names it. Ingested and recently hashed files are not read
+     * again; hashing anything else costs a read of the file, far less than decoding it.
+     */
+    static String contentHash(String imagePath) throws IOException {
+        File file = new File(imagePath);
+        String key = key(file);
+        synchronized (REMEMBERED) {
+            String hash = HASHED.get(key);
+            if (hash != null) {
+                return hash;
+            }
+        }
+        String hash = ModelStore.sha256(file);
+        synchronized (REMEMBERED) {
+            HASHED.put(key, hash);
+        }
+        return hash;
+    }
+
+    /** Reads the header and EXIF orientation of a file, null when it is not an image. */
+    @Nullable
+    static Metadata read(String imagePath) {
+        BitmapFactory.Options bounds = DecodePlanner.readBounds(imagePath);
+        if (bounds == null) {
+            return null;
+        }
+        return new Metadata(bounds.outWidth, bounds.outHeight, DecodePlanner.readOrientation(imagePath),
+                bounds.outMimeType);
+    }
+
+    // Null when the head does not hold the whole header, the caller then reads the file
+    @Nullable
+    private static Metadata parse(byte[] head, int length) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(head, 0, length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        int orientation;
+        try {
+            // EXIF sits before the frame header, so a head that had the bounds also has it
+            orientation = new ExifInterface(new ByteArrayInputStream(head, 0, length))
+                    .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            orientation = ExifInterface.ORIENTATION_NORMAL;
+        }
+        return new Metadata(bounds.outWidth, bounds.outHeight, orientation, bounds.outMimeType);
+    }
+
+    private static String key(File file) {
+        return file.getPath() + "|" + file.length() + "|" + file.lastModified();
+    }
+
+    private ReadableByteChannel open(String source) throws IOException {
+        if (source.startsWith("content://")) {
+            InputStream in = resolver.openInputStream(Uri.parse(source));
+            if (in == null) {
+                throw new IOException("Could not open " + source);
+            }
+            return Channels.newChannel(in);
+        }
+        String path = source.startsWith("file://") ? source.substring("file://".length()) : source;
+        return new FileInputStream(path).getChannel();
+    }
+
+    private static String extension(String source) {
+        String name = source.substring(source.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && name.length() - dot <= 5 ? name.substring(dot).toLowerCase() : ".jpg";
+    }
+}
@@ -0,0 +1,327 @@
+package com.deeptestapp;
+
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decode → crop → letterbox → CLAHE → normalise, done on in-memory Mats taken from a MatPool.
+ * Shared by the single-image bridge methods and the batch preprocessor.
+ */
+final class ImagePreprocessor {
+
+    /** Where an image landed after being resized onto a fixed-size canvas. */
+    static final class Placement {
+        int sourceWidth;
+        int sourceHeight;
+        int left;
+        int top;
+        int width;
+        int height;
+        double scale;
+    }
+
+    /** Parameters of a preprocessing run, parsed from the options map JS passes in. */
+    static final class Options {
+        int targetWidth = 224;
+        int targetHeight = 224;
+        boolean letterbox = true;
+        int interpolation = Imgproc.INTER_LANCZOS4;
+        boolean clahe = true;
+        double clipLimit = 1.5;
+        int tileGrid = 16;
+        String layout = "CHW";
+        @Nullable double[] mean;
+        @Nullable double[] std;
+        boolean debug;
+        // Decode the whole frame at full resolution and crop, as before DecodePlanner; comparisons only
+        boolean fullDecode;
+
+        static Options from(ReadableMap map) {
+            Options options = new Options();
+            if (map.hasKey("targetWidth")) options.targetWidth = map.getInt("targetWidth");
+            if (map.hasKey("targetHeight")) options.targetHeight = map.getInt("targetHeight");
+            if (map.hasKey("letterbox")) options.letterbox = map.getBoolean("letterbox");
+            if (map.hasKey("clahe")) options.clahe = map.getBoolean("clahe");
+            if (map.hasKey("clipLimit")) options.clipLimit = map.getDouble("clipLimit");
+            if (map.hasKey("tileGrid")) options.tileGrid = map.getInt("tileGrid");
+            if (map.hasKey("layout")) options.layout = map.getString("layout");
+            options.mean = map.hasKey("mean") ? toChannels(map.getArray("mean")) : null;
+            options.std = map.hasKey("std") ? toChannels(map.getArray("std")) : null;
+            options.debug = map.hasKey("debug") && map.getBoolean("debug");
+            return options;
+        }
+
+        /** Every option the tensor depends on, for keying cached tensors. Debug output is not. */
+        String cacheKey() {
+            return targetWidth + "x" + targetHeight + "|" + letterbox + "|" + interpolation + "|"
+                    + (clahe ? clipLimit + "/" + tileGrid : "noclahe") + "|" + layout + "|"
+                    + Arrays.toString(mean) + "|" + Arrays.toString(std) + (fullDecode ? "|full" : "");
+        }
+    }
+
+    /**
+     * Tensor produced by {@link #run}, plus where the image ended up on the canvas. The tensor is
+     * null when it was written into a caller-provided buffer instead.
+     */
+    static final class Output {
+        @Nullable float[] tensor;
+        final Placement placement = new Placement();
+        // Size of the decoded pixels the canvas was resized from
+        long decodedBytes;
+        final Map<String, String> debugFiles = new HashMap<>();
+    }
+
+    private ImagePreprocessor() {
+    }
+
+    /**
+     * Runs the whole pipeline on one image. Returns null when the image cannot be decoded and
+     * throws IllegalArgumentException when the box is empty. The placement maps canvas pixels
+     * back to the box (or the whole image) at source resolution. The token is checked between stages;
+     * pooled Mats are handed back before a cancellation is thrown. With a target buffer the
+     * tensor is written straight into it.
+     */
+    @Nullable
+    static Output run(MatPool pool, String imagePath, @Nullable double[] box, Options options,
+                      NativeTaskExecutor.CancellationToken token, @Nullable ByteBuffer target) {
+        token.throwIfCancelled();
+        // Only the region of interest is decoded, already reduced towards the canvas size
+        DecodePlanner.Plan plan = DecodePlanner.plan(imagePath, box, options.targetWidth, options.targetHeight);
+        if (plan != null && options.fullDecode) {
+            plan.sampleSize = 1;
+            plan.regionDecode = false;
+        }
+        Mat roi = plan != null ? DecodePlanner.decode(pool, imagePath, plan) : null;
+        if (roi == null) {
+            return null;
+        }
+        Output output = new Output();
+        output.decodedBytes = roi.total() * roi.elemSize();
+        if (box != null && options.debug) {
+            output.debugFiles.put("crop", writeDebugImage(roi, false, imagePath, "_crop.png"));
+        }
+
+        Mat canvas = fitToCanvas(pool, roi, options.targetWidth, options.targetHeight, options.letterbox,
+                options.interpolation, output.placement);
+        // Report the placement against the region at full resolution, not the reduced decode
+        output.placement.scale *= (double) roi.cols() / plan.region.width;
+        output.placement.sourceWidth = plan.region.width;
+        output.placement.sourceHeight = plan.region.height;
+        pool.recycle(roi);
+        // Colour conversion only touches the canvas, never the full-resolution frame
+        Imgproc.cvtColor(canvas, canvas, Imgproc.COLOR_BGR2RGB);
+        if (options.debug) {
+            output.debugFiles.put("letterbox", writeDebugImage(canvas, true, imagePath, "_letterbox.png"));
+        }
+
+        if (token.isCancelled()) {
+            pool.recycle(canvas);
+            token.throwIfCancelled();
+        }
+
+        if (options.clahe) {
+            // RGB data through the BGR Lab conversion on purpose: the JS pipeline the classifier
+            // thresholds were calibrated on did the same, and the correct order changes the output
+            equaliseLightness(pool, canvas, Imgproc.COLOR_BGR2Lab, Imgproc.COLOR_Lab2BGR,
+                    options.clipLimit, options.tileGrid);
+            if (options.debug) {
+                output.debugFiles.put("clahe", writeDebugImage(canvas, true, imagePath, "_clahe.png"));
+            }
+        }
+
+        if (target != null) {
+            toTensor(pool, canvas, options.mean, options.std, options.layout, target);
+        } else {
+            output.tensor = toTensor(pool, canvas, options.mean, options.std, options.layout);
+        }
+        pool.recycle(canvas);
+        return output;
+    }
+
+    @Nullable
+    static double[] toBox(@Nullable ReadableMap box) {
+        if (box == null) {
+            return null;
+        }
+        return new double[]{box.getDouble("x1"), box.getDouble("y1"), box.getDouble("x2"), box.getDouble("y2")};
+    }
+
+    @Nullable
+    static double[] toChannels(@Nullable ReadableArray values) {
+        if (values == null || values.size() != 3) {
+            return null;
+        }
+        return new double[]{values.getDouble(0), values.getDouble(1), values.getDouble(2)};
+    }
+
+    @Nullable
+    static Rect toRect(double[] box, int cols, int rows) {
+        int x1 = (int) Math.max(0, Math.floor(box[0]));
+        int y1 = (int) Math.max(0, Math.floor(box[1]));
+        int x2 = (int) Math.min(cols, Math.ceil(box[2]));
+        int y2 = (int) Math.min(rows, Math.ceil(box[3]));
+        if (x2 <= x1 || y2 <= y1) {
+            return null;
+        }
+        return new Rect(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    /**
+     * Resizes src to fit a black targetWidth x targetHeight canvas, keeping the aspect ratio.
+     * The image is centred when letterboxing, otherwise it is placed in the top-left corner.
+     */
+    static Mat fitToCanvas(MatPool pool, Mat src, int targetWidth, int targetHeight, boolean letterbox,
+                           int interpolation, Placement placement) {
+        int srcWidth = src.cols();
+        int srcHeight = src.rows();
+        double scale = Math.min((double) targetWidth / srcWidth, (double) targetHeight / srcHeight);
+        int newWidth = Math.max(1, (int) Math.round(srcWidth * scale));
+        int newHeight = Math.max(1, (int) Math.round(srcHeight * scale));
+        int left = letterbox ? (targetWidth - newWidth) / 2 : 0;
+        int top = letterbox ? (targetHeight - newHeight) / 2 : 0;
+
+        Mat canvas = pool.acquire(targetHeight, targetWidth, src.type());
+        canvas.setTo(Scalar.all(0));
+        Mat region = canvas.submat(new Rect(left, top, newWidth, newHeight));
+        // Resize straight into the canvas region, no intermediate Mat
+        Imgproc.resize(src, region, new Size(newWidth, newHeight), 0, 0, interpolation);
+        region.release();
+
+        placement.sourceWidth = srcWidth;
+        placement.sourceHeight = srcHeight;
+        placement.left = left;
+        placement.top = top;
+        placement.width = newWidth;
+        placement.height = newHeight;
+        placement.scale = scale;
+        return canvas;
+    }
+
+    /**
+     * Applies CLAHE to the lightness channel of a 3-channel Mat in place. The colour conversion
+     * codes decide whether the Mat is treated as RGB or BGR.
+     */
+    static void equaliseLightness(MatPool pool, Mat image, int toLab, int fromLab,
+                                  double clipLimit, int tileGrid) {
+        Mat lab = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC3);
+        Mat lightness = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+        Imgproc.cvtColor(image, lab, toLab);
+        // Only L is equalised, so extract it alone instead of splitting all three planes
+        Core.extractChannel(lab, lightness, 0);
+
+        pool.clahe(clipLimit, tileGrid).apply(lightness, lightness);
+        // Apply Gaussian blur to reduce artifacts
+        Imgproc.GaussianBlur(lightness, lightness, new Size(3, 3), 0);
+
+        Core.insertChannel(lightness, lab, 0);
+        Imgproc.cvtColor(lab, image, fromLab);
+        pool.recycle(lightness);
+        pool.recycle(lab);
+    }
+
+    /** Scales an 8-bit RGB Mat to [0, 1], normalises it per channel and lays it out as CHW or HWC. */
+    static float[] toTensor(MatPool pool, Mat rgb, @Nullable double[] mean, @Nullable double[] std, String layout) {
+        Mat normalised = pool.acquire(rgb.rows(), rgb.cols(), CvType.CV_32FC3);
+        rgb.convertTo(normalised, CvType.CV_32FC3, 1.0 / 255.0);
+        if (mean != null) {
+            Core.subtract(normalised, new Scalar(mean[0], mean[1], mean[2]), normalised);
+        }
+        if (std != null) {
+            Core.divide(normalised, new Scalar(std[0], std[1], std[2]), normalised);
+        }
+
+        int planeSize = rgb.rows() * rgb.cols();
+        float[] tensor = new float[3 * planeSize];
+        if ("HWC".equals(layout)) {
+            normalised.get(0, 0, tensor);
+        } else {
+            // Transpose to CHW by reading each channel plane into its own slice
+            Mat plane = pool.acquire(rgb.rows(), rgb.cols(), CvType.CV_32FC1);
+            float[] values = new float[planeSize];
+            for (int c = 0; c < 3; c++) {
+                Core.extractChannel(normalised, plane, c);
+                plane.get(0, 0, values);
+                System.arraycopy(values, 0, tensor, c * planeSize, planeSize);
+            }
+            pool.recycle(plane);
+        }
+        pool.recycle(normalised);
+        return tensor;
+    }
+
+    /**
+     * Same as {@link #toTensor(MatPool, Mat, double[], double[], String)} but writes into a direct,
+     * native-ordered buffer of 3 * rows * cols floats. The channel planes are Mats wrapping slices
+     * of that buffer, so OpenCV fills the buffer directly and nothing is copied through the heap.
+     */
+    static void toTensor(MatPool pool, Mat rgb, @Nullable double[] mean, @Nullable double[] std, String layout,
+                         ByteBuffer target) {
+        Mat normalised = pool.acquire(rgb.rows(), rgb.cols(), CvType.CV_32FC3);
+        rgb.convertTo(normalised, CvType.CV_32FC3, 1.0 / 255.0);
+        if (mean != null) {
+            Core.subtract(normalised, new Scalar(mean[0], mean[1], mean[2]), normalised);
+        }
+        if (std != null) {
+            Core.divide(normalised, new Scalar(std[0], std[1], std[2]), normalised);
+        }
+
+        int planeBytes = rgb.rows() * rgb.cols() * 4;
+        if ("HWC".equals(layout)) {
+            Mat wrapped = new Mat(rgb.rows(), rgb.cols(), CvType.CV_32FC3, slice(target, 0, 3 * planeBytes));
+            normalised.copyTo(wrapped);
+            wrapped.release();
+        } else {
+            for (int c = 0; c < 3; c++) {
+                Mat plane = new Mat(rgb.rows(), rgb.cols(), CvType.CV_32FC1, slice(target, c * planeBytes, planeBytes));
+                Core.extractChannel(normalised, plane, c);
+                plane.release();
+            }
+        }
+        pool.recycle(normalised);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    static String encodeFloats(float[] values) {
+        byte[] bytes = new byte[values.length * 4];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(values);
+        return Base64.encodeToString(bytes, Base64.NO_WRAP);
+    }
+
+    static String writeDebugImage(Mat image, boolean rgb, String imagePath, String suffix) {
+        String outputPath = imagePath.replaceFirst("\\.[^./]+$", "") + suffix;
+        if (rgb) {
+            Mat bgr = new Mat();
+            Imgproc.cvtColor(image, bgr, Imgproc.COLOR_RGB2BGR);
+            Imgcodecs.imwrite(outputPath, bgr);
+            bgr.release();
+        } else {
+            Imgcodecs.imwrite(outputPath, image);
+        }
+        return "file://" + outputPath;
+    }
+}
@@ -0,0 +1,276 @@
+package com.deeptestapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.Nullable;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scores a grayscale image for blur (variance of the Laplacian) and JPEG blockiness
+ * (mean absolute difference across 8x8 block boundaries).
+ */
+final class ImageQualityChecker {
+
+    static final double DEFAULT_BLUR_THRESHOLD = 50.0;
+    static final double DEFAULT_BLOCK_THRESHOLD = 10.0;
+    static final double DEFAULT_UNCERTAINTY_BAND = 0.25;
+
+    private static final int BLOCK_SIZE = 8;
+
+    /** Blur score and time spent on one level of the pyramid, level 0 being full resolution. */
+    static final class LevelTiming {
+        int level;
+        int width;
+        int height;
+        double blurVariance;
+        long elapsedMs;
+    }
+
+    /** Scores of a single check, in the units the thresholds are given in. */
+    static final class Result {
+        double blurVariance;
+        double blockiness;
+        boolean isPoor;
+        long elapsedMs;
+        int decidedAtLevel;
+        final List<LevelTiming> levels = new ArrayList<>();
+    }
+
+    private final MatPool pool;
+
+    // Row buffers reused across calls, reallocated only when the image width changes
+    private byte[] currentRow = new byte[0];
+    private byte[] previousRow = new byte[0];
+
+    ImageQualityChecker(MatPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Decodes an image straight to 8-bit gray into a pooled Mat, reduced by 1, 2, 4 or 8 by the
+     * decoder itself. No Bitmap or colour Mat is made. The gray is the decoder's luma, not the
+     * mix the quality thresholds were calibrated on, see {@link #decodeCalibratedGray}; preview
+     * scores use it with thresholds of their own. Returns null when decoding fails.
+     */
+    @Nullable
+    static Mat decodeGray(MatPool pool, String imagePath, int reduction) {
+        BitmapFactory.Options bounds = DecodePlanner.readBounds(imagePath);
+        if (bounds == null) {
+            return null;
+        }
+        Mat gray = pool.acquire(DecodePlanner.ceilDiv(bounds.outHeight, reduction),
+                DecodePlanner.ceilDiv(bounds.outWidth, reduction), CvType.CV_8UC1);
+        Imgcodecs.imread(imagePath, gray, DecodePlanner.readFlags(reduction, true));
+        if (gray.empty()) {
+            pool.recycle(gray);
+            return null;
+        }
+        return gray;
+    }
+
+    /**
+     * Decodes to gray with the channel weights DEFAULT_BLUR_THRESHOLD and DEFAULT_BLOCK_THRESHOLD
+     * were calibrated on. The original check read the Bitmap's RGBA as BGRA, so its gray was
+     * 0.114 R + 0.587 G + 0.299 B; RGB2GRAY on imread's BGR applies exactly those weights. Still
+     * a reduced decode without a Bitmap, only one colour Mat more. Returns null when decoding fails.
+     */
+    @Nullable
+    static Mat decodeCalibratedGray(MatPool pool, String imagePath, int reduction) {
+        BitmapFactory.Options bounds = DecodePlanner.readBounds(imagePath);
+        if (bounds == null) {
+            return null;
+        }
+        int rows = DecodePlanner.ceilDiv(bounds.outHeight, reduction);
+        int cols = DecodePlanner.ceilDiv(bounds.outWidth, reduction);
+        Mat bgr = pool.acquire(rows, cols, CvType.CV_8UC3);
+        Imgcodecs.imread(imagePath, bgr, DecodePlanner.readFlags(reduction, false));
+        if (bgr.empty()) {
+            pool.recycle(bgr);
+            return null;
+        }
+        Mat gray = pool.acquire(bgr.rows(), bgr.cols(), CvType.CV_8UC1);
+        Imgproc.cvtColor(bgr, gray, Imgproc.COLOR_RGB2GRAY);
+        pool.recycle(bgr);
+        return gray;
+    }
+
+    /**
+     * The original Bitmap path, kept to benchmark against. RGBA read as BGRA, as it always was,
+     * so the gray matches {@link #decodeCalibratedGray}.
+     */
+    @Nullable
+    static Mat decodeGrayFromBitmap(MatPool pool, String imagePath) {
+        Bitmap bitmap = BitmapFactory.decodeFile(imagePath);
+        if (bitmap == null) {
+            return null;
+        }
+        Mat rgba = pool.acquire(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
+        Mat gray = pool.acquire(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC1);
+        Utils.bitmapToMat(bitmap, rgba);
+        bitmap.recycle();
+        // Same weights as the original BGRA2BGR followed by BGR2GRAY, in one conversion
+        Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_BGRA2GRAY);
+        pool.recycle(rgba);
+        return gray;
+    }
+
+    /** Size of the JPEG block grid in an image decoded at 1/reduction of its resolution. */
+    static int blockSize(int reduction) {
+        return Math.max(2, BLOCK_SIZE / Math.max(1, reduction));
+    }
+
+    /**
+     * Checks a single-channel 8-bit image whose JPEG blocks are blockSize pixels wide. A downscale
+     * factor below 1 resizes the image first, which is enough for previews; the block grid is
+     * scaled with it.
+     */
+    synchronized Result check(Mat gray, int blockSize, double downscale, double blurThreshold,
+                              double blockThreshold) {
+        long tic = System.nanoTime();
+
+        Mat scored = gray;
+        if (downscale > 0 && downscale < 1.0) {
+            int cols = Math.max(1, (int) Math.round(gray.cols() * downscale));
+            int rows = Math.max(1, (int) Math.round(gray.rows() * downscale));
+            scored = pool.acquire(rows, cols, CvType.CV_8UC1);
+            Imgproc.resize(gray, scored, new Size(cols, rows), 0, 0, Imgproc.INTER_AREA);
+            blockSize = Math.max(2, (int) Math.round(blockSize * downscale));
+        }
+
+        Result result = new Result();
+        result.blurVariance = laplacianVariance(scored);
+        result.blockiness = blockiness(scored, blockSize);
+        result.isPoor = (result.blurVariance < blurThreshold) || (result.blockiness > blockThreshold);
+
+        if (scored != gray) {
+            pool.recycle(scored);
+        }
+        result.elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+        return result;
+    }
+
+    /** Variance of the Laplacian alone, for callers that score small preview frames. */
+    synchronized double sharpness(Mat gray) {
+        return laplacianVariance(gray);
+    }
+
+    /**
+     * Pyramid quality gate. Blur is scored on the coarsest pyrDown level first. Laplacian variance
+     * only grows as an image is downsampled, so a coarse level can fail an image whose variance is
+     * clearly below threshold * (1 - uncertaintyBand) but never pass one: anything else moves on
+     * to the next finer level, and a pass is only decided at full resolution against the same
+     * threshold as {@link #check}. Blockiness is always measured on the input, where the JPEG
+     * grid of blockSize pixels lives, and is skipped (reported as 0) once blur has failed it.
+     */
+    synchronized Result gate(Mat gray, int blockSize, int pyramidLevels, double uncertaintyBand,
+                             double blurThreshold, double blockThreshold) {
+        long tic = System.nanoTime();
+
+        Mat[] pyramid = new Mat[Math.max(0, pyramidLevels) + 1];
+        pyramid[0] = gray;
+        for (int i = 1; i < pyramid.length; i++) {
+            Mat previous = pyramid[i - 1];
+            pyramid[i] = pool.acquire((previous.rows() + 1) / 2, (previous.cols() + 1) / 2, CvType.CV_8UC1);
+            Imgproc.pyrDown(previous, pyramid[i]);
+        }
+
+        Result result = new Result();
+        boolean blurry = false;
+        for (int level = pyramid.length - 1; level >= 0; level--) {
+            long levelTic = System.nanoTime();
+            double variance = laplacianVariance(pyramid[level]);
+
+            LevelTiming timing = new LevelTiming();
+            timing.level = level;
+            timing.width = pyramid[level].cols();
+            timing.height = pyramid[level].rows();
+            timing.blurVariance = variance;
+            timing.elapsedMs = (System.nanoTime() - levelTic) / 1_000_000;
+            result.levels.add(timing);
+            result.blurVariance = variance;
+            result.decidedAtLevel = level;
+
+            if (level == 0) {
+                blurry = variance < blurThreshold;
+            } else if (variance < blurThreshold * (1.0 - uncertaintyBand)) {
+                blurry = true;
+            } else {
+                // Sharp enough here says nothing about full resolution, refine on the next level
+                continue;
+            }
+            break;
+        }
+
+        for (int i = 1; i < pyramid.length; i++) {
+            pool.recycle(pyramid[i]);
+        }
+
+        result.blockiness = blurry ? 0.0 : blockiness(gray, blockSize);
+        result.isPoor = blurry || (result.blockiness > blockThreshold);
+        result.elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+        return result;
+    }
+
+    private double laplacianVariance(Mat gray) {
+        Mat laplacian = pool.acquire(gray.rows(), gray.cols(), CvType.CV_64F);
+        Imgproc.Laplacian(gray, laplacian, CvType.CV_64F);
+        MatOfDouble mean = new MatOfDouble();
+        MatOfDouble stddev = new MatOfDouble();
+        Core.meanStdDev(laplacian, mean, stddev);
+        double deviation = stddev.get(0, 0)[0];
+        mean.release();
+        stddev.release();
+        pool.recycle(laplacian);
+        return deviation * deviation;
+    }
+
+    /**
+     * Reads every row once with a bulk get into a reused buffer. Vertical boundaries are
+     * compared within the row, horizontal ones against the previous row's buffer.
+     */
+    private double blockiness(Mat gray, int blockSize) {
+        int rows = gray.rows();
+        int cols = gray.cols();
+        if (currentRow.length != cols) {
+            currentRow = new byte[cols];
+            previousRow = new byte[cols];
+        }
+
+        long total = 0;
+        long count = 0;
+        for (int y = 0; y < rows; y++) {
+            gray.get(y, 0, currentRow);
+
+            // Horizontal boundary between this row and the one above it
+            if (y >= blockSize && y % blockSize == 0) {
+                for (int x = 0; x < cols; x++) {
+                    total += Math.abs((currentRow[x] & 0xFF) - (previousRow[x] & 0xFF));
+                }
+                count += cols;
+            }
+
+            // Vertical boundaries within this row
+            for (int x = blockSize; x < cols; x += blockSize) {
+                total += Math.abs((currentRow[x] & 0xFF) - (currentRow[x - 1] & 0xFF));
+                count++;
+            }
+
+            byte[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        return count > 0 ? (double) total / count : 0.0;
+    }
+}
@@ -0,0 +1,25 @@
+package com.deeptestapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs a bundled single-input model. Inputs are direct native-ordered float buffers laid out in
+ * the given shape, so every engine can read the tensor ImagePreprocessor wrote without a copy.
+ */
+interface InferenceEngine {
+
+    /** Short name used to pick the engine from JS, e.g. "ort". */
+    String name();
+
+    /**
+     * Whether dropout stays active at inference, so Monte-Carlo passes over the same input differ.
+     * OpenCV DNN drops Dropout layers when it imports a model, its passes are all identical.
+     */
+    boolean samplesDropout();
+
+    /** Returns the first output of the model, flattened. */
+    float[] run(String assetName, ByteBuffer input, long[] shape) throws Exception;
+
+    /** Closes every loaded model, the next run loads it again. */
+    void release();
+}
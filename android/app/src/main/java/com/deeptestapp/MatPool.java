@@ -0,0 +1,143 @@
+package com.deeptestapp;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.CLAHE;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps native Mat buffers and CLAHE instances alive between calls so repeated
+ * processing of same-sized images does not allocate, and releases them deterministically
+ * instead of leaving it to GC finalizers. Idle buffers are capped by a byte budget, the
+ * shapes used least recently are released first once it is exceeded. The accounting lives in
+ * {@link BufferPool}.
+ */
+final class MatPool {
+
+    // Free buffers kept per (rows, cols, type), anything beyond this is released on recycle
+    private static final int MAX_FREE_PER_SHAPE = 4;
+    // Room for a 12 MP BGR frame plus the smaller buffers of a pipeline run
+    static final long DEFAULT_MAX_FREE_BYTES = 64L * 1024 * 1024;
+
+    private final BufferPool<Mat> buffers;
+    // cv::CLAHE keeps per-call state and is not thread-safe, so every worker thread gets its own
+    private final ThreadLocal<ClaheCache> claheCache = new ThreadLocal<>();
+    private volatile int claheGeneration;
+
+    MatPool() {
+        this(DEFAULT_MAX_FREE_BYTES);
+    }
+
+    MatPool(long maxFreeBytes) {
+        buffers = new BufferPool<>(maxFreeBytes, MAX_FREE_PER_SHAPE, Mat::release);
+    }
+
+    /** Returns a Mat with the given shape, reusing a recycled buffer when one is available. */
+    Mat acquire(int rows, int cols, int type) {
+        Mat mat = buffers.poll(key(rows, cols, type));
+        if (mat == null) {
+            mat = new Mat(rows, cols, type);
+        }
+        buffers.lend(mat, sizeOf(mat));
+        return mat;
+    }
+
+    /**
+     * Hands a Mat back to the pool. It is filed under its current shape, which may differ from
+     * the one it was acquired with when an OpenCV call reallocated it. Empty Mats are released.
+     */
+    void recycle(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        boolean empty = mat.empty();
+        buffers.recycle(mat, empty ? "" : key(mat.rows(), mat.cols(), mat.type()), empty ? 0 : sizeOf(mat));
+    }
+
+    /**
+     * Returns the calling thread's CLAHE instance for the given parameters, creating it once per
+     * thread. Not synchronized, the instances are never shared between threads.
+     */
+    CLAHE clahe(double clipLimit, int tileGrid) {
+        ClaheCache cache = claheCache.get();
+        if (cache == null || cache.generation != claheGeneration) {
+            cache = new ClaheCache(claheGeneration);
+            claheCache.set(cache);
+        }
+        String key = clipLimit + ":" + tileGrid;
+        CLAHE clahe = cache.instances.get(key);
+        if (clahe == null) {
+            clahe = Imgproc.createCLAHE(clipLimit, new Size(tileGrid, tileGrid));
+            cache.instances.put(key, clahe);
+        }
+        return clahe;
+    }
+
+    /** Releases every pooled buffer and drops the cached CLAHE instances. */
+    void clear() {
+        buffers.clear();
+        // Other threads drop their instances on their next clahe() call
+        claheGeneration++;
+        claheCache.remove();
+    }
+
+    long getHits() {
+        return buffers.getHits();
+    }
+
+    long getMisses() {
+        return buffers.getMisses();
+    }
+
+    long getEvictions() {
+        return buffers.getEvictions();
+    }
+
+    /** Bytes of the idle buffers waiting for reuse. */
+    long getBytesHeld() {
+        return buffers.getIdleBytes();
+    }
+
+    /** Bytes of the buffers acquired and not yet recycled. */
+    long getBytesInUse() {
+        return buffers.getInUseBytes();
+    }
+
+    /** Bytes handed out since the pool was created, reused buffers included. */
+    long getBytesAcquired() {
+        return buffers.getAcquiredBytes();
+    }
+
+    /** Most native bytes the pool's buffers held at once, in use and idle together. */
+    long getPeakBytes() {
+        return buffers.getPeakBytes();
+    }
+
+    void resetPeak() {
+        buffers.resetPeak();
+    }
+
+    int getPooledCount() {
+        return buffers.getIdleCount();
+    }
+
+    private static final class ClaheCache {
+        final int generation;
+        final Map<String, CLAHE> instances = new HashMap<>();
+
+        ClaheCache(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private static String key(int rows, int cols, int type) {
+        return rows + "x" + cols + ":" + type;
+    }
+
+    private static long sizeOf(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+}
@@ -0,0 +1,192 @@
+package com.deeptestapp;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * Keeps the graph-optimised form of each ONNX model in app-private storage. A cached file is
+ * named after the model, a hash of the model file and the runtime key (runtime version and
+ * session options), so a changed model or runtime upgrade simply misses and re-optimises.
+ * Files are written under a temporary name and only renamed into place once the runtime
+ * has finished writing them, so a half-written model is never picked up.
+ */
+final class ModelStore {
+
+    /** Where the optimised model lives, and whether it is already there. */
+    static final class Entry {
+        String modelPath;
+        String optimizedPath;
+        String pendingPath;
+        String modelHash;
+        boolean cached;
+        long hashMs;
+    }
+
+    private static final String HASHES_FILE = "hashes.properties";
+    private static final String DIRECTORY = "optimized_models";
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+
+    private final File directory;
+    // Model hashes keyed by path, size and mtime (APK stamp for assets), so unchanged models are
+    // not re-read each launch
+    private final Properties hashes = new Properties();
+
+    private static ModelStore shared;
+
+    /** The store every module uses, so writes to the directory go through one lock. */
+    static synchronized ModelStore shared(Context context) {
+        if (shared == null) {
+            shared = new ModelStore(new File(context.getFilesDir(), DIRECTORY));
+        }
+        return shared;
+    }
+
+    ModelStore(File directory) {
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IllegalStateException("Could not create " + directory);
+        }
+        File hashesFile = new File(directory, HASHES_FILE);
+        if (hashesFile.exists()) {
+            try (FileInputStream in = new FileInputStream(hashesFile)) {
+                hashes.load(in);
+            } catch (IOException e) {
+                hashes.clear();
+            }
+        }
+    }
+
+    synchronized Entry resolve(String modelPath, String runtimeKey) throws IOException {
+        long tic = System.nanoTime();
+        File model = new File(modelPath);
+        if (!model.isFile()) {
+            throw new IOException("Model does not exist at " + modelPath);
+        }
+
+        String key = model.getAbsolutePath() + ":" + model.length() + ":" + model.lastModified();
+        String hash = hashes.getProperty(key);
+        if (hash == null) {
+            hash = rememberHash(key, sha256(model));
+        }
+        return entryFor(modelPath, baseName(model), hash, runtimeKey, tic);
+    }
+
+    /**
+     * Same as {@link #resolve} for a model mapped from the APK. The hash is remembered per APK
+     * install, identified by versionStamp, so the mapping is only read when the app changes.
+     */
+    synchronized Entry resolveAsset(String assetName, ByteBuffer model, String versionStamp,
+                                    String runtimeKey) throws IOException {
+        long tic = System.nanoTime();
+        String key = "asset:" + assetName + ":" + model.capacity() + ":" + versionStamp;
+        String hash = hashes.getProperty(key);
+        if (hash == null) {
+            MessageDigest digest = newDigest();
+            digest.update(model.duplicate());
+            hash = rememberHash(key, toHex(digest.digest()));
+        }
+        return entryFor("asset:///" + assetName, baseName(new File(assetName)), hash, runtimeKey, tic);
+    }
+
+    private Entry entryFor(String modelPath, String baseName, String hash, String runtimeKey, long tic) {
+        Entry entry = new Entry();
+        entry.modelPath = modelPath;
+        entry.modelHash = hash;
+        entry.hashMs = (System.nanoTime() - tic) / 1_000_000;
+
+        String name = baseName + "." + hash.substring(0, 16) + "." + sanitise(runtimeKey) + ".onnx";
+        File optimized = new File(directory, name);
+        entry.optimizedPath = optimized.getAbsolutePath();
+        entry.pendingPath = entry.optimizedPath + ".tmp";
+        entry.cached = optimized.isFile() && optimized.length() > 0;
+        return entry;
+    }
+
+    /**
+     * Moves the file the runtime wrote to the pending path into place and deletes older
+     * optimised copies of the same model. Returns false when nothing was written.
+     */
+    synchronized boolean commit(Entry entry) {
+        File pending = new File(entry.pendingPath);
+        File optimized = new File(entry.optimizedPath);
+        if (!pending.isFile() || pending.length() == 0 || !pending.renameTo(optimized)) {
+            pending.delete();
+            return false;
+        }
+
+        String prefix = baseName(new File(entry.modelPath)) + ".";
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(prefix) && !file.equals(optimized)) {
+                    file.delete();
+                }
+            }
+        }
+        return true;
+    }
+
+    synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        hashes.clear();
+    }
+
+    private String rememberHash(String key, String hash) throws IOException {
+        hashes.setProperty(key, hash);
+        try (FileOutputStream out = new FileOutputStream(new File(directory, HASHES_FILE))) {
+            hashes.store(out, null);
+        }
+        return hash;
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String baseName(File file) {
+        return file.getName().replaceFirst("\\.[^.]+$", "");
+    }
+
+    private static String sanitise(String value) {
+        return value.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+}
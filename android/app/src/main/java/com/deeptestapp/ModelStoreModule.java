@@ -0,0 +1,187 @@
+package com.deeptestapp;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtSession;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exposes {@link ModelStore} to JS. Hashing, optimising and file moves run on a single background
+ * thread, they happen a handful of times per launch.
+ */
+public class ModelStoreModule extends ReactContextBaseJavaModule {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "model-store"));
+    private AssetModelProvider assetProvider;
+
+    public ModelStoreModule(ReactApplicationContext context) {
+        super(context);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "ModelStore";
+    }
+
+    @Override
+    public void invalidate() {
+        executor.shutdownNow();
+        super.invalidate();
+    }
+
+    private ModelStore store() {
+        return ModelStore.shared(getReactApplicationContext());
+    }
+
+    @ReactMethod
+    public void resolveOptimizedModel(String modelPath, String runtimeKey, Promise promise) {
+        executor.execute(() -> {
+            try {
+                ModelStore.Entry entry = store().resolve(modelPath, runtimeKey);
+                Log.d("MODEL_STORE", modelPath + (entry.cached ? " has" : " has no") + " optimised copy, hashed in "
+                        + entry.hashMs + " ms");
+                promise.resolve(entryToMap(entry));
+            } catch (Exception e) {
+                Log.e("MODEL_STORE", "Error resolving optimised model", e);
+                promise.reject("MODEL_STORE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    /** Makes sure an optimised copy of a bundled model exists, see {@link AssetModelProvider#prepare}. */
+    @ReactMethod
+    public void prepareAssetModel(String assetName, String runtimeKey, String optimizationLevel, Promise promise) {
+        executor.execute(() -> {
+            try {
+                AssetModelProvider.Prepared prepared = assetProvider().prepare(store(), assetName, runtimeKey,
+                        AssetModelProvider.toOptLevel(optimizationLevel));
+
+                WritableMap result = entryToMap(prepared.entry);
+                result.putDouble("mapMs", prepared.mapMs);
+                result.putDouble("optimizeMs", prepared.optimizeMs);
+                result.putDouble("modelBytes", prepared.modelBytes);
+                Log.d("MODEL_STORE", "Prepared " + assetName + " from mapped asset (map " + prepared.mapMs
+                        + " ms, hash " + prepared.entry.hashMs + " ms, optimise " + prepared.optimizeMs
+                        + " ms, cached " + prepared.entry.cached + ")");
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("MODEL_STORE", "Error preparing asset model", e);
+                promise.reject("MODEL_STORE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Times loading a bundled model straight from its mapped asset with full optimisation against
+     * loading the stored optimised copy, which is what the JS runtime does. The first stored load
+     * is reported on its own since it may have to hash and optimise the model.
+     */
+    @ReactMethod
+    public void benchmarkAssetLoad(String assetName, int runs, Promise promise) {
+        executor.execute(() -> {
+            try {
+                String level = "all";
+                AssetModelProvider provider = assetProvider();
+                OrtEnvironment environment = OrtEnvironment.getEnvironment();
+
+                long tic = System.nanoTime();
+                AssetModelProvider.Prepared prepared = provider.prepare(store(), assetName,
+                        AssetModelProvider.runtimeKey(level), AssetModelProvider.toOptLevel(level));
+                long firstStoredMs = (System.nanoTime() - tic) / 1_000_000;
+
+                long mappedNs = 0;
+                long storedNs = 0;
+                for (int i = 0; i < runs; i++) {
+                    tic = System.nanoTime();
+                    try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                        options.setOptimizationLevel(AssetModelProvider.toOptLevel(level));
+                        environment.createSession(provider.map(assetName), options).close();
+                    }
+                    mappedNs += System.nanoTime() - tic;
+
+                    tic = System.nanoTime();
+                    AssetModelProvider.Prepared hit = provider.prepare(store(), assetName,
+                            AssetModelProvider.runtimeKey(level), AssetModelProvider.toOptLevel(level));
+                    try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                        options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT);
+                        environment.createSession(hit.entry.optimizedPath, options).close();
+                    }
+                    storedNs += System.nanoTime() - tic;
+                }
+
+                WritableMap result = Arguments.createMap();
+                result.putString("asset", assetName);
+                result.putDouble("mappedMs", mappedNs / 1e6 / Math.max(1, runs));
+                result.putDouble("storedMs", storedNs / 1e6 / Math.max(1, runs));
+                result.putDouble("firstStoredMs", firstStoredMs);
+                result.putBoolean("firstStoredCached", prepared.entry.cached);
+                result.putDouble("hashMs", prepared.entry.hashMs);
+                result.putDouble("optimizeMs", prepared.optimizeMs);
+                result.putDouble("modelBytes", prepared.modelBytes);
+                result.putDouble("optimizedBytes", new File(prepared.entry.optimizedPath).length());
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("MODEL_STORE", "Error benchmarking asset load", e);
+                promise.reject("MODEL_STORE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void commitOptimizedModel(ReadableMap entryMap, Promise promise) {
+        executor.execute(() -> {
+            try {
+                ModelStore.Entry entry = new ModelStore.Entry();
+                entry.modelPath = entryMap.getString("modelPath");
+                entry.optimizedPath = entryMap.getString("optimizedPath");
+                entry.pendingPath = entryMap.getString("pendingPath");
+                promise.resolve(store().commit(entry));
+            } catch (Exception e) {
+                Log.e("MODEL_STORE", "Error committing optimised model", e);
+                promise.reject("MODEL_STORE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    @ReactMethod
+    public void clearOptimizedModels(Promise promise) {
+        executor.execute(() -> {
+            store().clear();
+            promise.resolve(null);
+        });
+    }
+
+    private synchronized AssetModelProvider assetProvider() {
+        if (assetProvider == null) {
+            assetProvider = new AssetModelProvider(getReactApplicationContext());
+        }
+        return assetProvider;
+    }
+
+    private static WritableMap entryToMap(ModelStore.Entry entry) {
+        WritableMap map = Arguments.createMap();
+        map.putString("modelPath", entry.modelPath);
+        map.putString("optimizedPath", entry.optimizedPath);
+        map.putString("pendingPath", entry.pendingPath);
+        map.putString("modelHash", entry.modelHash);
+        map.putBoolean("cached", entry.cached);
+        map.putDouble("hashMs", entry.hashMs);
+        return map;
+    }
+}
@@ -0,0 +1,196 @@
+package com.deeptestapp;
+
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which classifiers run and how many Monte-Carlo passes each one gets, the native
+ * counterpart of runAdaptivePasses, runEnsembleInference and runCascadeInference in
+ * modelHandler.ts. The passes are drawn through {@link Passes}, so the decisions are plain Java
+ * and can be tested on the JVM.
+ */
+final class MonteCarloSampler {
+
+    /** Runs `count` more passes of a model over the prepared input and returns their raw logits. */
+    interface Passes {
+        float[] run(String model, int count) throws Exception;
+    }
+
+    /** Stopping rule of adaptive sampling, see ADAPTIVE_SAMPLING in modelHandler.ts. */
+    static final class Adaptive {
+        int minPasses;
+        int maxPasses;
+        int step;
+        // Standard error and its multiple that has to separate the mean from the threshold, in percent
+        double tolerance;
+        double margin;
+    }
+
+    /** ShuffleNet alone decides when mean +/- stdDevWeight * stdDev stays `band` clear of its threshold. */
+    static final class Cascade {
+        double band;
+        double stdDevWeight;
+    }
+
+    private final PassLogStore.Scoring scoring;
+    @Nullable
+    private final Adaptive adaptive;
+    private final int fixedPasses;
+    // Null runs every requested model
+    @Nullable
+    private final Cascade cascade;
+
+    MonteCarloSampler(PassLogStore.Scoring scoring, @Nullable Adaptive adaptive, int fixedPasses,
+                      @Nullable Cascade cascade) {
+        this.scoring = scoring;
+        this.adaptive = adaptive;
+        this.fixedPasses = fixedPasses;
+        this.cascade = cascade;
+    }
+
+    /** Most passes any model can get. */
+    int maxPasses() {
+        return adaptive != null ? adaptive.maxPasses : fixedPasses;
+    }
+
+    /**
+     * Raw logits by model, in the order requested, of the models the result comes from. A
+     * cascade accepted by the secondary model returns that model alone.
+     */
+    Map<String, float[]> run(List<String> models, Passes passes) throws Exception {
+        if (cascade == null || models.size() != 2) {
+            return sample(models, Collections.emptyMap(), passes);
+        }
+        String secondary = models.get(0).equals(scoring.primaryModel) ? models.get(1) : models.get(0);
+        Map<String, float[]> alone = sample(Collections.singletonList(secondary), Collections.emptyMap(), passes);
+        if (accepts(summarise(alone.get(secondary)), threshold(alone))) {
+            return alone;
+        }
+        // The blend is classified against the ensemble threshold, so sampling continues on that
+        return sample(models, alone, passes);
+    }
+
+    // Adaptive sampling stops on the result as it is classified, a blend against the ensemble
+    // threshold when there are two models. Passes already drawn are kept
+    private Map<String, float[]> sample(List<String> models, Map<String, float[]> drawn, Passes passes)
+            throws Exception {
+        Map<String, float[]> logits = new LinkedHashMap<>();
+        for (String model : models) {
+            float[] previous = drawn.get(model);
+            logits.put(model, previous != null ? previous : new float[0]);
+        }
+        if (adaptive == null) {
+            for (String model : models) {
+                draw(logits, model, fixedPasses - logits.get(model).length, passes);
+            }
+            return logits;
+        }
+
+        double threshold = threshold(logits) * 100;
+        for (String model : models) {
+            draw(logits, model, Math.min(adaptive.minPasses, adaptive.maxPasses) - logits.get(model).length, passes);
+        }
+        while (!converged(logits, threshold)) {
+            boolean drew = false;
+            for (String model : models) {
+                int count = Math.min(adaptive.step, adaptive.maxPasses - logits.get(model).length);
+                drew |= draw(logits, model, count, passes);
+            }
+            if (!drew) {
+                break;
+            }
+        }
+        return logits;
+    }
+
+    /**
+     * Whether the standard error of the weighted mean probability is below the tolerance and the
+     * mean is at least `margin` standard errors away from `threshold`, both in percent. Models are
+     * sampled independently, so the variance of the blend is the weighted sum of theirs.
+     */
+    boolean converged(Map<String, float[]> logits, double threshold) {
+        double mean = 0;
+        double variance = 0;
+        for (Map.Entry<String, float[]> entry : logits.entrySet()) {
+            double share = share(entry.getKey(), logits.size());
+            double error = share * standardError(entry.getValue());
+            mean += share * summarise(entry.getValue())[0];
+            variance += error * error;
+        }
+        double error = Math.sqrt(variance);
+        return error < adaptive.tolerance && Math.abs(mean - threshold) >= adaptive.margin * error;
+    }
+
+    boolean accepts(double[] summary, double threshold) {
+        double spread = cascade.stdDevWeight * summary[1] / 100;
+        double lower = summary[0] / 100 - spread;
+        double upper = summary[0] / 100 + spread;
+        return lower > threshold + cascade.band || upper < threshold - cascade.band;
+    }
+
+    private double threshold(Map<String, float[]> logits) {
+        return scoring.threshold(null, new HashSet<>(logits.keySet()));
+    }
+
+    // Same shares as PassLogStore.blend
+    private double share(String model, int models) {
+        if (models == 1) {
+            return 1;
+        }
+        return model.equals(scoring.primaryModel) ? scoring.ensembleWeight : 1.0 - scoring.ensembleWeight;
+    }
+
+    private static boolean draw(Map<String, float[]> logits, String model, int count, Passes passes)
+            throws Exception {
+        if (count <= 0) {
+            return false;
+        }
+        float[] previous = logits.get(model);
+        float[] drawn = passes.run(model, count);
+        float[] all = new float[previous.length + drawn.length];
+        System.arraycopy(previous, 0, all, 0, previous.length);
+        System.arraycopy(drawn, 0, all, previous.length, drawn.length);
+        logits.put(model, all);
+        return true;
+    }
+
+    /** Sigmoid of a logit, in percent. */
+    static double probability(float logit) {
+        return 100.0 / (1.0 + Math.exp(-logit));
+    }
+
+    /** Mean and population standard deviation of the sigmoid probabilities, in percent. */
+    static double[] summarise(float[] logits) {
+        double sum = 0;
+        double[] probabilities = new double[logits.length];
+        for (int i = 0; i < logits.length; i++) {
+            probabilities[i] = probability(logits[i]);
+            sum += probabilities[i];
+        }
+        double mean = sum / logits.length;
+        double squares = 0;
+        for (double probability : probabilities) {
+            squares += (probability - mean) * (probability - mean);
+        }
+        return new double[]{mean, Math.sqrt(squares / logits.length)};
+    }
+
+    /** Standard error of the mean probability in percent, from the sample variance. */
+    static double standardError(float[] logits) {
+        int n = logits.length;
+        if (n < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = summarise(logits)[0];
+        double squares = 0;
+        for (float logit : logits) {
+            squares += (probability(logit) - mean) * (probability(logit) - mean);
+        }
+        return Math.sqrt(squares / (n - 1) / n);
+    }
+}
@@ -0,0 +1,672 @@
+package com.deeptestapp;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Preprocesses and classifies an image entirely on the native side. The tensor is written by
+ * OpenCV into a direct buffer that ONNX Runtime reads in place, and only the summary scores
+ * cross the bridge.
+ */
+public class NativeInferenceModule extends ReactContextBaseJavaModule {
+
+    private static final int DEFAULT_PASSES = 10;
+    private static final double DEFAULT_ENSEMBLE_WEIGHT = 0.7;
+    private static final String DEFAULT_ENGINE = "ort";
+    private static final double DEFAULT_SCORE_THRESHOLD = 0.25;
+    private static final double DEFAULT_NMS_THRESHOLD = 0.45;
+    private static final int DEFAULT_MAX_DETECTIONS = 10;
+    // How the engines report a batch axis fixed at 1, only that makes passes fall back to serial
+    private static final Pattern BATCH_SHAPE_ERROR = Pattern.compile("dimension|shape", Pattern.CASE_INSENSITIVE);
+
+    // Inference is serialised on one thread, the runtime parallelises within a run
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "native-inference"));
+    private final MatPool matPool = new MatPool();
+    // Models that rejected a batched input, their passes run one at a time, keyed engine:model
+    private final Set<String> fixedBatchModels = new HashSet<>();
+    private final Map<String, InferenceEngine> engines = new HashMap<>();
+    // Reused between analyses, only reallocated when a larger batch is needed
+    private ByteBuffer inputBuffer;
+    private ByteBuffer detectorBuffer;
+    private AssetModelProvider models;
+    // Detections and classifier tensors by content hash, so switching models skips preprocessing
+    private final PreprocessCache cache;
+    private PassLogStore passLogs;
+
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                executor.execute(NativeInferenceModule.this::releaseResources);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            executor.execute(NativeInferenceModule.this::releaseResources);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull Configuration configuration) {
+        }
+    };
+
+    public NativeInferenceModule(ReactApplicationContext context, PreprocessCache cache) {
+        super(context);
+        this.cache = cache;
+        context.registerComponentCallbacks(memoryCallbacks);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "NativeInference";
+    }
+
+    @Override
+    public void invalidate() {
+        getReactApplicationContext().unregisterComponentCallbacks(memoryCallbacks);
+        executor.execute(this::releaseResources);
+        executor.execute(() -> {
+            if (passLogs != null) {
+                passLogs.close();
+            }
+        });
+        executor.shutdown();
+        super.invalidate();
+    }
+
+    /**
+     * Loads the detector and the given classifiers on the engine and runs a zero tensor through
+     * each once, so the first analysis only pays for warm runs. The native counterpart of the JS
+     * session warm-up, only one of them should run.
+     */
+    @ReactMethod
+    public void warmUp(ReadableMap options, Promise promise) {
+        executor.execute(() -> {
+            try {
+                long tic = System.nanoTime();
+                InferenceEngine engine = engine(options.hasKey("engine") ? options.getString("engine") : DEFAULT_ENGINE);
+                long[] detectorShape = YoloDecoder.inputShape();
+                engine.run(YoloDecoder.MODEL, zeros(detectorShape), detectorShape);
+
+                int height = options.getInt("targetHeight");
+                int width = options.getInt("targetWidth");
+                long[] classifierShape = new long[]{1, 3, height, width};
+                ReadableArray classifiers = options.getArray("models");
+                for (int i = 0; i < classifiers.size(); i++) {
+                    engine.run(classifiers.getString(i), zeros(classifierShape), classifierShape);
+                }
+
+                long elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+                Log.d("INFERENCE", "Warmed up " + engine.name() + " in " + elapsedMs + " ms");
+                promise.resolve(elapsedMs);
+            } catch (Exception e) {
+                Log.e("INFERENCE", "Error warming up native inference", e);
+                promise.reject("INFERENCE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Runs the ROI detector and decodes its output natively. Resolves with the boxes left after
+     * confidence filtering and NMS, in source-image pixels and ordered by descending score.
+     * Results are cached by the image content hash, passed as "contentHash" or computed here.
+     */
+    @ReactMethod
+    public void detect(String imagePath, ReadableMap options, Promise promise) {
+        executor.execute(() -> {
+            try {
+                long tic = System.nanoTime();
+                InferenceEngine engine = engine(options.hasKey("engine") ? options.getString("engine") : DEFAULT_ENGINE);
+                double scoreThreshold = options.hasKey("scoreThreshold")
+                        ? options.getDouble("scoreThreshold") : DEFAULT_SCORE_THRESHOLD;
+                double nmsThreshold = options.hasKey("nmsThreshold")
+                        ? options.getDouble("nmsThreshold") : DEFAULT_NMS_THRESHOLD;
+                int maxDetections = options.hasKey("maxDetections")
+                        ? options.getInt("maxDetections") : DEFAULT_MAX_DETECTIONS;
+
+                String key = "detect|" + contentHash(imagePath, options) + "|" + engine.name() + "|"
+                        + YoloDecoder.MODEL + "@" + models().apkStamp() + "|" + scoreThreshold + "|"
+                        + nmsThreshold + "|" + maxDetections;
+                byte[] cached = cache.get(key);
+                // [sourceWidth, sourceHeight, then x1, y1, x2, y2, score, classId per box]
+                double[] detected;
+                if (cached != null) {
+                    detected = toDoubles(cached);
+                } else {
+                    if (detectorBuffer == null) {
+                        detectorBuffer = ByteBuffer.allocateDirect(3 * YoloDecoder.INPUT_SIZE * YoloDecoder.INPUT_SIZE * 4)
+                                .order(ByteOrder.nativeOrder());
+                    }
+                    ImagePreprocessor.Output output = ImagePreprocessor.run(matPool, imagePath, null,
+                            YoloDecoder.inputOptions(), new NativeTaskExecutor.CancellationToken(), detectorBuffer);
+                    if (output == null) {
+                        promise.reject("INFERENCE_ERROR", "Could not decode image");
+                        return;
+                    }
+                    float[] raw = engine.run(YoloDecoder.MODEL, detectorBuffer, YoloDecoder.inputShape());
+                    List<YoloDecoder.Detection> detections = YoloDecoder.decode(raw, output.placement,
+                            (float) scoreThreshold, (float) nmsThreshold, maxDetections);
+
+                    detected = new double[2 + detections.size() * 6];
+                    detected[0] = output.placement.sourceWidth;
+                    detected[1] = output.placement.sourceHeight;
+                    for (int i = 0; i < detections.size(); i++) {
+                        YoloDecoder.Detection detection = detections.get(i);
+                        System.arraycopy(new double[]{detection.x1, detection.y1, detection.x2, detection.y2,
+                                detection.score, detection.classId}, 0, detected, 2 + i * 6, 6);
+                    }
+                    cache.put(key, toBytes(detected));
+                }
+
+                WritableArray boxes = Arguments.createArray();
+                for (int i = 2; i < detected.length; i += 6) {
+                    WritableMap box = Arguments.createMap();
+                    box.putDouble("x1", detected[i]);
+                    box.putDouble("y1", detected[i + 1]);
+                    box.putDouble("x2", detected[i + 2]);
+                    box.putDouble("y2", detected[i + 3]);
+                    box.putDouble("score", detected[i + 4]);
+                    box.putInt("classId", (int) detected[i + 5]);
+                    boxes.pushMap(box);
+                }
+
+                long elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+                WritableMap result = Arguments.createMap();
+                result.putArray("boxes", boxes);
+                result.putInt("sourceWidth", (int) detected[0]);
+                result.putInt("sourceHeight", (int) detected[1]);
+                result.putBoolean("cached", cached != null);
+                result.putDouble("elapsedMs", elapsedMs);
+
+                Log.d("INFERENCE", "Detected " + boxes.size() + " boxes in " + imagePath + " in " + elapsedMs
+                        + " ms" + (cached != null ? " (cached)" : ""));
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("INFERENCE", "Error running native detection", e);
+                promise.reject("INFERENCE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Crops, letterboxes, equalises and normalises the image, then samples the requested
+     * classifiers the way the JS path does: adaptive passes stopping on the threshold the result
+     * is classified against, and for two models the "concurrent" or "cascade" ensemble. Returns
+     * the blended mean and standard deviation with the raw logits of each model that ran.
+     * The tensor is cached by content hash, box and preprocessing options, so analysing the same
+     * region again with other models goes straight to inference.
+     */
+    @ReactMethod
+    public void analyse(String imagePath, ReadableMap options, Promise promise) {
+        executor.execute(() -> {
+            try {
+                long tic = System.nanoTime();
+                long heapBefore = usedJavaHeap();
+                long nativeBefore = Debug.getNativeHeapAllocatedSize();
+
+                ImagePreprocessor.Options preprocessing = ImagePreprocessor.Options.from(options);
+                double[] box = options.hasKey("box") && !options.isNull("box")
+                        ? ImagePreprocessor.toBox(options.getMap("box")) : null;
+                MonteCarloSampler sampler = sampler(options);
+                int maxPasses = sampler.maxPasses();
+                List<String> models = new ArrayList<>();
+                ReadableArray requested = options.getArray("models");
+                for (int i = 0; i < requested.size(); i++) {
+                    models.add(requested.getString(i));
+                }
+                InferenceEngine engine = engine(options.hasKey("engine") ? options.getString("engine") : DEFAULT_ENGINE);
+                if (maxPasses > 1 && !engine.samplesDropout()) {
+                    promise.reject("INFERENCE_ERROR", engine.name() + " runs without dropout, " + maxPasses
+                            + " Monte-Carlo passes would be identical. Use a single pass or the ort engine");
+                    return;
+                }
+
+                int inputBytes = 3 * preprocessing.targetWidth * preprocessing.targetHeight * 4;
+                ByteBuffer batch = inputBuffer(maxPasses * inputBytes);
+                ByteBuffer first = slice(batch, 0, inputBytes);
+                // Debug runs always preprocess, they are asked for the intermediate images
+                String key = preprocessing.debug ? null : PreprocessCache.tensorKey(contentHash(imagePath, options),
+                        box, preprocessing.cacheKey(), models().apkStamp());
+                byte[] cached = key != null ? cache.get(key) : null;
+                if (cached != null && cached.length == inputBytes) {
+                    first.duplicate().put(cached);
+                } else {
+                    cached = null;
+                    ImagePreprocessor.Output output = ImagePreprocessor.run(matPool, imagePath, box, preprocessing,
+                            new NativeTaskExecutor.CancellationToken(), batch);
+                    if (output == null) {
+                        promise.reject("INFERENCE_ERROR", "Could not decode image");
+                        return;
+                    }
+                    if (key != null) {
+                        byte[] tensor = new byte[inputBytes];
+                        first.duplicate().get(tensor);
+                        cache.put(key, tensor);
+                    }
+                }
+                // Every pass sees the same input, replicate it along the batch axis
+                for (int i = 1; i < maxPasses; i++) {
+                    slice(batch, i * inputBytes, inputBytes).put(first.duplicate());
+                }
+                long preprocessMs = (System.nanoTime() - tic) / 1_000_000;
+
+                Map<String, Long> inferenceNanos = new HashMap<>();
+                Map<String, float[]> logits = sampler.run(models, (model, count) -> {
+                    long start = System.nanoTime();
+                    float[] drawn = runPasses(engine, model, batch, count, inputBytes,
+                            preprocessing.targetHeight, preprocessing.targetWidth);
+                    inferenceNanos.merge(model, System.nanoTime() - start, Long::sum);
+                    return drawn;
+                });
+
+                WritableMap perModel = Arguments.createMap();
+                WritableArray used = Arguments.createArray();
+                Map<String, double[]> summaries = new LinkedHashMap<>();
+                int passes = 0;
+                for (Map.Entry<String, float[]> entry : logits.entrySet()) {
+                    double[] summary = MonteCarloSampler.summarise(entry.getValue());
+                    summaries.put(entry.getKey(), summary);
+                    passes += entry.getValue().length;
+
+                    WritableMap scores = Arguments.createMap();
+                    scores.putDouble("mean", summary[0]);
+                    scores.putDouble("stdDev", summary[1]);
+                    scores.putDouble("inferenceMs", inferenceNanos.getOrDefault(entry.getKey(), 0L) / 1_000_000);
+                    // A few floats per model, stored so the record can be rescored without inference
+                    WritableArray passLogits = Arguments.createArray();
+                    for (float logit : entry.getValue()) {
+                        passLogits.pushDouble(logit);
+                    }
+                    scores.putArray("logits", passLogits);
+                    perModel.putMap(entry.getKey(), scores);
+                    used.pushString(entry.getKey());
+                }
+                double[] blended = PassLogStore.blend(summaries, scoring(options));
+
+                long elapsedMs = (System.nanoTime() - tic) / 1_000_000;
+                WritableMap result = Arguments.createMap();
+                result.putDouble("mean", blended[0]);
+                result.putDouble("stdDev", blended[1]);
+                result.putInt("passes", passes);
+                result.putMap("models", perModel);
+                // The classifiers the result came from, a cascade may stop at one
+                result.putArray("used", used);
+                result.putString("engine", engine.name());
+                result.putDouble("preprocessMs", preprocessMs);
+                result.putBoolean("preprocessCached", cached != null);
+                result.putDouble("inferenceMs", elapsedMs - preprocessMs);
+                result.putDouble("elapsedMs", elapsedMs);
+                result.putDouble("javaHeapDeltaBytes", usedJavaHeap() - heapBefore);
+                result.putDouble("nativeHeapDeltaBytes", Debug.getNativeHeapAllocatedSize() - nativeBefore);
+
+                Log.d("INFERENCE", "Analysed " + imagePath + " natively in " + elapsedMs + " ms (preprocess "
+                        + preprocessMs + " ms" + (cached != null ? ", cached" : "") + "), " + passes + " passes of "
+                        + logits.keySet());
+                promise.resolve(result);
+            } catch (IllegalArgumentException e) {
+                promise.reject("INFERENCE_ERROR", e.getMessage());
+            } catch (Exception e) {
+                Log.e("INFERENCE", "Error running native inference", e);
+                promise.reject("INFERENCE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    // Thresholds, ensemble weight and primary model of an analysis, as the JS path classifies it
+    private static PassLogStore.Scoring scoring(ReadableMap options) {
+        PassLogStore.Scoring scoring = scoring(options.getMap("thresholds"), options.getString("primaryModel"));
+        scoring.ensembleWeight = options.hasKey("ensembleWeight")
+                ? options.getDouble("ensembleWeight") : DEFAULT_ENSEMBLE_WEIGHT;
+        return scoring;
+    }
+
+    // "sampling" null or missing runs a fixed "passes", "strategy" other than "cascade" runs every model
+    private static MonteCarloSampler sampler(ReadableMap options) {
+        MonteCarloSampler.Adaptive adaptive = null;
+        if (options.hasKey("sampling") && !options.isNull("sampling")) {
+            ReadableMap sampling = options.getMap("sampling");
+            adaptive = new MonteCarloSampler.Adaptive();
+            adaptive.minPasses = Math.max(1, sampling.getInt("minPasses"));
+            adaptive.maxPasses = Math.max(adaptive.minPasses, sampling.getInt("maxPasses"));
+            adaptive.step = Math.max(1, sampling.getInt("step"));
+            adaptive.tolerance = sampling.getDouble("tolerance");
+            adaptive.margin = sampling.getDouble("margin");
+        }
+        MonteCarloSampler.Cascade cascade = null;
+        if (options.hasKey("strategy") && "cascade".equals(options.getString("strategy"))) {
+            ReadableMap band = options.getMap("cascade");
+            cascade = new MonteCarloSampler.Cascade();
+            cascade.band = band.getDouble("band");
+            cascade.stdDevWeight = band.getDouble("stdDevWeight");
+        }
+        int passes = options.hasKey("passes") ? Math.max(1, options.getInt("passes")) : DEFAULT_PASSES;
+        return new MonteCarloSampler(scoring(options), adaptive, passes, cascade);
+    }
+
+    /**
+     * Runs the detector and the classifiers on every image with each engine and reports load
+     * time, memory, latency and how closely the engines agree. See {@link EngineBenchmark}.
+     */
+    @ReactMethod
+    public void compareEngines(ReadableArray imagePaths, ReadableMap options, Promise promise) {
+        executor.execute(() -> {
+            try {
+                List<String> paths = new ArrayList<>();
+                for (int i = 0; i < imagePaths.size(); i++) {
+                    paths.add(imagePaths.getString(i));
+                }
+                List<String> models = new ArrayList<>();
+                ReadableArray classifiers = options.getArray("models");
+                for (int i = 0; i < classifiers.size(); i++) {
+                    models.add(classifiers.getString(i));
+                }
+
+                // Start cold so every engine pays for loading its models inside the measurement
+                releaseResources();
+                List<InferenceEngine> compared = new ArrayList<>();
+                compared.add(engine("ort"));
+                compared.add(engine("opencv"));
+
+                int passes = options.hasKey("passes") ? Math.max(1, options.getInt("passes")) : DEFAULT_PASSES;
+                EngineBenchmark benchmark = new EngineBenchmark(matPool, ImagePreprocessor.Options.from(options), models,
+                        passes);
+                promise.resolve(benchmark.run(compared, paths));
+            } catch (Exception e) {
+                Log.e("INFERENCE", "Error comparing inference engines", e);
+                promise.reject("INFERENCE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Detects and classifies the images on one decode path, the planned reduced decode or the
+     * old full-resolution one. See {@link DecodeComparison}. Optional "boxes", one [x1, y1, x2, y2]
+     * or null per image, fix the classified regions so two paths can be compared on the same crop.
+     */
+    @ReactMethod
+    public void compareDecodePath(ReadableArray imagePaths, ReadableMap options, Promise promise) {
+        executor.execute(() -> {
+            // A pool of its own, so neither path starts with the other's buffers
+            MatPool pool = new MatPool();
+            try {
+                List<String> paths = new ArrayList<>();
+                for (int i = 0; i < imagePaths.size(); i++) {
+                    paths.add(imagePaths.getString(i));
+                }
+                List<String> models = new ArrayList<>();
+                ReadableArray classifiers = options.getArray("models");
+                for (int i = 0; i < classifiers.size(); i++) {
+                    models.add(classifiers.getString(i));
+                }
+                double[][] boxes = null;
+                if (options.hasKey("boxes")) {
+                    ReadableArray given = options.getArray("boxes");
+                    boxes = new double[given.size()][];
+                    for (int i = 0; i < given.size(); i++) {
+                        if (!given.isNull(i)) {
+                            ReadableArray box = given.getArray(i);
+                            boxes[i] = new double[]{box.getDouble(0), box.getDouble(1), box.getDouble(2), box.getDouble(3)};
+                        }
+                    }
+                }
+                int passes = options.hasKey("passes") ? Math.max(1, options.getInt("passes")) : DEFAULT_PASSES;
+                boolean fullDecode = options.hasKey("fullDecode") && options.getBoolean("fullDecode");
+                InferenceEngine engine = engine(options.hasKey("engine") ? options.getString("engine") : DEFAULT_ENGINE);
+
+                DecodeComparison comparison = new DecodeComparison(pool, engine, ImagePreprocessor.Options.from(options),
+                        models, passes, fullDecode);
+                promise.resolve(comparison.run(paths, boxes));
+            } catch (Exception e) {
+                Log.e("INFERENCE", "Error comparing decode paths", e);
+                promise.reject("INFERENCE_EXCEPTION", e.getMessage());
+            } finally {
+                pool.clear();
+            }
+        });
+    }
+
+    /**
+     * Stores the per-pass logits of a saved result, keyed by model, in the PassLogits side table.
+     * See {@link PassLogStore}.
+     */
+    @ReactMethod
+    public void storePassLogits(double recordId, ReadableMap logits, Promise promise) {
+        executor.execute(() -> {
+            try {
+                Map<String, float[]> perModel = new HashMap<>();
+                ReadableMapKeySetIterator models = logits.keySetIterator();
+                while (models.hasNextKey()) {
+                    String model = models.nextKey();
+                    ReadableArray values = logits.getArray(model);
+                    float[] passes = new float[values.size()];
+                    for (int i = 0; i < passes.length; i++) {
+                        passes[i] = (float) values.getDouble(i);
+                    }
+                    perModel.put(model, passes);
+                }
+                passLogs().store((long) recordId, perModel);
+                promise.resolve(null);
+            } catch (Exception e) {
+                Log.e("INFERENCE", "Error storing pass logits", e);
+                promise.reject("INFERENCE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Recomputes every stored result from its logits with the given thresholds and ensemble
+     * weight, without touching images or models. Writes the new scores back when "write" is set.
+     * Only records whose classification changed against "previousThresholds" cross the bridge.
+     */
+    @ReactMethod
+    public void rescore(ReadableMap options, Promise promise) {
+        executor.execute(() -> {
+            try {
+                String primaryModel = options.getString("primaryModel");
+                PassLogStore.Scoring scoring = scoring(options.getMap("thresholds"), primaryModel);
+                scoring.ensembleWeight = options.hasKey("ensembleWeight")
+                        ? options.getDouble("ensembleWeight") : DEFAULT_ENSEMBLE_WEIGHT;
+                if (options.hasKey("previousThresholds") && !options.isNull("previousThresholds")) {
+                    scoring.previous = scoring(options.getMap("previousThresholds"), primaryModel);
+                }
+                scoring.write = options.hasKey("write") && options.getBoolean("write");
+
+                WritableMap result = passLogs().rescore(scoring);
+                Log.d("INFERENCE", "Rescored " + result.getInt("records") + " records in "
+                        + result.getDouble("elapsedMs") + " ms");
+                promise.resolve(result);
+            } catch (Exception e) {
+                Log.e("INFERENCE", "Error rescoring stored results", e);
+                promise.reject("INFERENCE_EXCEPTION", e.getMessage());
+            }
+        });
+    }
+
+    private static PassLogStore.Scoring scoring(ReadableMap thresholds, String primaryModel) {
+        PassLogStore.Scoring scoring = new PassLogStore.Scoring();
+        scoring.thresholdModel1 = thresholds.getDouble("m1");
+        scoring.thresholdModel2 = thresholds.getDouble("m2");
+        scoring.thresholdEnsemble = thresholds.getDouble("both");
+        scoring.primaryModel = primaryModel;
+        return scoring;
+    }
+
+    /** Hit, miss and eviction counters and the size of both tiers of the preprocessing cache. */
+    @ReactMethod
+    public void getCacheStats(Promise promise) {
+        executor.execute(() -> {
+            WritableMap result = Arguments.createMap();
+            for (Map.Entry<String, Long> stat : cache.stats().entrySet()) {
+                result.putDouble(stat.getKey(), stat.getValue());
+            }
+            promise.resolve(result);
+        });
+    }
+
+    @ReactMethod
+    public void clearCache(Promise promise) {
+        executor.execute(() -> {
+            cache.clear();
+            promise.resolve(null);
+        });
+    }
+
+    @ReactMethod
+    public void releaseSessions(Promise promise) {
+        executor.execute(() -> {
+            releaseResources();
+            promise.resolve(null);
+        });
+    }
+
+    private float[] runPasses(InferenceEngine engine, String model, ByteBuffer batch, int passes, int inputBytes,
+                              int height, int width) throws Exception {
+        String key = engine.name() + ":" + model;
+        if (passes > 1 && !fixedBatchModels.contains(key)) {
+            try {
+                return engine.run(model, slice(batch, 0, passes * inputBytes), new long[]{passes, 3, height, width});
+            } catch (Exception e) {
+                // Anything else (out of memory, a closed session) is not a property of the model
+                if (!isShapeError(e)) {
+                    throw e;
+                }
+                Log.w("INFERENCE", model + " does not accept a batch of " + passes + " on " + engine.name()
+                        + ", running passes serially", e);
+                fixedBatchModels.add(key);
+            }
+        }
+
+        float[] logits = new float[passes];
+        ByteBuffer single = slice(batch, 0, inputBytes);
+        for (int i = 0; i < passes; i++) {
+            logits[i] = engine.run(model, single, new long[]{1, 3, height, width})[0];
+        }
+        return logits;
+    }
+
+    private static ByteBuffer zeros(long[] shape) {
+        long size = 4;
+        for (long dim : shape) {
+            size *= dim;
+        }
+        return ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+    }
+
+    // ORT reports "Got invalid dimensions for input", OpenCV DNN fails its shape assertions
+    static boolean isShapeError(Throwable e) {
+        String message = e.getMessage();
+        return message != null && BATCH_SHAPE_ERROR.matcher(message).find();
+    }
+
+    private InferenceEngine engine(String name) {
+        InferenceEngine engine = engines.get(name);
+        if (engine == null) {
+            switch (name) {
+                case "ort":
+                    engine = new OrtInference(models());
+                    break;
+                case "opencv":
+                    engine = new OpenCvDnnInference(models());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown inference engine " + name);
+            }
+            engines.put(name, engine);
+        }
+        return engine;
+    }
+
+    private AssetModelProvider models() {
+        if (models == null) {
+            models = new AssetModelProvider(getReactApplicationContext());
+        }
+        return models;
+    }
+
+    private PassLogStore passLogs() {
+        if (passLogs == null) {
+            passLogs = new PassLogStore(getReactApplicationContext().getDatabasePath("DeepTest.db"));
+        }
+        return passLogs;
+    }
+
+    private static String contentHash(String imagePath, ReadableMap options) throws IOException {
+        if (options.hasKey("contentHash") && !options.isNull("contentHash")) {
+            return options.getString("contentHash");
+        }
+        return ImageIngestor.contentHash(imagePath);
+    }
+
+    private ByteBuffer inputBuffer(int bytes) {
+        if (inputBuffer == null || inputBuffer.capacity() < bytes) {
+            inputBuffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        return inputBuffer;
+    }
+
+    private void releaseResources() {
+        for (InferenceEngine engine : engines.values()) {
+            engine.release();
+        }
+        inputBuffer = null;
+        detectorBuffer = null;
+        matPool.clear();
+        cache.trimMemory();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static byte[] toBytes(double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        buffer.asDoubleBuffer().put(values);
+        return buffer.array();
+    }
+
+    private static double[] toDoubles(byte[] bytes) {
+        double[] values = new double[bytes.length / 8];
+        ByteBuffer.wrap(bytes).asDoubleBuffer().get(values);
+        return values;
+    }
+
+    static long usedJavaHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,209 @@
+package com.deeptestapp;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs native image work off the React Native native-modules thread. Interactive work (what the
+ * user is waiting on) and background work (batch reprocessing) run on separate bounded lanes,
+ * so a long background queue never delays an interactive request. Tasks can carry a token that
+ * JS can use to cancel them, either while still queued or cooperatively while running.
+ */
+final class NativeTaskExecutor {
+
+    enum Priority {
+        INTERACTIVE,
+        BACKGROUND;
+
+        static Priority from(@Nullable String value) {
+            return "background".equals(value) ? BACKGROUND : INTERACTIVE;
+        }
+    }
+
+    /** Body of a task, checks the token between stages to stop early once cancelled. */
+    interface Work {
+        void run(CancellationToken token) throws Exception;
+    }
+
+    static final class CancellationToken {
+        private volatile boolean cancelled;
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        void throwIfCancelled() {
+            if (cancelled) {
+                throw new CancellationException("Task was cancelled");
+            }
+        }
+    }
+
+    /** Queue depth and wait-time counters of a single lane. */
+    static final class LaneStats {
+        int queued;
+        int active;
+        long started;
+        long cancelled;
+        double averageWaitMs;
+        long maxWaitMs;
+    }
+
+    private static final int MAX_QUEUED_PER_LANE = 64;
+
+    private final Lane interactive;
+    private final Lane background;
+    private final Map<String, Task> tasksByToken = new ConcurrentHashMap<>();
+
+    NativeTaskExecutor() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        interactive = new Lane("clahe-interactive", 2, Process.THREAD_PRIORITY_DEFAULT);
+        background = new Lane("clahe-background", Math.max(1, cores / 2), Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Queues work on the lane for the given priority. Exceptions thrown by the work reject the
+     * promise unless the work has already settled it.
+     */
+    void submit(Priority priority, @Nullable String token, Promise promise, Work work) {
+        Lane lane = priority == Priority.BACKGROUND ? background : interactive;
+        if (lane.executor.getQueue().size() >= MAX_QUEUED_PER_LANE) {
+            promise.reject("EXECUTOR_BUSY", "Too many queued " + priority.name().toLowerCase() + " tasks");
+            return;
+        }
+
+        Task task = new Task(lane, token, promise, work);
+        if (token != null) {
+            tasksByToken.put(token, task);
+        }
+        lane.executor.execute(task);
+    }
+
+    /** Cancels the task with the given token. Returns false when no such task is pending. */
+    boolean cancel(String token) {
+        Task task = tasksByToken.remove(token);
+        if (task == null) {
+            return false;
+        }
+        task.cancellation.cancelled = true;
+        if (task.lane.executor.remove(task)) {
+            // Never started, settle it here since run() will not be called
+            task.lane.cancelled.incrementAndGet();
+            task.promise.reject("TASK_CANCELLED", "Task " + token + " was cancelled before it started");
+        }
+        return true;
+    }
+
+    LaneStats interactiveStats() {
+        return interactive.stats();
+    }
+
+    LaneStats backgroundStats() {
+        return background.stats();
+    }
+
+    /**
+     * Stops both lanes. Queued tasks never run, so their promises are rejected here; running
+     * tasks are cancelled and settle their own promises at the next token check.
+     */
+    void shutdown() {
+        for (Task task : tasksByToken.values()) {
+            task.cancellation.cancelled = true;
+        }
+        rejectAll(interactive.executor.shutdownNow());
+        rejectAll(background.executor.shutdownNow());
+        tasksByToken.clear();
+    }
+
+    private static void rejectAll(List<Runnable> queued) {
+        for (Runnable runnable : queued) {
+            Task task = (Task) runnable;
+            task.lane.cancelled.incrementAndGet();
+            task.promise.reject("TASK_CANCELLED", "Executor shut down before the task started");
+        }
+    }
+
+    private final class Task implements Runnable {
+        final Lane lane;
+        @Nullable final String token;
+        final Promise promise;
+        final Work work;
+        final CancellationToken cancellation = new CancellationToken();
+        final long queuedAt = System.nanoTime();
+
+        Task(Lane lane, @Nullable String token, Promise promise, Work work) {
+            this.lane = lane;
+            this.token = token;
+            this.promise = promise;
+            this.work = work;
+        }
+
+        @Override
+        public void run() {
+            lane.recordWait((System.nanoTime() - queuedAt) / 1_000_000);
+            try {
+                cancellation.throwIfCancelled();
+                work.run(cancellation);
+            } catch (CancellationException e) {
+                lane.cancelled.incrementAndGet();
+                promise.reject("TASK_CANCELLED", e.getMessage());
+            } catch (Exception e) {
+                Log.e("EXECUTOR", "Native task failed", e);
+                promise.reject("TASK_EXCEPTION", e.getMessage());
+            } finally {
+                if (token != null) {
+                    tasksByToken.remove(token, this);
+                }
+            }
+        }
+    }
+
+    private static final class Lane {
+        final ThreadPoolExecutor executor;
+        final AtomicInteger cancelled = new AtomicInteger();
+        private long started;
+        private long totalWaitMs;
+        private long maxWaitMs;
+
+        Lane(String name, int threads, int threadPriority) {
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(() -> {
+                        Process.setThreadPriority(threadPriority);
+                        runnable.run();
+                    }, name + "-" + count.incrementAndGet()));
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        synchronized void recordWait(long waitMs) {
+            started++;
+            totalWaitMs += waitMs;
+            maxWaitMs = Math.max(maxWaitMs, waitMs);
+        }
+
+        synchronized LaneStats stats() {
+            LaneStats stats = new LaneStats();
+            stats.queued = executor.getQueue().size();
+            stats.active = executor.getActiveCount();
+            stats.started = started;
+            stats.cancelled = cancelled.get();
+            stats.averageWaitMs = started > 0 ? (double) totalWaitMs / started : 0.0;
+            stats.maxWaitMs = maxWaitMs;
+            return stats;
+        }
+    }
+}
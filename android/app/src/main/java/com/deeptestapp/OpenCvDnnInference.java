@@ -0,0 +1,104 @@
+package com.deeptestapp;
+
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the bundled models with the DNN module of the OpenCV SDK the app already ships. The ONNX
+ * file is parsed straight from its memory-mapped APK asset and inputs are wrapped as Mat headers
+ * over the caller's buffer, so neither the model nor the tensor is copied on the Java side.
+ */
+final class OpenCvDnnInference implements InferenceEngine {
+
+    private final AssetModelProvider assetProvider;
+    private final Map<String, Net> nets = new HashMap<>();
+
+    OpenCvDnnInference(AssetModelProvider assetProvider) {
+        this.assetProvider = assetProvider;
+    }
+
+    @Override
+    public String name() {
+        return "opencv";
+    }
+
+    // The importer removes Dropout layers, Monte-Carlo passes would all be the same
+    @Override
+    public boolean samplesDropout() {
+        return false;
+    }
+
+    /** Returns the network for a bundled model, parsing it on first use. */
+    synchronized Net net(String assetName) throws IOException {
+        Net net = nets.get(assetName);
+        if (net == null) {
+            long tic = System.nanoTime();
+            MappedByteBuffer model = assetProvider.map(assetName);
+            Mat bytes = new Mat(1, model.capacity(), CvType.CV_8UC1, model);
+            try {
+                net = Dnn.readNetFromONNX(new MatOfByte(bytes));
+            } finally {
+                bytes.release();
+            }
+            if (net.empty()) {
+                throw new IOException("OpenCV could not load " + assetName);
+            }
+            net.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
+            net.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+            nets.put(assetName, net);
+            Log.d("DNN", "Loaded " + assetName + " in " + (System.nanoTime() - tic) / 1_000_000 + " ms");
+        }
+        return net;
+    }
+
+    // A Net keeps per-run state, so runs on the same engine are serialised
+    @Override
+    public synchronized float[] run(String assetName, ByteBuffer input, long[] shape) throws IOException {
+        Net net = net(assetName);
+        int[] sizes = new int[shape.length];
+        int elements = 1;
+        for (int i = 0; i < shape.length; i++) {
+            sizes[i] = (int) shape[i];
+            elements *= sizes[i];
+        }
+
+        // 2D header over the buffer, reshaped to the N-dimensional blob without copying
+        Mat flat = new Mat(1, elements, CvType.CV_32FC1, input);
+        Mat blob = flat.reshape(1, sizes);
+        Mat output = null;
+        Mat row = null;
+        try {
+            net.setInput(blob);
+            output = net.forward();
+            row = output.reshape(1, 1);
+            float[] values = new float[(int) output.total()];
+            row.get(0, 0, values);
+            return values;
+        } finally {
+            flat.release();
+            blob.release();
+            if (output != null) output.release();
+            if (row != null) row.release();
+        }
+    }
+
+    /**
+     * Drops every network. The Java binding frees a Net's native side in its finalizer, so the
+     * memory comes back once GC has collected them.
+     */
+    @Override
+    public synchronized void release() {
+        nets.clear();
+    }
+}
@@ -0,0 +1,91 @@
+package com.deeptestapp;
+
+import android.util.Log;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the bundled models with the ONNX Runtime Java API. Inputs are direct native-ordered
+ * buffers, which OnnxTensor wraps without copying, so pixels go from OpenCV to the runtime
+ * without ever touching the Java heap or the bridge.
+ */
+final class OrtInference implements InferenceEngine {
+
+    private static final String OPTIMIZATION_LEVEL = "all";
+
+    private final OrtEnvironment environment = OrtEnvironment.getEnvironment();
+    private final AssetModelProvider assetProvider;
+    private final Map<String, OrtSession> sessions = new HashMap<>();
+
+    OrtInference(AssetModelProvider assetProvider) {
+        this.assetProvider = assetProvider;
+    }
+
+    @Override
+    public String name() {
+        return "ort";
+    }
+
+    @Override
+    public boolean samplesDropout() {
+        return true;
+    }
+
+    /**
+     * Returns the session for a bundled model, created on first use straight from its
+     * memory-mapped APK asset. Unlike the JS runtime, which needs a file path, nothing is hashed
+     * or written to the model store for it.
+     */
+    synchronized OrtSession session(String assetName) throws IOException, OrtException {
+        OrtSession session = sessions.get(assetName);
+        if (session == null) {
+            long tic = System.nanoTime();
+            try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                options.setOptimizationLevel(AssetModelProvider.toOptLevel(OPTIMIZATION_LEVEL));
+                session = environment.createSession(assetProvider.map(assetName), options);
+            }
+            sessions.put(assetName, session);
+            Log.d("ORT", "Loaded " + assetName + " from mapped asset in " + (System.nanoTime() - tic) / 1_000_000 + " ms");
+        }
+        return session;
+    }
+
+    /**
+     * Runs a single-input model on a direct buffer holding the input in the given shape and
+     * returns the first output flattened.
+     */
+    @Override
+    public float[] run(String assetName, ByteBuffer input, long[] shape) throws IOException, OrtException {
+        OrtSession session = session(assetName);
+        String inputName = session.getInputNames().iterator().next();
+        try (OnnxTensor tensor = OnnxTensor.createTensor(environment, input.asFloatBuffer(), shape);
+             OrtSession.Result result = session.run(Collections.singletonMap(inputName, tensor))) {
+            FloatBuffer output = ((OnnxTensor) result.get(0)).getFloatBuffer();
+            float[] values = new float[output.remaining()];
+            output.get(values);
+            return values;
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        for (OrtSession session : sessions.values()) {
+            try {
+                session.close();
+            } catch (OrtException e) {
+                Log.w("ORT", "Failed to close session", e);
+            }
+        }
+        sessions.clear();
+    }
+}
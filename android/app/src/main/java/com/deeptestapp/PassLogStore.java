@@ -0,0 +1,223 @@
+package com.deeptestapp;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Per-pass classifier logits of every stored result, kept in the PassLogits side table of the
+ * app database as little-endian float32 BLOBs, one row per record and model. With the logits at
+ * hand a change of thresholds or ensemble weights is a pass over the database, not a re-run of
+ * the models.
+ */
+final class PassLogStore {
+
+    /** How a record's probability and classification are derived from its logits. */
+    static final class Scoring {
+        double thresholdModel1;
+        double thresholdModel2;
+        double thresholdEnsemble;
+        // Share of the primary model in the ensemble blend, the other model gets the rest
+        double ensembleWeight;
+        String primaryModel;
+        // Thresholds the stored classifications were made with, these ones when null
+        Scoring previous;
+        // Write the recomputed probability and uncertainity back to PipelineResults
+        boolean write;
+
+        /**
+         * The threshold of the classifiers a record actually came from. A cascade result that
+         * stopped at one model is judged as that model's result whatever mode was selected.
+         */
+        double threshold(String selectedModel, Set<String> models) {
+            if (models.size() == 1) {
+                return models.contains(primaryModel) ? thresholdModel1 : thresholdModel2;
+            }
+            switch (selectedModel != null ? selectedModel : "") {
+                case "1":
+                    return thresholdModel1;
+                case "2":
+                    return thresholdModel2;
+                default:
+                    return thresholdEnsemble;
+            }
+        }
+    }
+
+    /** A record as stored, with the summary of each model's logits. */
+    private static final class Stored {
+        final String selectedModel;
+        final double probability;
+        final Map<String, double[]> summaries = new LinkedHashMap<>();
+
+        Stored(String selectedModel, double probability) {
+            this.selectedModel = selectedModel;
+            this.probability = probability;
+        }
+    }
+
+    // Matches BUSY_TIMEOUT_MS in dbHandler.ts
+    private static final int BUSY_TIMEOUT_MS = 5000;
+
+    private final File databaseFile;
+    private SQLiteDatabase database;
+
+    PassLogStore(File databaseFile) {
+        this.databaseFile = databaseFile;
+    }
+
+    /** Replaces the stored logits of a record, one row per model. */
+    void store(long recordId, Map<String, float[]> logits) {
+        SQLiteDatabase db = open();
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement(
+                "INSERT OR REPLACE INTO PassLogits (recordId, model, passes, logits) VALUES (?, ?, ?, ?)")) {
+            for (Map.Entry<String, float[]> entry : logits.entrySet()) {
+                insert.bindLong(1, recordId);
+                insert.bindString(2, entry.getKey());
+                insert.bindLong(3, entry.getValue().length);
+                insert.bindBlob(4, toBlob(entry.getValue()));
+                insert.executeInsert();
+                insert.clearBindings();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Recomputes probability, uncertainity and classification of every record with stored logits
+     * from one query over the joined tables, writing back in a single transaction. Per model the
+     * summary is the mean and population standard deviation of the sigmoid probabilities in
+     * percent, as at inference time; records with two models blend them with the ensemble weight.
+     * Resolves with counts and only the records whose classification changed.
+     */
+    WritableMap rescore(Scoring scoring) {
+        long tic = System.nanoTime();
+        SQLiteDatabase db = open();
+
+        // One row per record and model, grouped back into records
+        Map<Long, Stored> stored = new LinkedHashMap<>();
+        try (Cursor cursor = db.rawQuery("SELECT r.id, r.selectedModel, r.probability, p.model, p.logits"
+                + " FROM PipelineResults r JOIN PassLogits p ON p.recordId = r.id ORDER BY r.id", null)) {
+            while (cursor.moveToNext()) {
+                Stored record = stored.get(cursor.getLong(0));
+                if (record == null) {
+                    record = new Stored(cursor.getString(1), cursor.isNull(2) ? 0 : cursor.getDouble(2));
+                    stored.put(cursor.getLong(0), record);
+                }
+                record.summaries.put(cursor.getString(3),
+                        MonteCarloSampler.summarise(fromBlob(cursor.getBlob(4))));
+            }
+        }
+
+        Scoring previous = scoring.previous != null ? scoring.previous : scoring;
+        WritableArray changed = Arguments.createArray();
+        int positives = 0;
+        int updated = 0;
+        db.beginTransaction();
+        try (SQLiteStatement update = db.compileStatement(
+                "UPDATE PipelineResults SET probability = ?, uncertainity = ? WHERE id = ?")) {
+            for (Map.Entry<Long, Stored> entry : stored.entrySet()) {
+                Stored record = entry.getValue();
+                double[] blended = blend(record.summaries, scoring);
+                boolean positive = blended[0] / 100 >= scoring.threshold(record.selectedModel, record.summaries.keySet());
+                boolean wasPositive = record.probability / 100
+                        >= previous.threshold(record.selectedModel, record.summaries.keySet());
+                positives += positive ? 1 : 0;
+
+                if (positive != wasPositive) {
+                    WritableMap result = Arguments.createMap();
+                    result.putDouble("id", entry.getKey());
+                    result.putDouble("probability", blended[0]);
+                    result.putDouble("uncertainity", blended[1]);
+                    result.putDouble("previousProbability", record.probability);
+                    result.putString("classification", positive ? "Positive" : "Negative");
+                    changed.pushMap(result);
+                }
+
+                if (scoring.write) {
+                    update.bindDouble(1, blended[0]);
+                    update.bindDouble(2, blended[1]);
+                    update.bindLong(3, entry.getKey());
+                    updated += update.executeUpdateDelete();
+                    update.clearBindings();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        WritableMap result = Arguments.createMap();
+        result.putInt("records", stored.size());
+        result.putInt("positives", positives);
+        result.putInt("updated", updated);
+        result.putArray("changed", changed);
+        result.putDouble("elapsedMs", (System.nanoTime() - tic) / 1_000_000);
+        return result;
+    }
+
+    void close() {
+        if (database != null) {
+            database.close();
+            database = null;
+        }
+    }
+
+    // The database react-native-sqlite-storage opens, either side may be first to create the table.
+    // Both connections use WAL and wait on each other's locks instead of failing with SQLITE_BUSY
+    private SQLiteDatabase open() {
+        if (database == null || !database.isOpen()) {
+            database = SQLiteDatabase.openDatabase(databaseFile.getPath(), null, SQLiteDatabase.OPEN_READWRITE
+                    | SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+            // The pragma reports the new value, so it goes through a query rather than execSQL
+            try (Cursor cursor = database.rawQuery("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS, null)) {
+                cursor.moveToFirst();
+            }
+            database.execSQL("CREATE TABLE IF NOT EXISTS PassLogits (recordId INTEGER NOT NULL, model TEXT NOT NULL,"
+                    + " passes INTEGER, logits BLOB, PRIMARY KEY (recordId, model))");
+        }
+        return database;
+    }
+
+    // A single model is used as is, cascade results that stopped at one model included
+    static double[] blend(Map<String, double[]> summaries, Scoring scoring) {
+        if (summaries.size() == 1) {
+            return summaries.values().iterator().next();
+        }
+        double mean = 0;
+        double stdDev = 0;
+        for (Map.Entry<String, double[]> entry : summaries.entrySet()) {
+            double share = entry.getKey().equals(scoring.primaryModel)
+                    ? scoring.ensembleWeight : 1.0 - scoring.ensembleWeight;
+            mean += entry.getValue()[0] * share;
+            stdDev += entry.getValue()[1] * share;
+        }
+        return new double[]{mean, stdDev};
+    }
+
+    static byte[] toBlob(float[] logits) {
+        ByteBuffer buffer = ByteBuffer.allocate(logits.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(logits);
+        return buffer.array();
+    }
+
+    static float[] fromBlob(byte[] blob) {
+        float[] logits = new float[blob.length / 4];
+        ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(logits);
+        return logits;
+    }
+}
@@ -0,0 +1,234 @@
+package com.deeptestapp;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Two-tier LRU cache of preprocessing results (detected boxes, classifier tensors) stored as
+ * bytes. Keys are built by the caller from the image content hash and every parameter the result
+ * depends on, so an entry never needs invalidating, only evicting. Recent entries stay in memory;
+ * every entry is also written to disk, which is trimmed by least recent use once over its budget.
+ * One instance is shared by the modules, so a tensor prepared for the JS classifiers also serves
+ * native analysis of the same region and the other way round.
+ */
+final class PreprocessCache {
+
+    // Room for about a dozen 224x224 tensors in memory and a hundred on disk
+    private static final long MEMORY_BYTES = 8L * 1024 * 1024;
+    private static final long DISK_BYTES = 64L * 1024 * 1024;
+    private static final String PENDING_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long memoryBudget;
+    private final long diskBudget;
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes = -1;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long memoryEvictions;
+    private long diskEvictions;
+
+    PreprocessCache(File directory, long memoryBudget, long diskBudget) {
+        this.directory = directory;
+        this.memoryBudget = memoryBudget;
+        this.diskBudget = diskBudget;
+    }
+
+    static PreprocessCache create(Context context) {
+        return new PreprocessCache(new File(context.getCacheDir(), "preprocess"), MEMORY_BYTES, DISK_BYTES);
+    }
+
+    /**
+     * Key of a classifier tensor. The options key covers everything the tensor depends on and
+     * the stamp changes with every build, and with it the preprocessing code.
+     */
+    static String tensorKey(String contentHash, @Nullable double[] box, String optionsKey, String apkStamp) {
+        return "tensor|" + contentHash + "|" + Arrays.toString(box) + "|" + optionsKey + "|" + apkStamp;
+    }
+
+    @Nullable
+    synchronized byte[] get(String key) {
+        byte[] value = memory.get(key);
+        if (value != null) {
+            memoryHits++;
+            return value;
+        }
+
+        File file = fileFor(key);
+        if (file.isFile()) {
+            try {
+                value = read(file);
+                // Touch it so disk eviction sees it as recently used
+                file.setLastModified(System.currentTimeMillis());
+                diskHits++;
+                remember(key, value);
+                return value;
+            } catch (IOException e) {
+                Log.w("CACHE", "Dropping unreadable cache entry " + file, e);
+                forget(file);
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    synchronized void put(String key, byte[] value) {
+        remember(key, value);
+
+        File file = fileFor(key);
+        File pending = new File(directory, file.getName() + PENDING_SUFFIX);
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            // Counted before the new file lands so it is not included twice
+            diskUsage();
+            try (FileOutputStream out = new FileOutputStream(pending)) {
+                out.write(value);
+            }
+            long replaced = file.isFile() ? file.length() : 0;
+            if (!pending.renameTo(file)) {
+                throw new IOException("Could not move " + pending + " into place");
+            }
+            diskBytes += value.length - replaced;
+            trimDisk();
+        } catch (IOException e) {
+            // The memory tier still holds it, the disk copy is only an optimisation
+            Log.w("CACHE", "Could not persist cache entry", e);
+            pending.delete();
+        }
+    }
+
+    /** Drops the memory tier, disk entries are kept. */
+    synchronized void trimMemory() {
+        memory.clear();
+        memoryBytes = 0;
+    }
+
+    synchronized void clear() {
+        trimMemory();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        diskBytes = 0;
+    }
+
+    synchronized Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("memoryHits", memoryHits);
+        stats.put("diskHits", diskHits);
+        stats.put("misses", misses);
+        stats.put("memoryEvictions", memoryEvictions);
+        stats.put("diskEvictions", diskEvictions);
+        stats.put("memoryBytes", memoryBytes);
+        stats.put("diskBytes", diskUsage());
+        stats.put("memoryEntries", (long) memory.size());
+        stats.put("diskEntries", (long) diskEntries());
+        return stats;
+    }
+
+    // Every entry is on disk, unless its write failed, so this counts distinct entries too
+    private int diskEntries() {
+        File[] files = directory.listFiles((dir, name) -> !name.endsWith(PENDING_SUFFIX));
+        return files != null ? files.length : 0;
+    }
+
+    private void remember(String key, byte[] value) {
+        byte[] previous = memory.put(key, value);
+        memoryBytes += value.length - (previous != null ? previous.length : 0);
+        Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > memoryBudget && eldest.hasNext()) {
+            Map.Entry<String, byte[]> entry = eldest.next();
+            if (entry.getKey().equals(key)) {
+                continue;
+            }
+            memoryBytes -= entry.getValue().length;
+            eldest.remove();
+            memoryEvictions++;
+        }
+    }
+
+    private void trimDisk() {
+        if (diskBytes <= diskBudget) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes <= diskBudget) {
+                break;
+            }
+            forget(file);
+            diskEvictions++;
+        }
+    }
+
+    private void forget(File file) {
+        long length = file.length();
+        if (file.delete() && diskBytes >= 0) {
+            diskBytes -= length;
+        }
+    }
+
+    // Sums the directory once, then tracked incrementally
+    private long diskUsage() {
+        if (diskBytes < 0) {
+            diskBytes = 0;
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    diskBytes += file.length();
+                }
+            }
+        }
+        return diskBytes;
+    }
+
+    private File fileFor(String key) {
+        try {
+            byte[] digest = ModelStore.newDigest().digest(key.getBytes(StandardCharsets.UTF_8));
+            return new File(directory, ModelStore.toHex(digest) + ".bin");
+        } catch (IOException e) {
+            // SHA-256 is always available on Android
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] value = new byte[(int) file.length()];
+        try (FileInputStream in = new FileInputStream(file)) {
+            int offset = 0;
+            while (offset < value.length) {
+                int read = in.read(value, offset, value.length - offset);
+                if (read < 0) {
+                    throw new IOException("Truncated cache entry");
+                }
+                offset += read;
+            }
+        }
+        return value;
+    }
+}
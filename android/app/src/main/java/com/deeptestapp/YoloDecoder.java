@@ -0,0 +1,153 @@
+package com.deeptestapp;
+
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns the raw ROI detector output into final boxes in source-image pixels: confidence
+ * filtering, non-maximum suppression and unmapping from the detector canvas. Works on the flat
+ * output array directly, candidates are kept in primitive arrays until the final boxes. Plain
+ * Java throughout, so it runs in JVM tests.
+ */
+final class YoloDecoder {
+
+    static final String MODEL = "yolo.onnx";
+    static final int INPUT_SIZE = 640;
+    // Rows of [x1, y1, x2, y2, score, classId]
+    private static final int ROW = 6;
+
+    /** A detection in source-image pixels. */
+    static final class Detection {
+        final double x1;
+        final double y1;
+        final double x2;
+        final double y2;
+        final float score;
+        final int classId;
+
+        Detection(double x1, double y1, double x2, double y2, float score, int classId) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.score = score;
+            this.classId = classId;
+        }
+
+        double[] toBox() {
+            return new double[]{x1, y1, x2, y2};
+        }
+    }
+
+    private YoloDecoder() {
+    }
+
+    /** Preprocessing the detector expects: resized into the top-left corner, scaled to 0-1. */
+    static ImagePreprocessor.Options inputOptions() {
+        ImagePreprocessor.Options options = new ImagePreprocessor.Options();
+        options.targetWidth = INPUT_SIZE;
+        options.targetHeight = INPUT_SIZE;
+        options.letterbox = false;
+        options.interpolation = Imgproc.INTER_LINEAR;
+        options.clahe = false;
+        return options;
+    }
+
+    static long[] inputShape() {
+        return new long[]{1, 3, INPUT_SIZE, INPUT_SIZE};
+    }
+
+    /**
+     * Keeps rows scoring at least scoreThreshold, suppresses overlaps above nmsThreshold and maps
+     * the survivors back through the placement. Results are ordered by descending score and hold
+     * at most maxDetections boxes; boxes that end up empty after clamping are dropped.
+     */
+    static List<Detection> decode(float[] output, ImagePreprocessor.Placement placement, float scoreThreshold,
+                                  float nmsThreshold, int maxDetections) {
+        int rows = output.length / ROW;
+        int[] candidates = new int[rows];
+        int count = 0;
+        for (int i = 0; i < rows; i++) {
+            if (output[i * ROW + 4] >= scoreThreshold) {
+                candidates[count++] = i;
+            }
+        }
+        List<Detection> detections = new ArrayList<>();
+        if (count == 0) {
+            return detections;
+        }
+
+        float[] boxes = new float[count * 4];
+        float[] scores = new float[count];
+        for (int c = 0; c < count; c++) {
+            System.arraycopy(output, candidates[c] * ROW, boxes, c * 4, 4);
+            scores[c] = output[candidates[c] * ROW + 4];
+        }
+        int[] kept = suppress(boxes, scores, nmsThreshold, maxDetections);
+
+        for (int index : kept) {
+            int base = candidates[index] * ROW;
+            Detection detection = new Detection(
+                    unmap(output[base], placement.left, placement.scale, placement.sourceWidth),
+                    unmap(output[base + 1], placement.top, placement.scale, placement.sourceHeight),
+                    unmap(output[base + 2], placement.left, placement.scale, placement.sourceWidth),
+                    unmap(output[base + 3], placement.top, placement.scale, placement.sourceHeight),
+                    output[base + 4], (int) output[base + 5]);
+            if (detection.x2 > detection.x1 && detection.y2 > detection.y1) {
+                detections.add(detection);
+            }
+        }
+        return detections;
+    }
+
+    /**
+     * Greedy non-maximum suppression over rows of x1, y1, x2, y2: visits the boxes by descending
+     * score and keeps each one whose IoU with every box kept so far is at most nmsThreshold.
+     * Returns the indices of at most maxDetections boxes, best first.
+     */
+    static int[] suppress(float[] boxes, float[] scores, float nmsThreshold, int maxDetections) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // Stable, so equal scores keep the detector's order
+        Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+
+        int[] kept = new int[Math.min(maxDetections, scores.length)];
+        int count = 0;
+        for (int i = 0; i < order.length && count < kept.length; i++) {
+            int candidate = order[i];
+            boolean keep = true;
+            for (int k = 0; k < count && keep; k++) {
+                keep = iou(boxes, candidate, kept[k]) <= nmsThreshold;
+            }
+            if (keep) {
+                kept[count++] = candidate;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    static float iou(float[] boxes, int a, int b) {
+        float width = Math.min(boxes[a * 4 + 2], boxes[b * 4 + 2]) - Math.max(boxes[a * 4], boxes[b * 4]);
+        float height = Math.min(boxes[a * 4 + 3], boxes[b * 4 + 3]) - Math.max(boxes[a * 4 + 1], boxes[b * 4 + 1]);
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        float intersection = width * height;
+        float union = area(boxes, a) + area(boxes, b) - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+
+    private static float area(float[] boxes, int i) {
+        return Math.max(0, boxes[i * 4 + 2] - boxes[i * 4]) * Math.max(0, boxes[i * 4 + 3] - boxes[i * 4 + 1]);
+    }
+
+    // Undoes the canvas offset and the resize, clamped to the source image
+    static double unmap(float value, int offset, double scale, int limit) {
+        return Math.max(0, Math.min(limit, (value - offset) / scale));
+    }
+}
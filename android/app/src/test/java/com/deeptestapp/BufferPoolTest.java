@@ -0,0 +1,151 @@
+package com.deeptestapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BufferPoolTest {
+
+    /** Stands in for a Mat, identity is all the pool relies on. */
+    private static final class Buffer {
+    }
+
+    private final List<Buffer> released = new ArrayList<>();
+
+    private BufferPool<Buffer> pool(long maxIdleBytes, int maxIdlePerShape) {
+        return new BufferPool<>(maxIdleBytes, maxIdlePerShape, released::add);
+    }
+
+    @Test
+    public void recycledBufferIsReusedForTheSameShape() {
+        BufferPool<Buffer> pool = pool(1000, 4);
+        assertNull(pool.poll("a"));
+        Buffer buffer = new Buffer();
+        pool.lend(buffer, 100);
+        pool.recycle(buffer, "a", 100);
+
+        assertNull(pool.poll("b"));
+        assertSame(buffer, pool.poll("a"));
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void bytesInUseFollowLendAndRecycle() {
+        BufferPool<Buffer> pool = pool(1000, 4);
+        Buffer first = new Buffer();
+        Buffer second = new Buffer();
+        pool.lend(first, 100);
+        pool.lend(second, 300);
+        assertEquals(400, pool.getInUseBytes());
+
+        pool.recycle(first, "a", 100);
+        assertEquals(300, pool.getInUseBytes());
+        assertEquals(100, pool.getIdleBytes());
+
+        // Reused buffers count as acquired again, but do not add to what is held
+        pool.lend(pool.poll("a"), 100);
+        assertEquals(400, pool.getInUseBytes());
+        assertEquals(500, pool.getAcquiredBytes());
+        assertEquals(400, pool.getPeakBytes());
+    }
+
+    @Test
+    public void reallocatedBufferIsUncountedAtItsLentSize() {
+        BufferPool<Buffer> pool = pool(1000, 4);
+        Buffer buffer = new Buffer();
+        pool.lend(buffer, 100);
+        pool.recycle(buffer, "b", 250);
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals(250, pool.getIdleBytes());
+        assertSame(buffer, pool.poll("b"));
+    }
+
+    @Test
+    public void peakStaysFlatWhenBuffersAreReused() {
+        BufferPool<Buffer> pool = pool(1000, 4);
+        for (int run = 0; run < 5; run++) {
+            Buffer buffer = pool.poll("a");
+            if (buffer == null) {
+                buffer = new Buffer();
+            }
+            pool.lend(buffer, 200);
+            pool.recycle(buffer, "a", 200);
+        }
+        assertEquals(200, pool.getPeakBytes());
+        assertEquals(1000, pool.getAcquiredBytes());
+
+        pool.resetPeak();
+        assertEquals(200, pool.getPeakBytes());
+    }
+
+    @Test
+    public void leastRecentlyUsedShapeIsEvictedOverBudget() {
+        BufferPool<Buffer> pool = pool(300, 4);
+        Buffer old = new Buffer();
+        Buffer recent = new Buffer();
+        Buffer newest = new Buffer();
+        pool.recycle(old, "old", 150);
+        pool.recycle(recent, "recent", 100);
+        // Touch "old" so that "recent" becomes the least recently used shape
+        assertSame(old, pool.poll("old"));
+        pool.recycle(old, "old", 150);
+
+        pool.recycle(newest, "newest", 100);
+        assertEquals(1, pool.getEvictions());
+        assertEquals(1, released.size());
+        assertSame(recent, released.get(0));
+        assertEquals(250, pool.getIdleBytes());
+        assertTrue(pool.getIdleBytes() <= 300);
+    }
+
+    @Test
+    public void buffersOverTheBudgetOrPerShapeCapAreReleased() {
+        BufferPool<Buffer> pool = pool(300, 2);
+        Buffer huge = new Buffer();
+        pool.recycle(huge, "huge", 301);
+        assertSame(huge, released.get(0));
+
+        pool.recycle(new Buffer(), "a", 10);
+        pool.recycle(new Buffer(), "a", 10);
+        Buffer third = new Buffer();
+        pool.recycle(third, "a", 10);
+        assertSame(third, released.get(1));
+        assertEquals(2, pool.getIdleCount());
+        // Not budget evictions, they never entered the pool
+        assertEquals(0, pool.getEvictions());
+    }
+
+    @Test
+    public void emptyBufferIsReleasedNotKept() {
+        BufferPool<Buffer> pool = pool(300, 2);
+        Buffer empty = new Buffer();
+        pool.lend(empty, 50);
+        pool.recycle(empty, "", 0);
+        assertSame(empty, released.get(0));
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void clearReleasesIdleBuffersOnly() {
+        BufferPool<Buffer> pool = pool(1000, 4);
+        Buffer idle = new Buffer();
+        Buffer busy = new Buffer();
+        pool.recycle(idle, "a", 100);
+        pool.lend(busy, 200);
+
+        pool.clear();
+        assertEquals(1, released.size());
+        assertSame(idle, released.get(0));
+        assertEquals(0, pool.getIdleBytes());
+        assertEquals(200, pool.getInUseBytes());
+    }
+}
@@ -0,0 +1,63 @@
+package com.deeptestapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DecodePlannerTest {
+
+    private static final double DELTA = 1e-9;
+    // Top-left pixel of the upright image
+    private static final double[] CORNER = {0, 0, 1, 1};
+
+    // Where the upright top-left pixel of a 4x2 stored image is stored, for each orientation
+    private static double[] storedCorner(int orientation) {
+        return DecodePlanner.toStored(CORNER, orientation, 4, 2);
+    }
+
+    @Test
+    public void uprightImagesMapToThemselves() {
+        assertArrayEquals(CORNER, storedCorner(1), DELTA);
+        assertArrayEquals(CORNER, storedCorner(0), DELTA);
+        double[] box = {1.5, 0.5, 3, 2};
+        assertArrayEquals(box, DecodePlanner.toStored(box, 1, 4, 2), DELTA);
+    }
+
+    @Test
+    public void flipsAndHalfTurnMapWithinTheStoredFrame() {
+        assertArrayEquals(new double[]{3, 0, 4, 1}, storedCorner(2), DELTA);
+        assertArrayEquals(new double[]{3, 1, 4, 2}, storedCorner(3), DELTA);
+        assertArrayEquals(new double[]{0, 1, 1, 2}, storedCorner(4), DELTA);
+    }
+
+    @Test
+    public void quarterTurnsTransposeTheBox() {
+        assertArrayEquals(new double[]{0, 0, 1, 1}, storedCorner(5), DELTA);
+        // Turned clockwise to view, the upright top-left comes from the stored bottom-left
+        assertArrayEquals(new double[]{0, 1, 1, 2}, storedCorner(6), DELTA);
+        assertArrayEquals(new double[]{3, 1, 4, 2}, storedCorner(7), DELTA);
+        // Turned counter-clockwise to view, it comes from the stored top-right
+        assertArrayEquals(new double[]{3, 0, 4, 1}, storedCorner(8), DELTA);
+    }
+
+    @Test
+    public void boxesKeepTheirSizeAcrossTheTurn() {
+        // A 2x1 upright box in the 2x4 upright frame of a rotated 4x2 image
+        double[] stored = DecodePlanner.toStored(new double[]{0, 1, 2, 2}, 6, 4, 2);
+        assertArrayEquals(new double[]{1, 0, 2, 2}, stored, DELTA);
+        assertEquals(1, stored[2] - stored[0], DELTA);
+        assertEquals(2, stored[3] - stored[1], DELTA);
+    }
+
+    @Test
+    public void onlyOrientationsFiveToEightTranspose() {
+        assertFalse(DecodePlanner.transposes(1));
+        assertFalse(DecodePlanner.transposes(4));
+        assertTrue(DecodePlanner.transposes(5));
+        assertTrue(DecodePlanner.transposes(8));
+        assertFalse(DecodePlanner.transposes(0));
+    }
+}
@@ -0,0 +1,168 @@
+package com.deeptestapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MonteCarloSamplerTest {
+
+    private static final double DELTA = 1e-9;
+    private static final String EFFICIENT_NET = "efficientnet.onnx";
+    private static final String SHUFFLE_NET = "shufflenet.onnx";
+    private static final List<String> BOTH = Arrays.asList(EFFICIENT_NET, SHUFFLE_NET);
+
+    /** Hands out queued probabilities as logits and records every request. */
+    private static final class Queued implements MonteCarloSampler.Passes {
+        final Map<String, ArrayDeque<Double>> probabilities = new HashMap<>();
+        final List<String> requests = new ArrayList<>();
+
+        Queued add(String model, double... values) {
+            ArrayDeque<Double> queue = probabilities.computeIfAbsent(model, key -> new ArrayDeque<>());
+            for (double value : values) {
+                queue.add(value);
+            }
+            return this;
+        }
+
+        @Override
+        public float[] run(String model, int count) {
+            requests.add(model + " x" + count);
+            float[] logits = new float[count];
+            for (int i = 0; i < count; i++) {
+                double p = probabilities.get(model).pop() / 100;
+                logits[i] = (float) Math.log(p / (1 - p));
+            }
+            return logits;
+        }
+    }
+
+    private static PassLogStore.Scoring scoring() {
+        PassLogStore.Scoring scoring = new PassLogStore.Scoring();
+        scoring.thresholdModel1 = 0.56;
+        scoring.thresholdModel2 = 0.47;
+        scoring.thresholdEnsemble = 0.53;
+        scoring.ensembleWeight = 0.7;
+        scoring.primaryModel = EFFICIENT_NET;
+        return scoring;
+    }
+
+    private static MonteCarloSampler.Adaptive adaptive() {
+        MonteCarloSampler.Adaptive adaptive = new MonteCarloSampler.Adaptive();
+        adaptive.minPasses = 5;
+        adaptive.maxPasses = 10;
+        adaptive.step = 5;
+        adaptive.tolerance = 0.5;
+        adaptive.margin = 3;
+        return adaptive;
+    }
+
+    private static MonteCarloSampler.Cascade cascade() {
+        MonteCarloSampler.Cascade cascade = new MonteCarloSampler.Cascade();
+        cascade.band = 0.1;
+        cascade.stdDevWeight = 1;
+        return cascade;
+    }
+
+    // Five tight passes around a mean, as in modelHandler.test.ts
+    private static double[] around(double mean) {
+        return new double[]{mean - 0.4, mean + 0.4, mean - 0.2, mean + 0.2, mean};
+    }
+
+    @Test
+    public void summariseOfZeroLogitsIsEvenOdds() {
+        assertArrayEquals(new double[]{50, 0}, MonteCarloSampler.summarise(new float[]{0f, 0f, 0f}), DELTA);
+    }
+
+    @Test
+    public void summariseIsMeanAndPopulationStdDevInPercent() {
+        double low = 100.0 / (1.0 + Math.exp(2));
+        double high = 100.0 / (1.0 + Math.exp(-2));
+        double[] summary = MonteCarloSampler.summarise(new float[]{-2f, 2f});
+        assertEquals((low + high) / 2, summary[0], DELTA);
+        assertEquals((high - low) / 2, summary[1], DELTA);
+    }
+
+    @Test
+    public void summariseOfOnePassHasNoSpread() {
+        double[] summary = MonteCarloSampler.summarise(new float[]{1f});
+        assertEquals(100.0 / (1.0 + Math.exp(-1)), summary[0], DELTA);
+        assertEquals(0, summary[1], DELTA);
+    }
+
+    @Test
+    public void fixedPassesRunEveryModel() throws Exception {
+        Queued passes = new Queued().add(EFFICIENT_NET, around(62)).add(SHUFFLE_NET, around(30));
+        Map<String, float[]> logits = new MonteCarloSampler(scoring(), null, 5, null).run(BOTH, passes);
+        assertEquals(BOTH, new ArrayList<>(logits.keySet()));
+        assertEquals(5, logits.get(EFFICIENT_NET).length);
+        assertEquals(5, logits.get(SHUFFLE_NET).length);
+    }
+
+    @Test
+    public void singleModelStopsOnceClearOfItsThreshold() throws Exception {
+        Queued passes = new Queued().add(SHUFFLE_NET, around(30)).add(SHUFFLE_NET, around(30));
+        Map<String, float[]> logits = new MonteCarloSampler(scoring(), adaptive(), 10, null)
+                .run(Collections.singletonList(SHUFFLE_NET), passes);
+        assertEquals(5, logits.get(SHUFFLE_NET).length);
+    }
+
+    @Test
+    public void ensembleNearItsThresholdGetsEveryPass() throws Exception {
+        // EfficientNet at 62 then 58, ShuffleNet at 32.5: each alone is clear of its own threshold
+        // after five passes, the blend goes from 53.15 to 51.75 across the 53 threshold
+        Queued passes = new Queued().add(EFFICIENT_NET, around(62)).add(EFFICIENT_NET, around(58))
+                .add(SHUFFLE_NET, around(32.5)).add(SHUFFLE_NET, around(32.5));
+        Map<String, float[]> logits = new MonteCarloSampler(scoring(), adaptive(), 10, null).run(BOTH, passes);
+
+        assertEquals(10, logits.get(EFFICIENT_NET).length);
+        assertEquals(10, logits.get(SHUFFLE_NET).length);
+        Map<String, double[]> summaries = new HashMap<>();
+        summaries.put(EFFICIENT_NET, MonteCarloSampler.summarise(logits.get(EFFICIENT_NET)));
+        summaries.put(SHUFFLE_NET, MonteCarloSampler.summarise(logits.get(SHUFFLE_NET)));
+        assertEquals(51.75, PassLogStore.blend(summaries, scoring())[0], 1e-3);
+    }
+
+    @Test
+    public void cascadeAcceptsShuffleNetWellClearOfItsThreshold() throws Exception {
+        Queued passes = new Queued().add(SHUFFLE_NET, around(20));
+        Map<String, float[]> logits = new MonteCarloSampler(scoring(), adaptive(), 10, cascade()).run(BOTH, passes);
+        assertEquals(Collections.singleton(SHUFFLE_NET), logits.keySet());
+        assertEquals(Collections.singletonList(SHUFFLE_NET + " x5"), passes.requests);
+    }
+
+    @Test
+    public void escalatedCascadeKeepsShuffleNetPasses() throws Exception {
+        Queued passes = new Queued().add(SHUFFLE_NET, around(50)).add(EFFICIENT_NET, around(70));
+        Map<String, float[]> logits = new MonteCarloSampler(scoring(), adaptive(), 10, cascade()).run(BOTH, passes);
+        assertEquals(BOTH, new ArrayList<>(logits.keySet()));
+        // Blend 0.7 * 70 + 0.3 * 50 = 64 is clear of 53, no more ShuffleNet passes were needed
+        assertEquals(5, logits.get(SHUFFLE_NET).length);
+        assertEquals(5, logits.get(EFFICIENT_NET).length);
+        assertEquals(Arrays.asList(SHUFFLE_NET + " x5", EFFICIENT_NET + " x5"), passes.requests);
+    }
+
+    @Test
+    public void cascadeBandWidensWithTheSpread() {
+        MonteCarloSampler sampler = new MonteCarloSampler(scoring(), adaptive(), 10, cascade());
+        assertTrue(sampler.accepts(new double[]{58, 0}, 0.47));
+        assertFalse(sampler.accepts(new double[]{58, 2}, 0.47));
+        assertFalse(sampler.accepts(new double[]{40, 0}, 0.47));
+    }
+
+    @Test
+    public void standardErrorNeedsTwoPasses() {
+        assertEquals(Double.POSITIVE_INFINITY, MonteCarloSampler.standardError(new float[]{1f}), 0);
+        assertEquals(0, MonteCarloSampler.standardError(new float[]{1f, 1f}), DELTA);
+    }
+}
@@ -0,0 +1,66 @@
+package com.deeptestapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PassLogStoreTest {
+
+    private static final double DELTA = 1e-9;
+
+    private static PassLogStore.Scoring scoring() {
+        PassLogStore.Scoring scoring = new PassLogStore.Scoring();
+        scoring.thresholdModel1 = 0.56;
+        scoring.thresholdModel2 = 0.47;
+        scoring.thresholdEnsemble = 0.53;
+        scoring.ensembleWeight = 0.7;
+        scoring.primaryModel = "efficientnet.onnx";
+        return scoring;
+    }
+
+    @Test
+    public void blobRoundTripKeepsEveryLogit() {
+        float[] logits = {0f, -1.5f, 2.25f, Float.MAX_VALUE, -Float.MIN_VALUE};
+        assertArrayEquals(logits, PassLogStore.fromBlob(PassLogStore.toBlob(logits)), 0f);
+    }
+
+    @Test
+    public void blobIsLittleEndianFloat32() {
+        byte[] blob = PassLogStore.toBlob(new float[]{1f});
+        // 1.0f is 0x3F800000
+        assertArrayEquals(new byte[]{0, 0, (byte) 0x80, 0x3F}, blob);
+        assertEquals(0, PassLogStore.fromBlob(new byte[0]).length);
+    }
+
+    @Test
+    public void blendUsesASingleModelAsIs() {
+        Map<String, double[]> summaries = new LinkedHashMap<>();
+        summaries.put("shufflenet.onnx", new double[]{40, 5});
+        assertArrayEquals(new double[]{40, 5}, PassLogStore.blend(summaries, scoring()), DELTA);
+    }
+
+    @Test
+    public void blendWeightsThePrimaryModelWhateverItsOrder() {
+        Map<String, double[]> summaries = new LinkedHashMap<>();
+        summaries.put("shufflenet.onnx", new double[]{40, 10});
+        summaries.put("efficientnet.onnx", new double[]{60, 20});
+        assertArrayEquals(new double[]{0.7 * 60 + 0.3 * 40, 0.7 * 20 + 0.3 * 10},
+                PassLogStore.blend(summaries, scoring()), DELTA);
+    }
+
+    @Test
+    public void thresholdFollowsTheModelsThatProducedTheResult() {
+        PassLogStore.Scoring scoring = scoring();
+        assertEquals(0.56, scoring.threshold("3", Collections.singleton("efficientnet.onnx")), DELTA);
+        assertEquals(0.47, scoring.threshold("3", Collections.singleton("shufflenet.onnx")), DELTA);
+        assertEquals(0.53, scoring.threshold("3",
+                new HashSet<>(Arrays.asList("efficientnet.onnx", "shufflenet.onnx"))), DELTA);
+    }
+}
@@ -0,0 +1,145 @@
+package com.deeptestapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class PreprocessCacheTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    // Entry files seen so far, so the one a put wrote can be told apart
+    private final Set<String> written = new HashSet<>();
+    // Disk eviction orders by mtime, which a fast test cannot rely on; entries are aged explicitly
+    private long clock = System.currentTimeMillis() - 1_000_000;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "preprocess");
+    }
+
+    private static byte[] value(int length, int fill) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, (byte) fill);
+        return value;
+    }
+
+    private void put(PreprocessCache cache, String key, byte[] value) {
+        cache.put(key, value);
+        File[] files = directory.listFiles();
+        for (File file : files) {
+            if (written.add(file.getName())) {
+                clock += 1000;
+                file.setLastModified(clock);
+            }
+        }
+    }
+
+    @Test
+    public void recentEntriesAreServedFromMemory() {
+        PreprocessCache cache = new PreprocessCache(directory, 100, 1000);
+        byte[] a = value(40, 1);
+        put(cache, "a", a);
+
+        assertSame(a, cache.get("a"));
+        assertNull(cache.get("b"));
+        Map<String, Long> stats = cache.stats();
+        assertEquals(1L, (long) stats.get("memoryHits"));
+        assertEquals(1L, (long) stats.get("misses"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryLeavesMemoryButStaysOnDisk() {
+        PreprocessCache cache = new PreprocessCache(directory, 100, 1000);
+        put(cache, "a", value(40, 1));
+        put(cache, "b", value(40, 2));
+        // Touch "a" so that "b" becomes the least recently used entry
+        cache.get("a");
+        put(cache, "c", value(40, 3));
+
+        Map<String, Long> stats = cache.stats();
+        assertEquals(1L, (long) stats.get("memoryEvictions"));
+        assertEquals(80L, (long) stats.get("memoryBytes"));
+        assertEquals(2L, (long) stats.get("memoryEntries"));
+        assertEquals(3L, (long) stats.get("diskEntries"));
+
+        assertArrayEquals(value(40, 2), cache.get("b"));
+        assertEquals(1L, (long) cache.stats().get("diskHits"));
+        // Read back into memory, which pushes out the entry now used least recently
+        assertEquals(2L, (long) cache.stats().get("memoryEvictions"));
+    }
+
+    @Test
+    public void diskIsTrimmedToItsBudgetByLeastRecentUse() {
+        // Memory only ever keeps the newest entry, so every other read goes to disk
+        PreprocessCache cache = new PreprocessCache(directory, 0, 100);
+        put(cache, "a", value(40, 1));
+        put(cache, "b", value(40, 2));
+        // A disk hit touches the file, "b" is now the oldest on disk
+        assertArrayEquals(value(40, 1), cache.get("a"));
+        put(cache, "c", value(40, 3));
+
+        Map<String, Long> stats = cache.stats();
+        assertEquals(1L, (long) stats.get("diskEvictions"));
+        assertEquals(80L, (long) stats.get("diskBytes"));
+        assertEquals(2L, (long) stats.get("diskEntries"));
+        assertEquals(1L, (long) stats.get("memoryEntries"));
+        assertNull(cache.get("b"));
+        assertArrayEquals(value(40, 1), cache.get("a"));
+    }
+
+    @Test
+    public void diskTierOutlivesTheInstance() {
+        PreprocessCache cache = new PreprocessCache(directory, 100, 1000);
+        put(cache, "a", value(40, 1));
+        put(cache, "b", value(30, 2));
+
+        PreprocessCache reopened = new PreprocessCache(directory, 100, 1000);
+        Map<String, Long> stats = reopened.stats();
+        assertEquals(0L, (long) stats.get("memoryEntries"));
+        assertEquals(2L, (long) stats.get("diskEntries"));
+        assertEquals(70L, (long) stats.get("diskBytes"));
+        assertArrayEquals(value(30, 2), reopened.get("b"));
+
+        reopened.clear();
+        assertEquals(0L, (long) reopened.stats().get("diskEntries"));
+        assertNull(reopened.get("a"));
+    }
+
+    @Test
+    public void trimMemoryKeepsDiskEntries() {
+        PreprocessCache cache = new PreprocessCache(directory, 100, 1000);
+        put(cache, "a", value(40, 1));
+        cache.trimMemory();
+
+        assertEquals(0L, (long) cache.stats().get("memoryBytes"));
+        assertArrayEquals(value(40, 1), cache.get("a"));
+        assertEquals(1L, (long) cache.stats().get("diskHits"));
+    }
+
+    @Test
+    public void tensorKeyChangesWithEverythingTheTensorDependsOn() {
+        double[] box = {1, 2, 3, 4};
+        String key = PreprocessCache.tensorKey("hash", box, "224x224", "1");
+        assertEquals(key, PreprocessCache.tensorKey("hash", box.clone(), "224x224", "1"));
+        assertNotEquals(key, PreprocessCache.tensorKey("other", box, "224x224", "1"));
+        assertNotEquals(key, PreprocessCache.tensorKey("hash", null, "224x224", "1"));
+        assertNotEquals(key, PreprocessCache.tensorKey("hash", box, "256x256", "1"));
+        assertNotEquals(key, PreprocessCache.tensorKey("hash", box, "224x224", "2"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.deeptestapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class YoloDecoderTest {
+
+    private static final double DELTA = 1e-6;
+
+    // A 1000x500 image resized by 0.64 into the top-left corner of the 640x640 canvas
+    private static ImagePreprocessor.Placement topLeft() {
+        ImagePreprocessor.Placement placement = new ImagePreprocessor.Placement();
+        placement.sourceWidth = 1000;
+        placement.sourceHeight = 500;
+        placement.width = 640;
+        placement.height = 320;
+        placement.scale = 0.64;
+        return placement;
+    }
+
+    @Test
+    public void dropsRowsBelowTheScoreThreshold() {
+        float[] output = {
+                10, 10, 100, 100, 0.2f, 0,
+                200, 10, 300, 100, 0.9f, 1,
+        };
+        List<YoloDecoder.Detection> detections = YoloDecoder.decode(output, topLeft(), 0.25f, 0.45f, 10);
+        assertEquals(1, detections.size());
+        assertEquals(1, detections.get(0).classId);
+        assertEquals(0.9f, detections.get(0).score, 0);
+    }
+
+    @Test
+    public void suppressesOverlapsAndOrdersByScore() {
+        float[] output = {
+                0, 0, 100, 100, 0.6f, 0,
+                // IoU with the first is 90 / 110, suppressed by it
+                10, 0, 100, 100, 0.5f, 0,
+                // Apart from both, kept
+                300, 0, 400, 100, 0.8f, 0,
+        };
+        List<YoloDecoder.Detection> detections = YoloDecoder.decode(output, topLeft(), 0.25f, 0.45f, 10);
+        assertEquals(2, detections.size());
+        assertEquals(0.8f, detections.get(0).score, 0);
+        assertEquals(0.6f, detections.get(1).score, 0);
+    }
+
+    @Test
+    public void keepsOverlapsUpToTheNmsThreshold() {
+        float[] boxes = {0, 0, 100, 100, 50, 0, 150, 100};
+        // Overlap 50 x 100 over a union of 15000
+        assertEquals(1f / 3, YoloDecoder.iou(boxes, 0, 1), DELTA);
+        assertArrayEquals(new int[]{1, 0}, YoloDecoder.suppress(boxes, new float[]{0.5f, 0.7f}, 0.45f, 10));
+        assertArrayEquals(new int[]{1}, YoloDecoder.suppress(boxes, new float[]{0.5f, 0.7f}, 0.3f, 10));
+    }
+
+    @Test
+    public void returnsAtMostMaxDetections() {
+        float[] boxes = {0, 0, 10, 10, 20, 0, 30, 10, 40, 0, 50, 10};
+        assertArrayEquals(new int[]{2, 0}, YoloDecoder.suppress(boxes, new float[]{0.5f, 0.4f, 0.9f}, 0.45f, 2));
+    }
+
+    @Test
+    public void unmapsThroughTheCanvasOffsetAndScale() {
+        ImagePreprocessor.Placement placement = topLeft();
+        placement.left = 20;
+        placement.top = 40;
+        float[] output = {84, 104, 404, 264, 0.9f, 0};
+        double[] box = YoloDecoder.decode(output, placement, 0.25f, 0.45f, 10).get(0).toBox();
+        assertArrayEquals(new double[]{100, 100, 600, 350}, box, DELTA);
+    }
+
+    @Test
+    public void clampsToTheSourceImageAndDropsEmptyBoxes() {
+        float[] output = {
+                -20, -20, 700, 700, 0.9f, 0,
+                // Entirely below the image, empty once clamped
+                0, 400, 100, 500, 0.8f, 0,
+        };
+        List<YoloDecoder.Detection> detections = YoloDecoder.decode(output, topLeft(), 0.25f, 0.45f, 10);
+        assertEquals(1, detections.size());
+        assertArrayEquals(new double[]{0, 0, 1000, 500}, detections.get(0).toBox(), DELTA);
+        assertEquals(500, YoloDecoder.unmap(640, 0, 0.64, 500), DELTA);
+        assertTrue(YoloDecoder.decode(new float[0], topLeft(), 0.25f, 0.45f, 10).isEmpty());
+    }
+}
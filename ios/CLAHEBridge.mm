@@ -10,6 +10,11 @@ RCT_EXPORT_MODULE();
   return NO;
 }
 
+- (NSDictionary *)constantsToExport {
+  // JS sizes inference thread budgets from this
+  return @{ @"cpuCores": @([[NSProcessInfo processInfo] activeProcessorCount]) };
+}
+
 
 
 RCT_EXPORT_METHOD(applyClahe:(NSString *)imagePath
@@ -190,6 +195,203 @@ RCT_EXPORT_METHOD(isImageBlurred:(NSString *)imagePath
   }
 }
 
+RCT_EXPORT_METHOD(prepareTensor:(NSString *)imagePath
+                  targetWidth:(nonnull NSNumber *)targetWidth
+                  targetHeight:(nonnull NSNumber *)targetHeight
+                  layout:(NSString *)layout
+                  meanValues:(nullable NSArray<NSNumber *> *)meanValues
+                  stdValues:(nullable NSArray<NSNumber *> *)stdValues
+                  letterbox:(BOOL)letterbox
+                  resolver:(RCTPromiseResolveBlock)resolve
+                  rejecter:(RCTPromiseRejectBlock)reject) {
+  @try {
+    UIImage *inputImage = [UIImage imageWithContentsOfFile:imagePath];
+    if (!inputImage) {
+      reject(@"TENSOR_ERROR", @"Failed to load image from path", nil);
+      return;
+    }
+
+    // UIImageToMat yields RGBA, drop alpha to keep RGB channel order
+    cv::Mat mat;
+    UIImageToMat(inputImage, mat);
+    cv::cvtColor(mat, mat, cv::COLOR_RGBA2RGB);
+
+    int srcWidth = mat.cols;
+    int srcHeight = mat.rows;
+    int dstWidth = [targetWidth intValue];
+    int dstHeight = [targetHeight intValue];
+
+    double scale = std::min((double)dstWidth / srcWidth, (double)dstHeight / srcHeight);
+    int newWidth = std::max(1, (int)std::round(srcWidth * scale));
+    int newHeight = std::max(1, (int)std::round(srcHeight * scale));
+
+    // Centre the image when letterboxing, otherwise pad to the bottom-right
+    int x = letterbox ? (dstWidth - newWidth) / 2 : 0;
+    int y = letterbox ? (dstHeight - newHeight) / 2 : 0;
+
+    cv::Mat canvas = cv::Mat::zeros(dstHeight, dstWidth, CV_8UC3);
+    cv::Mat region = canvas(cv::Rect(x, y, newWidth, newHeight));
+    // Bilinear whatever the scale, matching the Android prepareTensor
+    cv::resize(mat, region, cv::Size(newWidth, newHeight), 0, 0, cv::INTER_LINEAR);
+
+    // Scale to [0, 1] then apply per-channel mean/std normalisation
+    cv::Mat normalised;
+    canvas.convertTo(normalised, CV_32FC3, 1.0 / 255.0);
+    if (meanValues.count == 3) {
+      cv::subtract(normalised, cv::Scalar([meanValues[0] doubleValue], [meanValues[1] doubleValue], [meanValues[2] doubleValue]), normalised);
+    }
+    if (stdValues.count == 3) {
+      cv::divide(normalised, cv::Scalar([stdValues[0] doubleValue], [stdValues[1] doubleValue], [stdValues[2] doubleValue]), normalised);
+    }
+
+    size_t planeSize = (size_t)dstWidth * dstHeight;
+    NSMutableData *tensor = [NSMutableData dataWithLength:3 * planeSize * sizeof(float)];
+    float *tensorData = (float *)tensor.mutableBytes;
+    if ([layout isEqualToString:@"HWC"]) {
+      memcpy(tensorData, normalised.ptr<float>(), 3 * planeSize * sizeof(float));
+    } else {
+      // Transpose to CHW by splitting straight into the tensor planes
+      std::vector<cv::Mat> planes = {
+        cv::Mat(dstHeight, dstWidth, CV_32F, tensorData),
+        cv::Mat(dstHeight, dstWidth, CV_32F, tensorData + planeSize),
+        cv::Mat(dstHeight, dstWidth, CV_32F, tensorData + 2 * planeSize)
+      };
+      cv::split(normalised, planes);
+    }
+
+    NSDictionary *result = @{
+      @"width": @(newWidth),
+      @"height": @(newHeight),
+      @"sourceWidth": @(srcWidth),
+      @"sourceHeight": @(srcHeight),
+      @"offsetX": @(x),
+      @"offsetY": @(y),
+      @"scale": @(scale),
+      @"tensor": [tensor base64EncodedStringWithOptions:0]
+    };
+    resolve(result);
+  } @catch (NSException *exception) {
+    reject(@"TENSOR_EXCEPTION", exception.reason, nil);
+  }
+}
+
+RCT_EXPORT_METHOD(runPreprocessingPipeline:(NSString *)imagePath
+                  options:(NSDictionary *)options
+                  resolver:(RCTPromiseResolveBlock)resolve
+                  rejecter:(RCTPromiseRejectBlock)reject) {
+  @try {
+    int dstWidth = options[@"targetWidth"] ? [options[@"targetWidth"] intValue] : 224;
+    int dstHeight = options[@"targetHeight"] ? [options[@"targetHeight"] intValue] : 224;
+    BOOL applyClahe = options[@"clahe"] ? [options[@"clahe"] boolValue] : YES;
+    double clipLimit = options[@"clipLimit"] ? [options[@"clipLimit"] doubleValue] : 1.5;
+    int tileGrid = options[@"tileGrid"] ? [options[@"tileGrid"] intValue] : 16;
+    NSString *layout = options[@"layout"] ?: @"CHW";
+    NSArray<NSNumber *> *meanValues = options[@"mean"];
+    NSArray<NSNumber *> *stdValues = options[@"std"];
+    BOOL debug = [options[@"debug"] boolValue];
+    NSString *basePath = [imagePath stringByDeletingPathExtension];
+    NSMutableDictionary *debugFiles = [NSMutableDictionary dictionary];
+
+    // Decode once, every later stage works on in-memory Mats
+    UIImage *inputImage = [UIImage imageWithContentsOfFile:imagePath];
+    if (!inputImage) {
+      reject(@"PIPELINE_ERROR", @"Failed to load image from path", nil);
+      return;
+    }
+    cv::Mat mat;
+    UIImageToMat(inputImage, mat);
+    cv::cvtColor(mat, mat, cv::COLOR_RGBA2RGB);
+
+    // Crop to the region of interest if one was detected
+    cv::Mat roi = mat;
+    NSDictionary *box = options[@"box"];
+    if ([box isKindOfClass:[NSDictionary class]]) {
+      int x1 = std::max(0, (int)std::floor([box[@"x1"] doubleValue]));
+      int y1 = std::max(0, (int)std::floor([box[@"y1"] doubleValue]));
+      int x2 = std::min(mat.cols, (int)std::ceil([box[@"x2"] doubleValue]));
+      int y2 = std::min(mat.rows, (int)std::ceil([box[@"y2"] doubleValue]));
+      if (x2 <= x1 || y2 <= y1) {
+        reject(@"PIPELINE_ERROR", @"Region of interest is empty", nil);
+        return;
+      }
+      roi = mat(cv::Rect(x1, y1, x2 - x1, y2 - y1));
+      if (debug) {
+        NSString *path = [basePath stringByAppendingString:@"_crop.png"];
+        [UIImagePNGRepresentation(MatToUIImage(roi.clone())) writeToFile:path atomically:YES];
+        debugFiles[@"crop"] = [@"file://" stringByAppendingString:path];
+      }
+    }
+
+    // Letterbox with the same Lanczos resize as makeLetterBox
+    double scale = std::min((double)dstWidth / roi.cols, (double)dstHeight / roi.rows);
+    int newWidth = std::max(1, (int)std::round(roi.cols * scale));
+    int newHeight = std::max(1, (int)std::round(roi.rows * scale));
+    cv::Mat canvas = cv::Mat::zeros(dstHeight, dstWidth, CV_8UC3);
+    cv::Mat region = canvas(cv::Rect((dstWidth - newWidth) / 2, (dstHeight - newHeight) / 2, newWidth, newHeight));
+    cv::resize(roi, region, cv::Size(newWidth, newHeight), 0, 0, cv::INTER_LANCZOS4);
+    if (debug) {
+      NSString *path = [basePath stringByAppendingString:@"_letterbox.png"];
+      [UIImagePNGRepresentation(MatToUIImage(canvas)) writeToFile:path atomically:YES];
+      debugFiles[@"letterbox"] = [@"file://" stringByAppendingString:path];
+    }
+
+    if (applyClahe) {
+      // The canvas holds RGB, but applyClahe and Android convert with the BGR codes,
+      // keep them so the classifiers see the same equalised input on every platform
+      cv::Mat lab;
+      cv::cvtColor(canvas, lab, cv::COLOR_BGR2Lab);
+      std::vector<cv::Mat> channels;
+      cv::split(lab, channels);
+      cv::Ptr<cv::CLAHE> clahe = cv::createCLAHE(clipLimit, cv::Size(tileGrid, tileGrid));
+      clahe->apply(channels[0], channels[0]);
+      cv::GaussianBlur(channels[0], channels[0], cv::Size(3, 3), 0);
+      cv::merge(channels, lab);
+      cv::cvtColor(lab, canvas, cv::COLOR_Lab2BGR);
+      if (debug) {
+        NSString *path = [basePath stringByAppendingString:@"_clahe.png"];
+        [UIImagePNGRepresentation(MatToUIImage(canvas)) writeToFile:path atomically:YES];
+        debugFiles[@"clahe"] = [@"file://" stringByAppendingString:path];
+      }
+    }
+
+    // Scale to [0, 1] then apply per-channel mean/std normalisation
+    cv::Mat normalised;
+    canvas.convertTo(normalised, CV_32FC3, 1.0 / 255.0);
+    if (meanValues.count == 3) {
+      cv::subtract(normalised, cv::Scalar([meanValues[0] doubleValue], [meanValues[1] doubleValue], [meanValues[2] doubleValue]), normalised);
+    }
+    if (stdValues.count == 3) {
+      cv::divide(normalised, cv::Scalar([stdValues[0] doubleValue], [stdValues[1] doubleValue], [stdValues[2] doubleValue]), normalised);
+    }
+
+    size_t planeSize = (size_t)dstWidth * dstHeight;
+    NSMutableData *tensor = [NSMutableData dataWithLength:3 * planeSize * sizeof(float)];
+    float *tensorData = (float *)tensor.mutableBytes;
+    if ([layout isEqualToString:@"HWC"]) {
+      memcpy(tensorData, normalised.ptr<float>(), 3 * planeSize * sizeof(float));
+    } else {
+      std::vector<cv::Mat> planes = {
+        cv::Mat(dstHeight, dstWidth, CV_32F, tensorData),
+        cv::Mat(dstHeight, dstWidth, CV_32F, tensorData + planeSize),
+        cv::Mat(dstHeight, dstWidth, CV_32F, tensorData + 2 * planeSize)
+      };
+      cv::split(normalised, planes);
+    }
+
+    NSMutableDictionary *result = [@{
+      @"width": @(dstWidth),
+      @"height": @(dstHeight),
+      @"tensor": [tensor base64EncodedStringWithOptions:0]
+    } mutableCopy];
+    if (debug) {
+      result[@"debugFiles"] = debugFiles;
+    }
+    resolve(result);
+  } @catch (NSException *exception) {
+    reject(@"PIPELINE_EXCEPTION", exception.reason, nil);
+  }
+}
+
 RCT_EXPORT_METHOD(readPNGFromFile:(NSString *)imagePath
                   resolver:(RCTPromiseResolveBlock)resolve
                   rejecter:(RCTPromiseRejectBlock)reject) {
@@ -8,6 +8,7 @@ type ButtonProps = {
     style?: StyleProp<ViewStyle>;
     capitalise?: boolean;
     color?: string;
+    disabled?: boolean;
     onPress?: (event: GestureResponderEvent) => void
 }
 
@@ -89,9 +90,9 @@ export const FillButton = ({ children, style, capitalise, color, onPress }: Butt
     )
 }
 
-export const IconButton = ({ children, style, onPress }: ButtonProps) => {
+export const IconButton = ({ children, style, disabled, onPress }: ButtonProps) => {
     return (
-        <TouchableOpacity style={style} onPress={onPress}>
+        <TouchableOpacity style={[style, disabled && { opacity: 0.4 }]} disabled={disabled} onPress={onPress}>
             {children}
         </TouchableOpacity>
     );
@@ -18,8 +18,8 @@ export type RootStackParamList = {
     Disclaimer: undefined;
     Camera: undefined;
     History: undefined;
-    Preview: { fileUri: string, mode: string };
-    Process: { fileUri: string, name: string, selectedType: string, selectedModel: string };
+    Preview: { fileUri: string, mode: string, contentHash?: string };
+    Process: { fileUri: string, name: string, selectedType: string, selectedModel: string, contentHash?: string };
     Result: { id: number };
     Info: { record: Record }
 };
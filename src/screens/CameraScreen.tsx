@@ -1,8 +1,7 @@
 import { useNavigation } from "@react-navigation/native";
-import { useEffect, useRef, useState } from "react";
-import { Dimensions, NativeModules, View } from "react-native";
+import { useCallback, useEffect, useRef, useState } from "react";
+import { Dimensions, NativeModules, Platform, Text, View } from "react-native";
 import { Home as HomeIcon, Image as ImageIcon } from "react-native-feather";
-import RNFS from 'react-native-fs';
 import { launchImageLibrary } from "react-native-image-picker";
 import type { Camera as CameraType } from 'react-native-vision-camera';
 import { Camera, useCameraDevice } from "react-native-vision-camera";
@@ -13,9 +12,23 @@ import Colors from "../constants/colors";
 import Screens, { PreviewModes } from "../constants/screens";
 import { useSnackbar } from "../providers/snackbar/SnackbarContext";
 import { useTheme } from "../providers/theme/ThemeContext";
+import { DatabaseHandler } from "../utils/dbHandler";
+import { ingestImage } from "../utils/fileHandler";
+import { loadPreviewBlurThreshold, recordCalibrationSample } from "../utils/frameQualityCalibration";
 
 const { CLAHEBridge } = NativeModules;
 
+// Preview snapshots are scored natively, Android only. Snapshots rather than frame processors,
+// which would need react-native-worklets-core
+const PREVIEW_SCORING = Platform.OS === 'android';
+// The quality warning shows once this many of the most recent preview frames have all failed
+const FRAME_QUALITY_WINDOW = 5;
+// Time between the start of one snapshot and the next, each costs a JPEG encode on top of scoring
+const FRAME_QUALITY_INTERVAL_MS = 500;
+// Full-resolution thresholds of the check every capture goes through
+const CAPTURE_BLUR_THRESHOLD = 50.0;
+const CAPTURE_BLOCK_THRESHOLD = 10.0;
+
 const CameraScreen = () => {
     const theme = useTheme();
     const navigation = useNavigation<any>();
@@ -23,19 +36,50 @@ const CameraScreen = () => {
     const [flash, setFlash] = useState<'on' | 'off'>('off');
     const { showSnackbar } = useSnackbar();
     const cameraRef = useRef<CameraType>(null);
+    const recentFrames = useRef<boolean[]>([]);
+    const lastPreviewSharpness = useRef<number>();
+    const [isFrameQualityOk, setFrameQualityOk] = useState(true);
+    // Calibrated from this device's captures, preview sharpness is not judged until then
+    const [previewBlurThreshold, setPreviewBlurThreshold] = useState<number>();
 
-    const handleImageForPreview = async (sourcePath: string, mode: string) => {
-        try {
-            const fileName = sourcePath.split('/').pop();
-            const destPath = `${RNFS.DocumentDirectoryPath}/${fileName}`;
+    useEffect(() => {
+        loadPreviewBlurThreshold(CAPTURE_BLUR_THRESHOLD).then(setPreviewBlurThreshold);
+    }, []);
+
+    const onFrameScored = useCallback((passed: boolean, sharpness: number) => {
+        lastPreviewSharpness.current = sharpness;
+        const frames = recentFrames.current;
+        frames.push(passed);
+        if (frames.length > FRAME_QUALITY_WINDOW) frames.shift();
+
+        // Only a warning, the shutter stays usable whatever the preview scores
+        setFrameQualityOk(frames.length < FRAME_QUALITY_WINDOW || frames.some(Boolean));
+    }, []);
 
-            await RNFS.copyFile(sourcePath, destPath);
-            console.log(`Saved image to: file://${destPath}`);
+    const handleImageForPreview = async (sourcePath: string, mode: string, previewSharpness?: number) => {
+        try {
+            // Copy, hash and read the header in one pass, the pixels are first decoded by the quality check
+            const { fileUri, contentHash, duplicate } = await ingestImage(sourcePath);
+            console.log(`Saved image to: ${fileUri}`);
+            if (duplicate && contentHash) {
+                const analysed = await DatabaseHandler.getInstance().countRecordsByContentHash(contentHash);
+                if (analysed > 0) {
+                    showSnackbar(`This image has already been analysed ${analysed} time(s).`, Colors.PRIMARY, 3000);
+                }
+            }
 
             // Check if image is blurred using CLAHEBridge
-            const { isPoor, blurVariance, blockiness } = await CLAHEBridge.isImageBlurred(destPath, 50.0, 10.0);
+            const { isPoor, blurVariance, blockiness, decidedAtLevel, levels } = await CLAHEBridge.isImageBlurred(
+                fileUri.replace("file://", ""), CAPTURE_BLUR_THRESHOLD, CAPTURE_BLOCK_THRESHOLD
+            );
             // const isPoor = false, variance = 10.0, blockiness = 20.0;
             console.log(`Blur variance: ${blurVariance}, blockiness: ${blockiness}`);
+            if (levels) {
+                console.log(`Quality gate decided at pyramid level ${decidedAtLevel}: `, levels);
+            }
+            if (previewSharpness != null) {
+                setPreviewBlurThreshold(await recordCalibrationSample(previewSharpness, blurVariance, CAPTURE_BLUR_THRESHOLD));
+            }
 
             if (isPoor) {
                 showSnackbar("Image appears to be poor quality. Please try again.", Colors.WARN);
@@ -43,8 +87,9 @@ const CameraScreen = () => {
             }
 
             navigation.navigate(Screens.PREVIEW, {
-                fileUri: `file://${destPath}`,
-                mode
+                fileUri,
+                mode,
+                contentHash
             });
         } catch (e) {
             console.error("Failed to prepare image for preview:", e);
@@ -87,6 +132,8 @@ const CameraScreen = () => {
 
         console.log("Flash setting: ", flash);
 
+        // The preview frame the user saw when pressing the shutter, paired with the capture's score
+        const previewSharpness = lastPreviewSharpness.current;
         try {
             const photo = await cameraRef.current.takePhoto({
                 flash: flash,
@@ -95,7 +142,7 @@ const CameraScreen = () => {
 
             console.log("Captured photo:", photo);
 
-            await handleImageForPreview(photo.path, PreviewModes.CAMERA);
+            await handleImageForPreview(photo.path, PreviewModes.CAMERA, previewSharpness);
 
         } catch (e) {
             console.error('Failed to capture photo:', e);
@@ -128,6 +175,36 @@ const CameraScreen = () => {
     const cameraDevice = useCameraDevice('back');
     console.log(cameraDevice);
     const isCameraOn = cameraDevice && cameraPermission === "granted"
+
+    useEffect(() => {
+        if (!PREVIEW_SCORING || !isCameraOn) return;
+        let active = true;
+
+        // One snapshot at a time, the next is only taken once the last one has been scored
+        (async () => {
+            while (active) {
+                const tic = Date.now();
+                try {
+                    const snapshot = await cameraRef.current?.takeSnapshot({ quality: 80 });
+                    if (snapshot && active) {
+                        const score: { passed: boolean, sharpness: number } = await CLAHEBridge.scorePreviewFrame(
+                            snapshot.path, { targetWidth: 320, blurThreshold: previewBlurThreshold ?? 0 }
+                        );
+                        onFrameScored(score.passed, score.sharpness);
+                    }
+                } catch (e) {
+                    // Every capture is still checked at full resolution, preview scoring is only a hint
+                    console.warn("Could not score preview frame, stopping preview scoring:", e);
+                    return;
+                }
+                await new Promise(resolve => setTimeout(resolve, Math.max(0, FRAME_QUALITY_INTERVAL_MS - (Date.now() - tic))));
+            }
+        })();
+
+        return () => {
+            active = false;
+        };
+    }, [isCameraOn, onFrameScored, previewBlurThreshold]);
     const white = "#FFFFFF";
 
     return (
@@ -170,6 +247,11 @@ const CameraScreen = () => {
                                 <HomeIcon width={36} height={36} stroke={white} />
                             </IconButton>
                         </View>
+                        {!isFrameQualityOk && (
+                            <Text style={{ color: white, textAlign: 'center', backgroundColor: theme.warning, padding: 8, borderRadius: 8 }}>
+                                Preview looks blurry or badly lit. Hold steady before taking the photo.
+                            </Text>
+                        )}
                         <View style={{ flexDirection: 'row', justifyContent: 'space-between', alignItems: 'center' }}>
                             <IconButton onPress={openImagePickerOnPress}>
                                 <ImageIcon width={36} height={36} stroke={white} />
@@ -3,7 +3,7 @@ import { useCallback, useEffect, useRef, useState } from "react";
 import { ActivityIndicator, Alert, Animated, Easing, FlatList, View } from "react-native";
 import { Camera as CameraIcon, CheckSquare as CheckIcon, Filter as FilterIcon } from "react-native-feather";
 import { FloatingActionButton, IconButton, OutlineButton, TextButton } from "../components/Buttons";
-import { Title } from "../components/Fonts";
+import { P, Title } from "../components/Fonts";
 import { SearchInput } from "../components/Inputs";
 import Spacer from "../components/Spacer";
 import { PictureRowItem, SortFilterCard } from "../components/Special";
@@ -11,6 +11,7 @@ import Colors from "../constants/colors";
 import Screens from "../constants/screens";
 import { useTheme } from "../providers/theme/ThemeContext";
 import { Record } from "../types/DBTypes";
+import { BatchProgress, reanalyseRecords } from "../utils/batchHandler";
 import { DatabaseHandler } from "../utils/dbHandler";
 
 
@@ -24,6 +25,7 @@ const HistoryScreen = () => {
     const [isSelection, setIsSelection] = useState<boolean>(false);
     const [selectedIds, setSelectedIds] = useState<Set<number>>(new Set());
     const [sortField, setSortField] = useState<number>(0);
+    const [reanalysis, setReanalysis] = useState<BatchProgress | null>(null);
     const databaseHandler = DatabaseHandler.getInstance();
     const navigation = useNavigation<any>();
     const [isSort, setIsSort] = useState<boolean>(false); // Keep for toggle logic
@@ -176,6 +178,46 @@ const HistoryScreen = () => {
         );
     }
 
+    const handleReanalyseSelectionOnPress = () => {
+        const idsToReanalyse = Array.from(selectedIds);
+        if (idsToReanalyse.length === 0) {
+            Alert.alert("No records selected to re-analyse!");
+            return;
+        }
+
+        Alert.alert(
+            "Confirm Re-analysis",
+            "Re-analysing runs inference again on \nthe stored images and overwrites \ntheir probabilities.\n\nProceed with Re-analysis?",
+            [
+                {
+                    text: "Cancel",
+                    style: "cancel"
+                },
+                {
+                    text: "Re-analyse",
+                    onPress: async () => {
+                        console.log("IDs selected for re-analysis: ", idsToReanalyse);
+                        setSelectedIds(new Set());
+                        setIsSelection(false);
+                        setReanalysis({ completed: 0, total: idsToReanalyse.length, id: "" });
+                        try {
+                            await reanalyseRecords(idsToReanalyse, progress => {
+                                if (progress.error) console.warn("Re-analysis failed for record ", progress.id, progress.error);
+                                setReanalysis(progress);
+                            });
+                        } catch (err) {
+                            console.error("Re-analysis failed: ", err);
+                            Alert.alert("Re-analysis failed!");
+                        } finally {
+                            setReanalysis(null);
+                            fetchRecordsToDisplay(); // refresh list
+                        }
+                    }
+                }
+            ]
+        );
+    }
+
     useFocusEffect(
         useCallback(() => {
             setIsLoading(true)
@@ -239,6 +281,14 @@ const HistoryScreen = () => {
             )
             }
 
+            {reanalysis && (
+                <View style={{ flexDirection: "row", justifyContent: "center", alignItems: "center", paddingVertical: 8 }}>
+                    <ActivityIndicator size="small" color={theme.text} />
+                    <Spacer width={8} />
+                    <P>Re-analysing {reanalysis.completed}/{reanalysis.total}</P>
+                </View>
+            )}
+
             {isLoading ? (
                 <View style={{ flex: 1, justifyContent: 'center', alignItems: 'center' }}>
                     <ActivityIndicator size="large" color={theme.text} />
@@ -294,8 +344,9 @@ const HistoryScreen = () => {
                     flexDirection: 'row',
                     justifyContent: 'space-between'
                 }}>
-                    <OutlineButton style={{ width: "45%" }} color={Colors.OKAY} onPress={handleCancelSelectionOnPress}>Cancel</OutlineButton>
-                    <OutlineButton style={{ width: "45%" }} color={Colors.WARN} onPress={handleDeleteSelectionOnPress}>Delete</OutlineButton>
+                    <OutlineButton style={{ width: "30%" }} color={Colors.OKAY} onPress={handleCancelSelectionOnPress}>Cancel</OutlineButton>
+                    <OutlineButton style={{ width: "30%" }} color={Colors.PRIMARY} onPress={handleReanalyseSelectionOnPress}>Re-analyse</OutlineButton>
+                    <OutlineButton style={{ width: "30%" }} color={Colors.WARN} onPress={handleDeleteSelectionOnPress}>Delete</OutlineButton>
                 </View>
             )}
         </View>
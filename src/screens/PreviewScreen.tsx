@@ -17,7 +17,7 @@ type PreviewRouteProp = RouteProp<RootStackParamList, "Preview">;
 
 const PreviewScreen = () => {
     const route = useRoute<PreviewRouteProp>();
-    const { fileUri, mode } = route.params;
+    const { fileUri, mode, contentHash } = route.params;
 
     const [name, setName] = useState("");
     const [uri, setUri] = useState(fileUri);
@@ -92,7 +92,9 @@ const PreviewScreen = () => {
                             fileUri: uri,
                             name,
                             selectedType,
-                            selectedModel
+                            selectedModel,
+                            // A re-picked image was not ingested, so the hash no longer applies
+                            contentHash: uri === fileUri ? contentHash : undefined
                         });
                     }
                 }
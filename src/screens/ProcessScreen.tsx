@@ -11,7 +11,7 @@ type ProcessRouteProp = RouteProp<RootStackParamList, "Process">
 
 const ProcessScreen = () => {
     const route = useRoute<ProcessRouteProp>();
-    const { fileUri, name, selectedType, selectedModel } = route.params;
+    const { fileUri, name, selectedType, selectedModel, contentHash } = route.params;
 
     const navigation = useNavigation<any>();
     const theme = useTheme();
@@ -20,7 +20,7 @@ const ProcessScreen = () => {
 
     useEffect(() => {
         const runProcess = async () => {
-            const processor = new ImageProcessingPipeline(fileUri, name, selectedType, selectedModel);
+            const processor = new ImageProcessingPipeline(fileUri, name, selectedType, selectedModel, contentHash);
             const steps = processor.getSteps();
 
             const total = steps.length;
@@ -6,5 +6,11 @@ export type Record = {
     selectedModel: string;
     probability: number;
     uncertainity: number;
+    // Monte-Carlo passes actually run, summed over both models in ensemble mode
+    passes?: number;
+    // Comma-separated classifiers the result came from, a cascade may stop at one in ensemble mode
+    models?: string;
+    // SHA-256 of the image file, shared by records of the same image
+    contentHash?: string;
     timestamp?: string;
 }
\ No newline at end of file
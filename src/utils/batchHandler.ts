@@ -0,0 +1,139 @@
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
+import { Record as DBRecord } from '../types/DBTypes';
+import { DatabaseHandler } from "./dbHandler";
+import { decodeFloat32 } from './fileHandler';
+import {
+    CLASSIFIER_INPUT_SIZE, detectRoi, IMAGENET_MEAN, IMAGENET_STD, preprocessRoi, RoiBox,
+    runEfficientNetInference, runEnsemble, runShuffleNetInference
+} from './modelHandler';
+
+const { CLAHEBridge } = NativeModules;
+const BATCH_PROGRESS_EVENT = "CLAHEBridgeBatchProgress";
+
+export type BatchProgress = { completed: number, total: number, id: string, error?: string };
+
+type BatchEvent = BatchProgress & { token?: string, index: number, tensor?: string };
+
+async function classify(selectedModel: string, floatData: Float32Array) {
+    const result = selectedModel === "1" ? await runEfficientNetInference(floatData)
+        : selectedModel === "2" ? await runShuffleNetInference(floatData)
+            : await runEnsemble(floatData);
+    if (!result) throw new Error("Inference failed!");
+    return result;
+}
+
+// Records per native batch; detection of the next chunk overlaps scoring of the current one
+const DETECTION_CHUNK = 16;
+// Tensors native may emit before JS has scored them, each one is ~800 KB of base64
+const BATCH_WINDOW = 2;
+
+type BatchItem = { id: string, path: string, box: RoiBox, record: DBRecord };
+
+/**
+ * Re-runs the selected model of the given stored records (all of them by default) and writes the
+ * new probability back. Records are detected chunk by chunk, the next chunk's detection running
+ * while the current one is scored. On Android each chunk's classifier preprocessing is one native
+ * batch spread across cores, native only emits a tensor once JS has acknowledged the ones before.
+ */
+export async function reanalyseRecords(recordIds?: number[], onProgress?: (progress: BatchProgress) => void) {
+    const databaseHandler = DatabaseHandler.getInstance();
+    const records = ((await databaseHandler.getAllRecords()) ?? [])
+        .filter(record => !recordIds || recordIds.includes(record.id!));
+    const total = records.length;
+    let completed = 0;
+    const report = (id: string, error?: string) => onProgress?.({ completed: ++completed, total, id, error });
+
+    const detectChunk = async (chunk: DBRecord[]) => {
+        const items: BatchItem[] = [];
+        for (const record of chunk) {
+            try {
+                const box = await detectRoi(record.fileUri, record.contentHash);
+                if (box) {
+                    items.push({ id: String(record.id), path: record.fileUri.replace("file://", ""), box, record });
+                    continue;
+                }
+                console.warn("No region of interest detected, skipping record: ", record.id);
+                report(String(record.id), "No region of interest detected");
+            } catch (err) {
+                report(String(record.id), String(err));
+            }
+        }
+        return items;
+    };
+
+    const rescore = async (record: DBRecord, floatData: Float32Array) => {
+        const { mean, stdDev, passes, logits, models } = await classify(record.selectedModel, floatData);
+        await databaseHandler.updateRecord(record.id!, {
+            probability: mean, uncertainity: stdDev, passes, models: models.join(",")
+        });
+        // A cascade run may stop at one model, older rows of the other model would then be stale
+        await databaseHandler.deletePassLogits(record.id!);
+        await databaseHandler.insertPassLogits(record.id!, logits);
+    };
+
+    const scoreChunk = Platform.OS === 'android' ? scoreBatch : scoreSerially;
+    let detection = detectChunk(records.slice(0, DETECTION_CHUNK));
+    for (let start = 0; start < total; start += DETECTION_CHUNK) {
+        const items = await detection;
+        detection = detectChunk(records.slice(start + DETECTION_CHUNK, start + 2 * DETECTION_CHUNK));
+        await scoreChunk(items, rescore, report);
+    }
+}
+
+type Rescore = (record: DBRecord, floatData: Float32Array) => Promise<void>;
+type Report = (id: string, error?: string) => void;
+
+async function scoreSerially(items: BatchItem[], rescore: Rescore, report: Report) {
+    for (const { id, path, box, record } of items) {
+        let error: string | undefined;
+        try {
+            await rescore(record, await preprocessRoi(path, box));
+        } catch (err) {
+            error = String(err);
+        }
+        report(id, error);
+    }
+}
+
+async function scoreBatch(items: BatchItem[], rescore: Rescore, report: Report) {
+    if (items.length === 0) return;
+    const token = `batch-${Date.now()}-${items[0].id}`;
+    const emitter = new NativeEventEmitter(CLAHEBridge);
+    // Inference is chained so records are scored in order, each acknowledgement lets native emit one more
+    let inference = Promise.resolve();
+    const subscription = emitter.addListener(BATCH_PROGRESS_EVENT, (event: BatchEvent) => {
+        if (event.token !== token) return;
+        const { record } = items[event.index];
+        inference = inference.then(async () => {
+            let error = event.error;
+            if (event.tensor) {
+                try {
+                    await rescore(record, decodeFloat32(event.tensor));
+                } catch (err) {
+                    error = String(err);
+                }
+            }
+            CLAHEBridge.acknowledgeBatchItem(token);
+            report(event.id, error);
+        });
+    });
+
+    try {
+        const summary = await CLAHEBridge.preprocessBatch(
+            items.map(({ id, path, box }) => ({ id, path, box })),
+            {
+                targetWidth: CLASSIFIER_INPUT_SIZE,
+                targetHeight: CLASSIFIER_INPUT_SIZE,
+                clahe: true,
+                mean: IMAGENET_MEAN,
+                std: IMAGENET_STD,
+                token,
+                window: BATCH_WINDOW
+            }
+        );
+        console.log("Batch preprocessing finished: ", summary);
+        await inference;
+    } finally {
+        subscription.remove();
+    }
+}
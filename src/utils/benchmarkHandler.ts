@@ -0,0 +1,478 @@
+import { NativeModules, Platform } from 'react-native';
+import { DatabaseHandler } from './dbHandler';
+import { readPngDataFromFile } from './fileHandler';
+import {
+    ADAPTIVE_SAMPLING, blendEnsemble, cascadeAccepts, CLASSIFIER_INPUT_SIZE, classifierModels, ClassifierModel,
+    classifierThreshold, detectRoi, IMAGENET_MEAN, IMAGENET_STD, InferenceEngine, modelThresholds, MonteCarloMode,
+    preprocessRoi, RoiBox, runAdaptivePasses, runEfficientNetInference, runMonteCarloPasses, runShuffleNetInference,
+    toProbability
+} from './modelHandler';
+
+const { CLAHEBridge, ModelStore, NativeInference } = NativeModules;
+
+export type MonteCarloBenchmark = {
+    passes: number,
+    mode: MonteCarloMode,
+    wallMs: number,
+    // Peak resident memory of the whole process during the run, Android only
+    peakRssBytes?: number
+};
+
+async function readMemory(resetPeak: boolean): Promise<{ rssBytes?: number, peakRssBytes?: number }> {
+    if (Platform.OS !== 'android') return {};
+    try {
+        return await CLAHEBridge.getMemoryStats(resetPeak);
+    } catch (err) {
+        console.warn("Memory stats unavailable:", err);
+        return {};
+    }
+}
+
+/**
+ * Times serial and batched Monte-Carlo inference for every pass count from 1 to maxPasses on the
+ * same input. Each measurement runs once as a warm-up first so session creation is not counted.
+ */
+export async function benchmarkMonteCarlo(
+    modelType: ClassifierModel,
+    floatData: Float32Array,
+    maxPasses: number = 32
+) {
+    const results: MonteCarloBenchmark[] = [];
+
+    for (let passes = 1; passes <= maxPasses; passes++) {
+        for (const mode of ["serial", "batched"] as MonteCarloMode[]) {
+            await runMonteCarloPasses(modelType, floatData, passes, mode);
+
+            await readMemory(true);
+            const tic = Date.now();
+            await runMonteCarloPasses(modelType, floatData, passes, mode);
+            const wallMs = Date.now() - tic;
+            const { peakRssBytes } = await readMemory(false);
+
+            results.push({ passes, mode, wallMs, peakRssBytes });
+        }
+    }
+
+    console.table?.(results);
+    console.log(`Monte-Carlo benchmark for ${modelType}: `, JSON.stringify(results));
+    return results;
+}
+
+export type EnsembleParallelismBenchmark = {
+    passes: number,
+    efficientNetMs: number,
+    shuffleNetMs: number,
+    // Both models started together, as runEnsembleInference does
+    concurrentMs: number,
+    // 0 when the two runs were serialised (concurrent = sum), 1 when the shorter one fully overlapped
+    overlap: number
+};
+
+/**
+ * Shows whether the runtime actually runs the two classifiers in parallel: times each model alone,
+ * then both started together, on the shared thread-budgeted sessions. Each measurement is preceded
+ * by a warm-up so session creation is not counted.
+ */
+export async function benchmarkEnsembleParallelism(floatData: Float32Array, passes: number = 10, runs: number = 5) {
+    const timeOf = async (work: () => Promise<unknown>) => {
+        await work();
+        let total = 0;
+        for (let i = 0; i < runs; i++) {
+            const tic = Date.now();
+            await work();
+            total += Date.now() - tic;
+        }
+        return total / Math.max(1, runs);
+    };
+    const efficientNet = () => runMonteCarloPasses("efficientnet.onnx", floatData, passes);
+    const shuffleNet = () => runMonteCarloPasses("shufflenet.onnx", floatData, passes);
+
+    const efficientNetMs = await timeOf(efficientNet);
+    const shuffleNetMs = await timeOf(shuffleNet);
+    const concurrentMs = await timeOf(() => Promise.all([efficientNet(), shuffleNet()]));
+    const overlap = Math.max(0, (efficientNetMs + shuffleNetMs - concurrentMs) / Math.max(1, Math.min(efficientNetMs, shuffleNetMs)));
+
+    const result: EnsembleParallelismBenchmark = { passes, efficientNetMs, shuffleNetMs, concurrentMs, overlap };
+    console.log(`Ensemble parallelism on ${Platform.OS}: `, JSON.stringify(result));
+    return result;
+}
+
+export type PreprocessingBenchmark = {
+    // Time spent natively, without the bridge round trip
+    nativeMs: number,
+    wallMs: number,
+    peakRssBytes?: number,
+    // Most native bytes the Mat pool's buffers held during the run, in use and idle together.
+    // Flat across runs once the pool is warm; poolBytesInUse above 0 afterwards is a leak
+    poolPeakBytes?: number,
+    poolBytesInUse?: number
+};
+
+/**
+ * Times the crop, letterbox and CLAHE pipeline on one image, meant for full-resolution
+ * (12 MP) captures. The first run only warms the Mat pool up and is not reported.
+ */
+export async function benchmarkPreprocessing(fileUri: string, box: RoiBox, runs: number = 5) {
+    const rawPath = fileUri.replace("file://", "");
+    const options = {
+        box,
+        targetWidth: CLASSIFIER_INPUT_SIZE,
+        targetHeight: CLASSIFIER_INPUT_SIZE,
+        clahe: true,
+        mean: IMAGENET_MEAN,
+        std: IMAGENET_STD,
+        // Every run has to preprocess, a cached tensor would only time the lookup
+        cache: false
+    };
+    await CLAHEBridge.runPreprocessingPipeline(rawPath, options);
+
+    const results: PreprocessingBenchmark[] = [];
+    for (let i = 0; i < runs; i++) {
+        await readMemory(true);
+        await CLAHEBridge.getPoolStats(true);
+        const tic = Date.now();
+        const { elapsedMs } = await CLAHEBridge.runPreprocessingPipeline(rawPath, options);
+        const wallMs = Date.now() - tic;
+        const { peakRssBytes } = await readMemory(false);
+        const { peakBytes, bytesInUse } = await CLAHEBridge.getPoolStats(false);
+        results.push({ nativeMs: elapsedMs, wallMs, peakRssBytes, poolPeakBytes: peakBytes, poolBytesInUse: bytesInUse });
+    }
+
+    console.table?.(results);
+    console.log(`Preprocessing benchmark for ${rawPath}: `, JSON.stringify(results));
+    return results;
+}
+
+export type EngineComparison = {
+    engine: InferenceEngine,
+    loadMs: number,
+    // Heap growth from loading and warming up the detector and both classifiers
+    nativeHeapBytes: number,
+    javaHeapBytes: number,
+    detectorMs: number,
+    // Agreement with the reference engine (ONNX Runtime), absent on the reference itself
+    detectorMeanIou?: number,
+    detectorMinIou?: number,
+    // latencyMs is per forward pass; passes is 1 on engines that drop dropout, see samplesDropout
+    classifiers: Record<string, {
+        latencyMs: number, passes: number, meanStdDev?: number, maxAbsDiff?: number, meanAbsDiff?: number
+    }>
+};
+
+/**
+ * Runs the detector and both classifiers on ONNX Runtime and OpenCV DNN over the stored images
+ * and compares load time, memory, latency and outputs. ONNX Runtime's mean over `passes`
+ * Monte-Carlo passes is compared with OpenCV's single deterministic pass. Probability differences
+ * are in percentage points, Android only.
+ */
+export async function compareInferenceEngines(limit: number = 20, passes: number = 10) {
+    if (Platform.OS !== 'android') return;
+    const records = (await DatabaseHandler.getInstance().getAllRecords()) ?? [];
+    const paths = records.slice(0, limit).map(record => record.fileUri.replace("file://", ""));
+
+    const result: { images: number, classified: number, passes: number, reference: InferenceEngine, engines: EngineComparison[] } =
+        await NativeInference.compareEngines(paths, {
+            models: classifierModels["3"],
+            passes,
+            targetWidth: CLASSIFIER_INPUT_SIZE,
+            targetHeight: CLASSIFIER_INPUT_SIZE,
+            clahe: true,
+            mean: IMAGENET_MEAN,
+            std: IMAGENET_STD
+        });
+
+    console.log(`Inference engines compared on ${result.images} images, ${result.classified} classified: `,
+        JSON.stringify(result.engines));
+    return result;
+}
+
+export type AdaptiveSamplingComparison = {
+    id: number,
+    model: ClassifierModel,
+    fixedPasses: number,
+    adaptivePasses: number,
+    fixedMean: number,
+    adaptiveMean: number,
+    // Population standard deviation in percentage points, the figure stored as uncertainity
+    fixedStdDev: number,
+    adaptiveStdDev: number,
+    agrees: boolean
+};
+
+const summarise = (logits: number[]) => {
+    const probabilities = logits.map(toProbability);
+    const mean = probabilities.reduce((sum, val) => sum + val, 0) / probabilities.length;
+    const variance = probabilities.reduce((sum, val) => sum + Math.pow(val - mean, 2), 0) / probabilities.length;
+    return { mean, stdDev: Math.sqrt(variance) };
+};
+
+/**
+ * Runs both classifiers with the fixed pass count and with adaptive sampling on the stored
+ * images and reports passes, uncertainity and whether the classifications agree.
+ */
+export async function compareAdaptiveSampling(limit: number = 20, mode: MonteCarloMode = "batched") {
+    if (!ADAPTIVE_SAMPLING) return;
+    const records = ((await DatabaseHandler.getInstance().getAllRecords()) ?? []).slice(0, limit);
+    const results: AdaptiveSamplingComparison[] = [];
+
+    for (const record of records) {
+        const box = await detectRoi(record.fileUri, record.contentHash);
+        if (!box) continue;
+        const floatData = await preprocessRoi(record.fileUri.replace("file://", ""), box);
+
+        for (const model of classifierModels["3"]) {
+            const threshold = classifierThreshold(model) * 100;
+            const fixed = await runMonteCarloPasses(model, floatData, ADAPTIVE_SAMPLING.maxPasses, mode);
+            const adaptive = await runAdaptivePasses(model, floatData, ADAPTIVE_SAMPLING, undefined, mode);
+            const fixedSummary = summarise(fixed);
+            const adaptiveSummary = summarise(adaptive);
+            results.push({
+                id: record.id!,
+                model,
+                fixedPasses: fixed.length,
+                adaptivePasses: adaptive.length,
+                fixedMean: fixedSummary.mean,
+                adaptiveMean: adaptiveSummary.mean,
+                fixedStdDev: fixedSummary.stdDev,
+                adaptiveStdDev: adaptiveSummary.stdDev,
+                agrees: (fixedSummary.mean >= threshold) === (adaptiveSummary.mean >= threshold)
+            });
+        }
+    }
+
+    const agreement = results.filter(result => result.agrees).length / Math.max(1, results.length);
+    const meanPasses = results.reduce((sum, result) => sum + result.adaptivePasses, 0) / Math.max(1, results.length);
+    console.table?.(results);
+    console.log(`Adaptive sampling on ${results.length} classifications: agreement ${(agreement * 100).toFixed(1)}%, `
+        + `${meanPasses.toFixed(2)} passes on average`);
+    return { agreement, meanPasses, results };
+}
+
+export type CascadeAgreement = {
+    id: number,
+    // Whether ShuffleNet alone would have decided, and the classification the cascade would store
+    accepted: boolean,
+    cascadePositive: boolean,
+    ensemblePositive: boolean
+};
+
+/**
+ * Runs both classifiers on the stored images and checks, per image, whether the cascade would
+ * have stored the same classification as the full ensemble. This is the evidence needed before
+ * ENSEMBLE_STRATEGY can default to "cascade".
+ */
+export async function compareCascadeAgreement(limit: number = 50) {
+    const records = ((await DatabaseHandler.getInstance().getAllRecords()) ?? []).slice(0, limit);
+    const results: CascadeAgreement[] = [];
+
+    for (const record of records) {
+        const box = await detectRoi(record.fileUri, record.contentHash);
+        if (!box) continue;
+        const floatData = await preprocessRoi(record.fileUri.replace("file://", ""), box);
+        const model1 = await runEfficientNetInference(floatData);
+        const model2 = await runShuffleNetInference(floatData);
+        if (!model1 || !model2) continue;
+
+        const ensemblePositive = blendEnsemble(model1, model2).mean / 100 >= modelThresholds.both;
+        const accepted = cascadeAccepts(model2);
+        const cascadePositive = accepted
+            ? model2.mean / 100 >= classifierThreshold("shufflenet.onnx")
+            : ensemblePositive;
+        results.push({ id: record.id!, accepted, cascadePositive, ensemblePositive });
+    }
+
+    const agreement = results.filter(result => result.cascadePositive === result.ensemblePositive).length
+        / Math.max(1, results.length);
+    const acceptance = results.filter(result => result.accepted).length / Math.max(1, results.length);
+    const disagreements = results.filter(result => result.cascadePositive !== result.ensemblePositive).map(result => result.id);
+    console.log(`Cascade on ${results.length} images: agreement ${(agreement * 100).toFixed(1)}%, ShuffleNet alone `
+        + `decided ${(acceptance * 100).toFixed(1)}%, disagreeing records ${JSON.stringify(disagreements)}`);
+    return { agreement, acceptance, disagreements, results };
+}
+
+type DecodePathImage = { path: string, box?: number[], probabilities?: Partial<Record<ClassifierModel, number>> };
+
+type DecodePathRun = {
+    fullDecode: boolean,
+    images: DecodePathImage[],
+    detectorPreprocessMs: number,
+    classifierPreprocessMs: number,
+    maxDecodedBytes: number,
+    javaHeapDeltaBytes: number,
+    nativeHeapDeltaBytes: number,
+    peakRssBytes?: number
+};
+
+const boxIou = (a?: number[], b?: number[]) => {
+    // Both paths finding nothing counts as full agreement
+    if (!a || !b) return a === b ? 1 : 0;
+    const width = Math.min(a[2], b[2]) - Math.max(a[0], b[0]);
+    const height = Math.min(a[3], b[3]) - Math.max(a[1], b[1]);
+    if (width <= 0 || height <= 0) return 0;
+    const intersection = width * height;
+    const union = (a[2] - a[0]) * (a[3] - a[1]) + (b[2] - b[0]) * (b[3] - b[1]) - intersection;
+    return union > 0 ? intersection / union : 0;
+};
+
+/**
+ * Compares the planned reduced decode with the full-resolution decode and crop it replaced, on
+ * the stored images: detector boxes (IoU), classifier probabilities on the same crop, flipped
+ * classifications, preprocessing time and memory. Probabilities are means over `passes`
+ * Monte-Carlo passes so dropout noise does not swamp the resampling difference. Android only.
+ */
+export async function compareDecodePaths(limit: number = 20, passes: number = 10) {
+    if (Platform.OS !== 'android') return;
+    const records = (await DatabaseHandler.getInstance().getAllRecords()) ?? [];
+    const paths = records.slice(0, limit).map(record => record.fileUri.replace("file://", ""));
+    const options = {
+        models: classifierModels["3"],
+        passes,
+        targetWidth: CLASSIFIER_INPUT_SIZE,
+        targetHeight: CLASSIFIER_INPUT_SIZE,
+        clahe: true,
+        mean: IMAGENET_MEAN,
+        std: IMAGENET_STD
+    };
+    const runPath = async (fullDecode: boolean, boxes?: (number[] | null)[]) => {
+        await readMemory(true);
+        const run: DecodePathRun = await NativeInference.compareDecodePath(paths, { ...options, fullDecode, boxes });
+        run.peakRssBytes = (await readMemory(false)).peakRssBytes;
+        return run;
+    };
+
+    const full = await runPath(true);
+    const planned = await runPath(false, full.images.map(image => image.box ?? null));
+
+    const ious = full.images.map((image, i) => boxIou(image.box, planned.images[i].box));
+    const classifiers: Record<string, { meanAbsDiff: number, maxAbsDiff: number, flips: number }> = {};
+    for (const model of classifierModels["3"]) {
+        const threshold = classifierThreshold(model) * 100;
+        const pairs = full.images
+            .map((image, i) => [image.probabilities?.[model], planned.images[i].probabilities?.[model]])
+            .filter((pair): pair is [number, number] => pair[0] !== undefined && pair[1] !== undefined);
+        const diffs = pairs.map(([before, after]) => Math.abs(before - after));
+        classifiers[model] = {
+            meanAbsDiff: diffs.reduce((sum, diff) => sum + diff, 0) / Math.max(1, diffs.length),
+            maxAbsDiff: Math.max(0, ...diffs),
+            flips: pairs.filter(([before, after]) => (before >= threshold) !== (after >= threshold)).length
+        };
+    }
+
+    const result = {
+        images: paths.length,
+        detectorMeanIou: ious.reduce((sum, iou) => sum + iou, 0) / Math.max(1, ious.length),
+        detectorMinIou: Math.min(1, ...ious),
+        classifiers,
+        full: { ...full, images: undefined },
+        planned: { ...planned, images: undefined }
+    };
+    console.log("Decode paths compared: ", JSON.stringify(result));
+    return result;
+}
+
+export type QualityDecodeBenchmark = {
+    // "bitmap" is the old Bitmap -> RGBA -> gray path, "gray/N" decodes to gray at 1/N
+    path: string,
+    width: number,
+    decodeMs: number,
+    scoreMs: number,
+    blurVariance: number,
+    blockiness: number
+};
+
+/** Compares decode and scoring time of the quality check across decode paths, Android only. */
+export async function benchmarkQualityDecode(fileUri: string, runs: number = 5) {
+    if (Platform.OS !== 'android') return;
+    const results: QualityDecodeBenchmark[] = await CLAHEBridge.benchmarkQualityDecode(
+        fileUri.replace("file://", ""), runs
+    );
+    console.table?.(results);
+    console.log(`Quality decode benchmark for ${fileUri}: `, JSON.stringify(results));
+    return results;
+}
+
+export type PreprocessCacheStats = {
+    memoryHits: number,
+    diskHits: number,
+    misses: number,
+    // Dropped from memory but still on disk, and dropped from disk altogether
+    memoryEvictions: number,
+    diskEvictions: number,
+    memoryBytes: number,
+    diskBytes: number,
+    memoryEntries: number,
+    diskEntries: number
+};
+
+/** Hit and miss counters of the native detection and tensor cache, Android only. */
+export async function getPreprocessCacheStats() {
+    if (Platform.OS !== 'android') return;
+    const stats: PreprocessCacheStats = await NativeInference.getCacheStats();
+    console.log("Preprocess cache: ", JSON.stringify(stats));
+    return stats;
+}
+
+export type PixelTransferBenchmark = {
+    // "repack" is the old int[] and per-pixel path, "bulk" the copyPixelsToBuffer one
+    path: string,
+    width: number,
+    height: number,
+    decodeMs: number,
+    encodeMs: number,
+    // Java heap allocated per frame as counted by ART, -1 where the runtime does not report it
+    allocatedBytes: number,
+    // What the pixel copies and the base64 string alone come to, computed from their sizes
+    estimatedBytes: number,
+    base64Length: number
+};
+
+/**
+ * Compares the native side of readPNGFromFile on the old and new copy paths, and times the
+ * full round trip the app uses, bridge transfer and base64 decoding in JS included. Android only.
+ */
+export async function benchmarkPixelTransfer(fileUri: string, runs: number = 5) {
+    if (Platform.OS !== 'android') return;
+    const rawPath = fileUri.replace("file://", "");
+    const native: PixelTransferBenchmark[] = await CLAHEBridge.benchmarkPixelTransfer(rawPath, runs);
+
+    await readPngDataFromFile(rawPath);
+    let roundTripMs = 0;
+    for (let i = 0; i < runs; i++) {
+        const tic = Date.now();
+        await readPngDataFromFile(rawPath);
+        roundTripMs += Date.now() - tic;
+    }
+
+    const result = { native, roundTripMs: roundTripMs / Math.max(1, runs) };
+    console.table?.(native);
+    console.log(`Pixel transfer benchmark for ${rawPath}: `, JSON.stringify(result));
+    return result;
+}
+
+export type ModelLoadBenchmark = {
+    asset: string,
+    // Session straight from the mapped APK asset with full optimisation, as native inference does
+    mappedMs: number,
+    // Store lookup plus session from the optimised copy, as the JS runtime does after the first launch
+    storedMs: number,
+    // First store lookup of the run, hashing and optimising included when firstStoredCached is false
+    firstStoredMs: number,
+    firstStoredCached: boolean,
+    hashMs: number,
+    optimizeMs: number,
+    modelBytes: number,
+    // Disk the optimised copy costs
+    optimizedBytes: number
+};
+
+/** Measures the trade-off of keeping optimised model copies on disk, per bundled model. Android only. */
+export async function benchmarkModelLoad(runs: number = 3) {
+    if (Platform.OS !== 'android') return;
+    const results: ModelLoadBenchmark[] = [];
+    for (const model of ["yolo.onnx", "efficientnet.onnx", "shufflenet.onnx"]) {
+        results.push(await ModelStore.benchmarkAssetLoad(model, runs));
+    }
+    console.table?.(results);
+    console.log("Model load benchmark: ", JSON.stringify(results));
+    return results;
+}
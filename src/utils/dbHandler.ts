@@ -1,8 +1,13 @@
+import { NativeModules, Platform } from 'react-native';
 import SQLite from 'react-native-sqlite-storage';
 import { Record } from '../types/DBTypes';
 
 SQLite.enablePromise(true);
 
+const { NativeInference } = NativeModules;
+// How long either connection waits for the other's lock, matches PassLogStore.java
+const BUSY_TIMEOUT_MS = 5000;
+
 export class DatabaseHandler {
     private static instance: DatabaseHandler;
     private db: SQLite.SQLiteDatabase | null = null;
@@ -28,6 +33,10 @@ export class DatabaseHandler {
     private async init(): Promise<void> {
         try {
             this.db = await SQLite.openDatabase({ name: 'DeepTest.db', location: 'default' });
+            // Native code writes PassLogits over its own connection, so wait on its locks
+            // rather than failing with SQLITE_BUSY, and let readers run alongside its writes
+            await this.db.executeSql(`PRAGMA journal_mode = WAL`);
+            await this.db.executeSql(`PRAGMA busy_timeout = ${BUSY_TIMEOUT_MS}`);
             await this.createTable();
             this.isInitialised = true;
         } catch (error) {
@@ -49,6 +58,33 @@ export class DatabaseHandler {
         timestamp TEXT
       );`;
         await this.db.executeSql(query);
+        // Per-pass logits as float32 BLOBs, written and read natively, see insertPassLogits
+        await this.db.executeSql(`
+      CREATE TABLE IF NOT EXISTS PassLogits (
+        recordId INTEGER NOT NULL,
+        model TEXT NOT NULL,
+        passes INTEGER,
+        logits BLOB,
+        PRIMARY KEY (recordId, model)
+      );`);
+        await this.migrate();
+    }
+
+    // Columns added after the first release, existing installs get them on open
+    private async migrate(): Promise<void> {
+        await this.addColumnIfMissing("passes", "INTEGER");
+        await this.addColumnIfMissing("contentHash", "TEXT");
+        await this.addColumnIfMissing("models", "TEXT");
+    }
+
+    private async addColumnIfMissing(column: string, type: string): Promise<void> {
+        if (!this.db) return;
+        const [info] = await this.db.executeSql(`PRAGMA table_info(PipelineResults)`);
+        for (let i = 0; i < info.rows.length; i++) {
+            if (info.rows.item(i).name === column) return;
+        }
+        await this.db.executeSql(`ALTER TABLE PipelineResults ADD COLUMN ${column} ${type}`);
+        console.log(`Added column ${column} to PipelineResults.`);
     }
 
     async insertRecord(record: Record): Promise<number | null> {
@@ -65,8 +101,8 @@ export class DatabaseHandler {
             `(${timezone})`;
         const query = `
       INSERT INTO PipelineResults 
-      (fileUri, name, selectedType, selectedModel, probability, uncertainity, timestamp)
-      VALUES (?, ?, ?, ?, ?, ?, ?)`;
+      (fileUri, name, selectedType, selectedModel, probability, uncertainity, passes, contentHash, models, timestamp)
+      VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)`;
         const params = [
             record.fileUri,
             record.name,
@@ -74,6 +110,9 @@ export class DatabaseHandler {
             record.selectedModel,
             record.probability,
             record.uncertainity,
+            record.passes ?? null,
+            record.contentHash ?? null,
+            record.models ?? null,
             timestamp
         ];
 
@@ -86,6 +125,26 @@ export class DatabaseHandler {
         }
     }
 
+    /**
+     * Stores the per-pass logits of a record. The bridge of this SQLite library has no BLOB
+     * support, so the rows are written natively into the same database. Android only.
+     */
+    async insertPassLogits(recordId: number, logits?: { [model: string]: number[] | undefined }): Promise<void> {
+        if (Platform.OS !== 'android' || !logits) return;
+        try {
+            await NativeInference.storePassLogits(recordId, logits);
+        } catch (error) {
+            console.error("Failed to store pass logits:", error);
+        }
+    }
+
+    async deletePassLogits(recordId: number): Promise<void> {
+        await this.ensureInitialised();
+
+        if (!this.db) return;
+        await this.db.executeSql(`DELETE FROM PassLogits WHERE recordId = ?`, [recordId]);
+    }
+
     async getRecordById(id: number): Promise<Record | null> {
         await this.ensureInitialised();
 
@@ -104,6 +163,9 @@ export class DatabaseHandler {
                     selectedModel: item.selectedModel,
                     probability: item.probability,
                     uncertainity: item.uncertainity,
+                    passes: item.passes ?? undefined,
+                    contentHash: item.contentHash ?? undefined,
+                    models: item.models ?? undefined,
                     timestamp: item.timestamp
                 };
             } else {
@@ -135,6 +197,9 @@ export class DatabaseHandler {
                     selectedModel: item.selectedModel,
                     probability: item.probability,
                     uncertainity: item.uncertainity,
+                    passes: item.passes ?? undefined,
+                    contentHash: item.contentHash ?? undefined,
+                    models: item.models ?? undefined,
                     timestamp: item.timestamp
                 });
             }
@@ -145,6 +210,20 @@ export class DatabaseHandler {
         }
     }
 
+    async countRecordsByContentHash(contentHash: string): Promise<number> {
+        await this.ensureInitialised();
+
+        if (!this.db) return 0;
+        const query = `SELECT COUNT(*) AS count FROM PipelineResults WHERE contentHash = ?`;
+        try {
+            const [results] = await this.db.executeSql(query, [contentHash]);
+            return results.rows.item(0).count ?? 0;
+        } catch (error) {
+            console.error("Failed to count records by hash:", error);
+            return 0;
+        }
+    }
+
     async updateRecord(id: number, updatedFields: Partial<Record>): Promise<void> {
         await this.ensureInitialised();
 
@@ -166,5 +245,6 @@ export class DatabaseHandler {
         if (!this.db) return;
         const query = `DELETE FROM PipelineResults WHERE id = ?`;
         await this.db.executeSql(query, [id]);
+        await this.deletePassLogits(id);
     }
 }
\ No newline at end of file
@@ -1,5 +1,5 @@
 import { Buffer } from "buffer";
-import { NativeModules } from "react-native";
+import { NativeModules, Platform } from "react-native";
 import RNFS from "react-native-fs";
 
 const { CLAHEBridge } = NativeModules;
@@ -29,4 +29,74 @@ export const readPngDataFromFile = async (filepath: string) => {
         console.error("Failed to read PNG file:", err);
         throw err;
     }
-}
\ No newline at end of file
+}
+
+export type IngestedImage = {
+    fileUri: string,
+    // SHA-256 of the file, the same image ingested twice gets the same hash (Android only)
+    contentHash?: string,
+    // Stored size and MIME type read from the header while copying (Android only)
+    width?: number,
+    height?: number,
+    mimeType?: string,
+    // EXIF orientation tag, 1 when upright
+    orientation?: number,
+    duplicate?: boolean
+};
+
+/**
+ * Copies a captured or picked image into app storage. On Android the copy, the content hash and
+ * the header read happen natively in one pass; elsewhere the file is only copied.
+ */
+export const ingestImage = async (sourcePath: string): Promise<IngestedImage> => {
+    if (Platform.OS === 'android') {
+        const { elapsedMs, ...ingested } = await CLAHEBridge.ingestImage(sourcePath);
+        console.log(`Ingested image in ${elapsedMs} ms: `, ingested);
+        return ingested;
+    }
+
+    const fileName = sourcePath.split('/').pop();
+    const destPath = `${RNFS.DocumentDirectoryPath}/${fileName}`;
+    await RNFS.copyFile(sourcePath, destPath);
+    return { fileUri: `file://${destPath}` };
+}
+
+export const decodeFloat32 = (base64: string) => {
+    // Copy into a fresh buffer so the Float32Array view is always 4-byte aligned
+    const bytes = Buffer.from(base64, 'base64');
+    const data = new Float32Array(bytes.length / 4);
+    new Uint8Array(data.buffer).set(bytes);
+    return data;
+}
+
+export const readTensorFromFile = async (
+    filepath: string,
+    targetWidth: number,
+    targetHeight: number,
+    options: { mean?: number[], std?: number[], letterbox?: boolean, layout?: "CHW" | "HWC" } = {}
+) => {
+    try {
+        console.log(`Preparing tensor from: ${filepath}`)
+        const rawFile = filepath.replace("file://", "");
+        const { tensor, ...info } = await CLAHEBridge.prepareTensor(
+            rawFile,
+            targetWidth,
+            targetHeight,
+            options.layout ?? "CHW",
+            options.mean ?? null,
+            options.std ?? null,
+            options.letterbox ?? false
+        );
+        if (!tensor) {
+            throw new Error("tensor is undefined in native response");
+        }
+        const data = decodeFloat32(tensor);
+        return { ...info, data } as {
+            width: number, height: number, sourceWidth: number, sourceHeight: number,
+            offsetX: number, offsetY: number, scale: number, data: Float32Array
+        };
+    } catch (err) {
+        console.error("Failed to prepare tensor:", err);
+        throw err;
+    }
+}
@@ -0,0 +1,46 @@
+import AsyncStorage from '@react-native-async-storage/async-storage';
+
+const CALIBRATION_KEY = 'frameQualityCalibration';
+// Captures needed before the preview threshold is trusted, and how many recent ones are kept
+const MIN_SAMPLES = 5;
+const MAX_SAMPLES = 20;
+
+// Sharpness of the last preview frame before a capture, and the capture's full-resolution score
+type CalibrationSample = { previewSharpness: number, captureVariance: number };
+
+const loadSamples = async (): Promise<CalibrationSample[]> => {
+    const value = await AsyncStorage.getItem(CALIBRATION_KEY);
+    return value ? JSON.parse(value) : [];
+};
+
+/**
+ * Laplacian variance depends on the scale an image is scored at, so the full-resolution blur
+ * threshold does not apply to downscaled preview frames. The preview threshold is the capture
+ * threshold times the median preview/capture ratio seen on this device. Undefined until enough
+ * captures have been made, preview sharpness is not judged until then.
+ */
+const previewThreshold = (samples: CalibrationSample[], captureThreshold: number): number | undefined => {
+    if (samples.length < MIN_SAMPLES) return undefined;
+    const ratios = samples.map(s => s.previewSharpness / s.captureVariance).sort((a, b) => a - b);
+    const middle = Math.floor(ratios.length / 2);
+    const median = ratios.length % 2 ? ratios[middle] : (ratios[middle - 1] + ratios[middle]) / 2;
+    return captureThreshold * median;
+};
+
+export const loadPreviewBlurThreshold: (captureThreshold: number) => Promise<number | undefined> = async (captureThreshold) => {
+    return previewThreshold(await loadSamples(), captureThreshold);
+};
+
+/** Adds a capture to the calibration and returns the updated preview threshold. */
+export const recordCalibrationSample: (
+    previewSharpness: number,
+    captureVariance: number,
+    captureThreshold: number
+) => Promise<number | undefined> = async (previewSharpness, captureVariance, captureThreshold) => {
+    const samples = await loadSamples();
+    if (previewSharpness > 0 && captureVariance > 0) {
+        samples.push({ previewSharpness, captureVariance });
+        await AsyncStorage.setItem(CALIBRATION_KEY, JSON.stringify(samples.slice(-MAX_SAMPLES)));
+    }
+    return previewThreshold(samples.slice(-MAX_SAMPLES), captureThreshold);
+};
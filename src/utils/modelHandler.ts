@@ -1,268 +1,632 @@
-import ImageResizer from '@bam.tech/react-native-image-resizer';
-import ImageEditor from '@react-native-community/image-editor';
-
 import * as ort from "onnxruntime-react-native";
-import { Image, NativeModules, Platform } from 'react-native';
-import RNFS from 'react-native-fs';
+import { NativeModules, Platform } from 'react-native';
 import { Record as DBRecord } from '../types/DBTypes';
-import { deleteFileIfExist, readPngDataFromFile } from './fileHandler';
+import { decodeFloat32, readTensorFromFile } from './fileHandler';
+import { ensembleThreadBudgets, getSession, runSession, warmUpSessions } from './sessionHandler';
 
-const { CLAHEBridge } = NativeModules;
+const { CLAHEBridge, NativeInference } = NativeModules;
 const NUM_OF_PASSES = 10;
+// "batched" runs every Monte-Carlo pass in one [N, 3, H, W] run, "serial" runs them one by one
+const MONTE_CARLO_MODE: MonteCarloMode = "batched";
+// Sequential sampling: stop once the standard error of the mean probability (in percentage
+// points) is below the tolerance and the mean is at least `margin` standard errors away from the
+// threshold the result is classified against, for the ensemble its blend against "both". Never
+// runs more than NUM_OF_PASSES per model, in batched mode that is at most two runs each. Set to null for fixed passes, compareAdaptiveSampling checks it against them.
+export const ADAPTIVE_SAMPLING: SamplingOptions | null = {
+    minPasses: 5, maxPasses: NUM_OF_PASSES, step: 5, tolerance: 0.5, margin: 3
+};
+export const CLASSIFIER_INPUT_SIZE = 224;
+// ImageNet normalization parameters
+export const IMAGENET_MEAN = [0.485, 0.456, 0.406];
+export const IMAGENET_STD = [0.229, 0.224, 0.225];
+// Write the crop, letterbox and CLAHE intermediates to disk for inspection
+const DEBUG_PREPROCESSING = false;
+// On Android, preprocess and classify in native code so the tensor never crosses the bridge.
+// The native path samples like the JS one: ADAPTIVE_SAMPLING, ENSEMBLE_STRATEGY and the same
+// thresholds, with the two ensemble models run one after the other.
+const USE_NATIVE_INFERENCE = true;
+export const NATIVE_INFERENCE = USE_NATIVE_INFERENCE && Platform.OS === 'android';
+// Engine the native path runs the classifiers on, see compareInferenceEngines for how they differ.
+// "opencv" drops dropout, so it rejects Monte-Carlo analyses of more than one pass
+export type InferenceEngine = "ort" | "opencv";
+const NATIVE_ENGINE: InferenceEngine = "ort";
 
 const sigmoid = (x: number) => 1 / (1 + Math.exp(-x));
-
-async function getModelPath(modelType: "yolo.onnx" | "efficientnet.onnx" | "shufflenet.onnx") {
-    // Determine the correct path for the model based on the platform
-    let modelPath: string;
-
-    if (Platform.OS === 'android') {
-        // Copy the model file from Android assets to the document directory if not already present
-        const destPath = `${RNFS.DocumentDirectoryPath}/${modelType}`;
-        const fileExists = await RNFS.exists(destPath);
-        if (!fileExists) {
-            // modelType should match the filename in android/app/src/main/assets
-            await RNFS.copyFileAssets(modelType, destPath);
+/** Probability of a classifier logit, in percent. */
+export const toProbability = (logit: number) => sigmoid(logit) * 100;
+
+export type RoiBox = { x1: number, y1: number, x2: number, y2: number };
+export type Detection = RoiBox & { score: number, classId: number };
+
+// Confidence and overlap thresholds applied to the detector output, natively or in decodeDetections
+const DETECTION_OPTIONS = { scoreThreshold: 0.25, nmsThreshold: 0.45, maxDetections: 10 };
+
+const intersectionOverUnion = (a: RoiBox, b: RoiBox) => {
+    const width = Math.min(a.x2, b.x2) - Math.max(a.x1, b.x1);
+    const height = Math.min(a.y2, b.y2) - Math.max(a.y1, b.y1);
+    if (width <= 0 || height <= 0) return 0;
+    const area = (box: RoiBox) => Math.max(0, box.x2 - box.x1) * Math.max(0, box.y2 - box.y1);
+    const intersection = width * height;
+    const union = area(a) + area(b) - intersection;
+    return union > 0 ? intersection / union : 0;
+};
+
+/**
+ * JS counterpart of YoloDecoder.decode: keeps rows of [x1, y1, x2, y2, score, classId] scoring at
+ * least scoreThreshold, suppresses overlaps above nmsThreshold (IoU) and maps the survivors back
+ * to source pixels by dividing by the resize scale. Best first, at most maxDetections boxes;
+ * boxes that end up empty after clamping to the source image are dropped.
+ */
+export function decodeDetections(
+    output: Float32Array,
+    scale: number,
+    sourceWidth: number,
+    sourceHeight: number,
+    options = DETECTION_OPTIONS
+): Detection[] {
+    const candidates: Detection[] = [];
+    for (let base = 0; base + 6 <= output.length; base += 6) {
+        const score = output[base + 4];
+        if (score >= options.scoreThreshold) {
+            candidates.push({
+                x1: output[base], y1: output[base + 1], x2: output[base + 2], y2: output[base + 3],
+                score, classId: output[base + 5]
+            });
         }
-        modelPath = destPath;
-    } else {
-        // iOS: models are bundled in the main bundle directory
-        modelPath = `${RNFS.MainBundlePath}/${modelType}`;
     }
-
-    let fileExists = await RNFS.exists(modelPath)
-
-    if (!fileExists) {
-        console.error("Model does not exist at: ", modelPath);
-    } else {
-        console.log("Model is present at: ", modelPath);
+    // Array.prototype.sort is stable, equal scores keep the detector's order
+    candidates.sort((a, b) => b.score - a.score);
+
+    const kept: Detection[] = [];
+    for (const candidate of candidates) {
+        if (kept.length >= options.maxDetections) break;
+        if (kept.every(box => intersectionOverUnion(box, candidate) <= options.nmsThreshold)) {
+            kept.push(candidate);
+        }
     }
 
-    return modelPath;
+    const clamp = (value: number, limit: number) => Math.max(0, Math.min(limit, value / scale));
+    return kept
+        .map(box => ({
+            ...box,
+            x1: clamp(box.x1, sourceWidth), y1: clamp(box.y1, sourceHeight),
+            x2: clamp(box.x2, sourceWidth), y2: clamp(box.y2, sourceHeight)
+        }))
+        .filter(box => box.x2 > box.x1 && box.y2 > box.y1);
 }
 
-export async function cropAndMapBack(fileUri: string) {
-    let croppedUri;
+/**
+ * Runs the detector natively and returns every box left after confidence filtering and NMS,
+ * best first, in source-image pixels. The raw output tensor never reaches JS. Android only.
+ * Results are cached natively by content hash, computed there when the caller has none.
+ */
+export async function detectRois(fileUri: string, contentHash?: string): Promise<Detection[]> {
+    const { boxes, cached, elapsedMs } = await NativeInference.detect(fileUri.replace("file://", ""), {
+        engine: NATIVE_ENGINE,
+        contentHash,
+        ...DETECTION_OPTIONS
+    });
+    console.log(`Native detection found ${boxes.length} boxes in ${elapsedMs} ms${cached ? " (cached)" : ""}`);
+    return boxes;
+}
 
+export async function detectRoi(fileUri: string, contentHash?: string): Promise<RoiBox | undefined> {
     try {
-        console.log("cropAndMapBack method called for: ", fileUri);
-
-        // Get original image dimensions (before resize)
-        const uriForSize = (Platform.OS === "android") ? fileUri : fileUri.replace('file://', '');
-        console.log("Getting the image size using: ", uriForSize);
-        const { width: originalWidth, height: originalHeight } = await new Promise<{ width: number; height: number }>((resolve, reject) => {
-            Image.getSize(uriForSize, (w, h) => resolve({ width: w, height: h }), reject);
-        });
-        console.log(`Original dimensions: ${originalWidth}x${originalHeight}`);
-
-        // Get the model path
-        const roiModelPath = await getModelPath("yolo.onnx");
-
-        // Create the session
-        console.log("Creating session from: ", roiModelPath);
+        console.log("detectRoi method called for: ", fileUri);
 
-        const session = await ort.InferenceSession.create(roiModelPath);
-
-        console.log("Session created successfully!");
-
-        // Resize the image to 640x640 as PNG to prevent loss of data
-        const resizedImage = await ImageResizer.createResizedImage(
-            fileUri,
-            640,
-            640,
-            'PNG',
-            100
-        );
-        const resizedPath = resizedImage.path;
-
-        // // Load the resized image as base64
-        // const imageBase64 = await RNFS.readFile(resizedPath, 'base64');
-        // // Convert to raw buffer
-        // const imageBuffer = Buffer.from(imageBase64, 'base64');
-        // Decode PNG to RGBA pixel data
-        const decodedPng = await readPngDataFromFile(resizedPath);
-        const { width, height, data } = decodedPng;
+        if (NATIVE_INFERENCE) {
+            const [best] = await detectRois(fileUri, contentHash);
+            if (!best) {
+                console.warn("No detection above the confidence threshold for: ", fileUri);
+                return undefined;
+            }
+            return { x1: best.x1, y1: best.y1, x2: best.x2, y2: best.y2 };
+        }
 
-        console.log(`Dimensions: ${width}x${height}`);
+        // Sessions are created once and reused across analyses
+        const session = await getSession("yolo.onnx");
 
-        // Prepare a zero-padded Float32Array in [1, 3, 640, 640] (CHW) format
+        // Resize the image to fit 640x640 and build the zero-padded [1, 3, 640, 640] (CHW)
+        // tensor natively, with the resized image copied into the top-left corner
         const targetWidth = 640;
         const targetHeight = 640;
-        const floatData = new Float32Array(1 * 3 * targetHeight * targetWidth); // zero-initialized
-
-        // Copy resized image data into top-left of tensor
-        for (let y = 0; y < height; y++) {
-            for (let x = 0; x < width; x++) {
-                const pixelIndex = (y * width + x);
-                const r = data[pixelIndex * 4] / 255.0;
-                const g = data[pixelIndex * 4 + 1] / 255.0;
-                const b = data[pixelIndex * 4 + 2] / 255.0;
-
-                const chwIndex = y * targetWidth + x;
-                floatData[chwIndex] = r;                           // R
-                floatData[chwIndex + targetWidth * targetHeight] = g; // G
-                floatData[chwIndex + 2 * targetWidth * targetHeight] = b; // B
-            }
-        }
+        const {
+            width, height, sourceWidth: originalWidth, sourceHeight: originalHeight, scale, data: floatData
+        } = await readTensorFromFile(fileUri, targetWidth, targetHeight);
+
+        console.log(`Original dimensions: ${originalWidth}x${originalHeight}, resized: ${width}x${height}`);
+
         const inputTensor = new ort.Tensor('float32', floatData, [1, 3, targetHeight, targetWidth]);
 
         // Run inference on the YOLO model
         const feeds: Record<string, ort.Tensor> = { [session.inputNames[0]]: inputTensor };
 
-        const outputMap = await session.run(feeds);
+        const outputMap = await runSession("yolo.onnx", feeds);
         console.log("RoI Inference run. ", outputMap);
 
-        // === Post‑process: pick highest‑confidence box and map back to original ===
-        const detections = outputMap.output0.data as Float32Array;
-        // Each detection is 6 floats [x1,y1,x2,y2,score,classId]
-        let bestIdx = 0;
-        let bestScore = -Infinity;
-        const numDetections = detections.length / 6;
-        for (let i = 0; i < numDetections; i++) {
-            const score = detections[i * 6 + 4];
-            if (score > bestScore) {
-                bestScore = score;
-                bestIdx = i;
-            }
+        // Confidence filtering and NMS as on the native path, then the best box mapped back to
+        // original image coords; the native resize scale is resized / original
+        const [best] = decodeDetections(outputMap.output0.data as Float32Array, scale, originalWidth, originalHeight);
+        if (!best) {
+            console.warn("No detection above the confidence threshold for: ", fileUri);
+            return undefined;
         }
-        const base = bestIdx * 6;
-        const x1 = detections[base];
-        const y1 = detections[base + 1];
-        const x2 = detections[base + 2];
-        const y2 = detections[base + 3];
-        console.log(`Top detection (model coords): [${x1}, ${y1}] to [${x2}, ${y2}] (score=${bestScore.toFixed(3)})`);
+        const box = { x1: best.x1, y1: best.y1, x2: best.x2, y2: best.y2 };
+
+        console.log(`Top detection (score=${best.score.toFixed(3)}) mapped to original: `
+            + `[${box.x1}, ${box.y1}] to [${box.x2}, ${box.y2}]`);
 
-        // Map back to original image coords
-        const scaleX = originalWidth / width;   // width = resized image width (e.g. 190)
-        const scaleY = originalHeight / height; // height = resized image height (e.g. 640)
+        return box;
+    } catch (err) {
+        console.error("Error during model session creation or inference: ", err);
+    }
+}
 
-        const origX1 = Math.max(0, Math.min(originalWidth, x1 * scaleX));
-        const origY1 = Math.max(0, Math.min(originalHeight, y1 * scaleY));
-        const origX2 = Math.max(0, Math.min(originalWidth, x2 * scaleX));
-        const origY2 = Math.max(0, Math.min(originalHeight, y2 * scaleY));
+export async function preprocessRoi(fileUri: string, box: RoiBox) {
+    // Crop, letterbox into 224x224, apply CLAHE and normalise in one native pass
+    const rawPath = fileUri.replace("file://", "");
+    console.log("Running preprocessing pipeline for: ", rawPath);
+
+    const { tensor, debugFiles } = await CLAHEBridge.runPreprocessingPipeline(rawPath, {
+        box,
+        targetWidth: CLASSIFIER_INPUT_SIZE,
+        targetHeight: CLASSIFIER_INPUT_SIZE,
+        clahe: true,
+        mean: IMAGENET_MEAN,
+        std: IMAGENET_STD,
+        debug: DEBUG_PREPROCESSING
+    });
+
+    if (debugFiles) {
+        console.log("Preprocessing intermediates written to: ", debugFiles);
+    }
 
-        console.log(`Mapped to original: [${origX1}, ${origY1}] to [${origX2}, ${origY2}]`);
+    return decodeFloat32(tensor);
+}
 
-        await deleteFileIfExist(resizedPath);
+export type MonteCarloMode = "batched" | "serial";
+export type ClassifierModel = "shufflenet.onnx" | "efficientnet.onnx";
+
+// Models whose batch axis turned out to be fixed at 1, batched mode falls back to serial for them
+const fixedBatchModels = new Set<ClassifierModel>();
+// How the runtime reports a batch axis fixed at 1, e.g. "Got invalid dimensions for input"
+const BATCH_SHAPE_ERROR = /dimension|shape/i;
+
+/**
+ * Runs `passes` Monte-Carlo passes over the same input and returns the raw output logit of each,
+ * see toProbability. Batched mode replicates the input along the batch axis so every pass shares a single run;
+ * dropout masks are drawn per batch item, so the passes still differ.
+ */
+export async function runMonteCarloPasses(
+    modelType: ClassifierModel,
+    floatData: Float32Array,
+    passes: number,
+    mode: MonteCarloMode = MONTE_CARLO_MODE,
+    sessionOptions?: ort.InferenceSession.SessionOptions
+): Promise<number[]> {
+    const session = await getSession(modelType, sessionOptions);
+    const shape = [3, CLASSIFIER_INPUT_SIZE, CLASSIFIER_INPUT_SIZE];
+
+    if (mode === "batched" && passes > 1 && !fixedBatchModels.has(modelType)) {
+        const batch = new Float32Array(passes * floatData.length);
+        for (let i = 0; i < passes; i++) {
+            batch.set(floatData, i * floatData.length);
+        }
+        const inputTensor = new ort.Tensor('float32', batch, [passes, ...shape]);
 
         try {
-            const cropData = {
-                offset: { x: origX1, y: origY1 },
-                size: { width: origX2 - origX1, height: origY2 - origY1 },
-                format: "png"
-            } as const;
-            croppedUri = await ImageEditor.cropImage(fileUri, cropData);
-            console.log('Cropped image saved at: ', croppedUri);
-        } catch (cropErr) {
-            console.error('Failed to crop image:', cropErr);
+            const outputMap = await runSession(modelType, { [session.inputNames[0]]: inputTensor }, sessionOptions);
+            const logits = outputMap.output.data as Float32Array;
+            return Array.from(logits.subarray(0, passes));
+        } catch (err) {
+            // Anything else (out of memory, a released session) is not a property of the model
+            if (!BATCH_SHAPE_ERROR.test(String(err))) throw err;
+            console.warn(`${modelType} does not accept a batch of ${passes}, running passes serially:`, err);
+            fixedBatchModels.add(modelType);
         }
+    }
 
-        // Check if croppedUri is defined
-        if (!croppedUri) {
-            throw new Error("croppedUri is undefined. Cropping may have failed.");
-        }
+    const logits = [];
+    const inputTensor = new ort.Tensor('float32', floatData, [1, ...shape]);
 
-        const rawPath = croppedUri.uri.replace("file://", "");
-        console.log("Letterboxing image into 224x224 from: ", rawPath);
-        const newPath = await CLAHEBridge.makeLetterBox(rawPath, 224, 224);
+    for (let i = 0; i < passes; i++) {
+        const feeds: Record<string, ort.Tensor> = { [session.inputNames[0]]: inputTensor };
+        const outputMap = await runSession(modelType, feeds, sessionOptions);
+        logits.push(outputMap.output.data[0] as number);
+    }
+    return logits;
+}
 
-        await deleteFileIfExist(croppedUri.uri);
+export type SamplingOptions = { minPasses: number, maxPasses: number, step: number, tolerance: number, margin: number };
 
-        return newPath;
-    } catch (err) {
-        console.error("Error during model session creation or inference: ", err);
+const average = (values: number[]) => values.reduce((sum, val) => sum + val, 0) / values.length;
+
+function standardError(probabilities: number[]) {
+    const n = probabilities.length;
+    if (n < 2) return Infinity;
+    const mean = average(probabilities);
+    const sampleVariance = probabilities.reduce((sum, val) => sum + Math.pow(val - mean, 2), 0) / (n - 1);
+    return Math.sqrt(sampleVariance / n);
+}
+
+// Raw logits of the passes drawn so far for one classifier and its weight in the result being decided
+export type SamplingMember = { modelType: ClassifierModel, weight: number, logits: number[] };
+
+/**
+ * Stopping rule of adaptive sampling: the standard error of the weighted mean is below the
+ * tolerance and the mean is at least `margin` standard errors away from `threshold`, the
+ * percentage the result is classified against. Members are sampled independently, so the
+ * variance of the blend is the weighted sum of theirs.
+ */
+export function samplingConverged(members: SamplingMember[], threshold: number, sampling: SamplingOptions) {
+    let mean = 0;
+    let variance = 0;
+    for (const { weight, logits } of members) {
+        const probabilities = logits.map(toProbability);
+        mean += weight * average(probabilities);
+        variance += Math.pow(weight * standardError(probabilities), 2);
     }
+    const error = Math.sqrt(variance);
+    return error < sampling.tolerance && Math.abs(mean - threshold) >= sampling.margin * error;
 }
 
-async function inferAndSummarize(modelType: "shufflenet.onnx" | "efficientnet.onnx", fileUri: string) {
-    let probabilities = [];
-
-    const modelPath = await getModelPath(modelType);
-    console.log(`Loading ${modelType} Model from path: `, modelPath);
-
-    const session = await ort.InferenceSession.create(modelPath);
-    console.log("Inference session created successfully!");
-
-    // const imageBase64 = await RNFS.readFile(fileUri, 'base64');
-    // const imageBuffer = Buffer.from(imageBase64, 'base64');
-    const decodedPng = await readPngDataFromFile(fileUri);
-    const { width, height, data } = decodedPng;
-
-    console.log(`Dimensions: ${width}x${height}`);
-
-    const targetWidth = 224;
-    const targetHeight = 224;
-    const floatData = new Float32Array(1 * 3 * targetHeight * targetWidth);
-    // ImageNet normalization parameters
-    const im_mean = [0.485, 0.456, 0.406];
-    const im_std = [0.229, 0.224, 0.225];
-
-    for (let y = 0; y < height; y++) {
-        for (let x = 0; x < width; x++) {
-            const pixelIndex = (y * width + x);
-            // Normalize per ImageNet mean/std
-            const r = (data[pixelIndex * 4] / 255.0 - im_mean[0]) / im_std[0];
-            const g = (data[pixelIndex * 4 + 1] / 255.0 - im_mean[1]) / im_std[1];
-            const b = (data[pixelIndex * 4 + 2] / 255.0 - im_mean[2]) / im_std[2];
-
-            const chwIndex = y * targetWidth + x;
-            floatData[chwIndex] = r;
-            floatData[chwIndex + targetWidth * targetHeight] = g;
-            floatData[chwIndex + 2 * targetWidth * targetHeight] = b;
+/**
+ * Draws passes for every member in steps until their blend converges against `threshold` (in
+ * percent) or each has maxPasses. Members may come with passes already drawn. The steps of
+ * different models run concurrently.
+ */
+async function sampleUntilDecided(
+    members: SamplingMember[],
+    floatData: Float32Array,
+    sampling: SamplingOptions,
+    threshold: number,
+    mode: MonteCarloMode,
+    sessionOptions?: ort.InferenceSession.SessionOptions
+) {
+    const draw = (passes: (member: SamplingMember) => number) => Promise.all(members.map(async member => {
+        const count = passes(member);
+        if (count > 0) {
+            member.logits.push(...await runMonteCarloPasses(member.modelType, floatData, count, mode, sessionOptions));
         }
+    }));
+
+    await draw(member => Math.min(sampling.minPasses, sampling.maxPasses) - member.logits.length);
+    while (members.some(member => member.logits.length < sampling.maxPasses)
+        && !samplingConverged(members, threshold, sampling)) {
+        await draw(member => Math.min(sampling.step, sampling.maxPasses - member.logits.length));
     }
 
-    const inputTensor = new ort.Tensor('float32', floatData, [1, 3, targetHeight, targetWidth]);
+    console.log(`Sampling against ${threshold.toFixed(1)}% stopped after `
+        + members.map(member => `${member.logits.length} ${member.modelType} passes`).join(", "));
+    return members;
+}
 
-    for (let i = 0; i < NUM_OF_PASSES; i++) {
-        const feeds: Record<string, ort.Tensor> = { [session.inputNames[0]]: inputTensor };
-        const outputMap = await session.run(feeds);
-        const logit = outputMap.output.data[0] as number;
-        const prob = sigmoid(logit) * 100; // Given as a decimal
-        probabilities.push(prob);
-    }
+/**
+ * Draws passes in steps until the running standard error converges and the mean is clear of
+ * `threshold` (0-1), or maxPasses is reached. A mean close to the threshold always gets every
+ * pass, so stopping early cannot flip a classification made against that same threshold. The
+ * default is the model's own threshold; ensemble members are sampled by sampleUntilDecided
+ * against the ensemble threshold instead.
+ */
+export async function runAdaptivePasses(
+    modelType: ClassifierModel,
+    floatData: Float32Array,
+    sampling: SamplingOptions,
+    sessionOptions?: ort.InferenceSession.SessionOptions,
+    mode: MonteCarloMode = MONTE_CARLO_MODE,
+    threshold: number = classifierThreshold(modelType)
+) {
+    const [member] = await sampleUntilDecided(
+        [{ modelType, weight: 1, logits: [] }], floatData, sampling, threshold * 100, mode, sessionOptions
+    );
+    return member.logits;
+}
 
+// The logits are stored as the model returned them, so rescoring sees exactly what was sampled
+function summarize(modelType: ClassifierModel, passLogits: number[]): ModelSummary & { allLogits: number[] } {
+    const probabilities = passLogits.map(toProbability);
     console.log("Probabilities across passes:", probabilities);
 
-    const mean = probabilities.reduce((sum, val) => sum + val, 0) / probabilities.length;
+    const mean = average(probabilities);
     const variance = probabilities.reduce((sum, val) => sum + Math.pow(val - mean, 2), 0) / probabilities.length;
     const stdDev = Math.sqrt(variance);
 
-    return { mean, stdDev, allProbs: probabilities };
+    const logits: PassLogits = {};
+    logits[modelType] = passLogits;
+    return { mean, stdDev, allLogits: passLogits, passes: passLogits.length, logits, models: [modelType] };
 }
 
-export async function runEfficientNetInference(fileUri: string) {
+async function inferAndSummarize(
+    modelType: ClassifierModel,
+    floatData: Float32Array,
+    sessionOptions?: ort.InferenceSession.SessionOptions
+) {
+    const logits = ADAPTIVE_SAMPLING
+        ? await runAdaptivePasses(modelType, floatData, ADAPTIVE_SAMPLING, sessionOptions)
+        : await runMonteCarloPasses(modelType, floatData, NUM_OF_PASSES, MONTE_CARLO_MODE, sessionOptions);
+    return summarize(modelType, logits);
+}
+
+/**
+ * Samples both classifiers for an ensemble result. Adaptive sampling stops on the blend against
+ * the ensemble threshold, never on either model against its own, since the blend is what gets
+ * classified. Passes ShuffleNet already drew, e.g. in the cascade, are kept.
+ */
+async function inferEnsembleMembers(floatData: Float32Array, shuffleNetLogits: number[] = []) {
+    const members: SamplingMember[] = [
+        { modelType: "efficientnet.onnx", weight: ENSEMBLE_WEIGHT_MODEL1, logits: [] },
+        { modelType: "shufflenet.onnx", weight: 1 - ENSEMBLE_WEIGHT_MODEL1, logits: [...shuffleNetLogits] }
+    ];
+    if (ADAPTIVE_SAMPLING) {
+        await sampleUntilDecided(members, floatData, ADAPTIVE_SAMPLING, modelThresholds.both * 100, MONTE_CARLO_MODE);
+    } else {
+        await Promise.all(members.map(async member => {
+            const passes = NUM_OF_PASSES - member.logits.length;
+            if (passes > 0) {
+                member.logits.push(...await runMonteCarloPasses(member.modelType, floatData, passes));
+            }
+        }));
+    }
+    const [model1, model2] = members.map(member => summarize(member.modelType, member.logits));
+    return blendEnsemble(model1, model2);
+}
+
+export async function runEfficientNetInference(floatData: Float32Array) {
     try {
-        console.log("runEfficientNetInference method called. Processing image: ", fileUri);
-        return await inferAndSummarize("efficientnet.onnx", fileUri);
+        console.log("runEfficientNetInference method called.");
+        return await inferAndSummarize("efficientnet.onnx", floatData);
     } catch (err) {
         console.error("Error occurred during EfficientNet session creation or inference: ", err);
     }
 }
 
-export async function runShuffleNetInference(fileUri: string) {
+export async function runShuffleNetInference(floatData: Float32Array) {
     try {
-        console.log("runShuffleNetInference method called. Processing image: ", fileUri);
-        return await inferAndSummarize("shufflenet.onnx", fileUri);
+        console.log("runShuffleNetInference method called.");
+        return await inferAndSummarize("shufflenet.onnx", floatData);
     } catch (err) {
         console.error("Error occurred during ShuffleNet session creation or inference: ", err);
     }
 }
 
-const modelThresholds = {
+// Weight of EfficientNet in the ensemble blend, ShuffleNet gets the rest
+const ENSEMBLE_WEIGHT_MODEL1 = 0.7;
+// "concurrent" always runs both models, "cascade" runs EfficientNet only for uncertain strips.
+// Only switch to "cascade" once compareCascadeAgreement shows it matches the full ensemble.
+const ENSEMBLE_STRATEGY: "concurrent" | "cascade" = "concurrent";
+// ShuffleNet alone decides when mean +/- stdDevWeight * stdDev stays more than `band` away from
+// its own threshold, both in probability units (0-1)
+const CASCADE_OPTIONS = { band: 0.1, stdDevWeight: 1 };
+
+// Per-pass logits by model, stored with each result so it can be rescored without inference
+export type PassLogits = Partial<Record<ClassifierModel, number[]>>;
+// models lists the classifiers the summary came from
+export type ModelSummary = {
+    mean: number, stdDev: number, passes: number, logits?: PassLogits, models: ClassifierModel[]
+};
+
+export function blendEnsemble(model1: ModelSummary, model2: ModelSummary): ModelSummary {
+    const weight1 = ENSEMBLE_WEIGHT_MODEL1;
+    const weight2 = 1 - weight1;
+    return {
+        mean: (model1.mean * weight1) + (model2.mean * weight2),
+        stdDev: (model1.stdDev * weight1) + (model2.stdDev * weight2),
+        passes: model1.passes + model2.passes,
+        logits: { ...model1.logits, ...model2.logits },
+        models: [...model1.models, ...model2.models]
+    };
+}
+
+/** Runs both classifiers concurrently on the same input and blends their results. */
+export async function runEnsembleInference(floatData: Float32Array) {
+    try {
+        console.log("runEnsembleInference method called.");
+        const { efficientNetThreads, shuffleNetThreads } = ensembleThreadBudgets();
+
+        const tic = Date.now();
+        // The shared sessions already carry these thread budgets, see ensembleThreadBudgets
+        const result = await inferEnsembleMembers(floatData);
+
+        console.log(`Ensemble finished in ${Date.now() - tic} ms (EfficientNet on ${efficientNetThreads} threads, `
+            + `ShuffleNet on ${shuffleNetThreads} threads)`);
+
+        return result;
+    } catch (err) {
+        console.error("Error occurred during ensemble inference: ", err);
+    }
+}
+
+export const modelThresholds = {
     "m1": 0.56,
     "m2": 0.47,
     "both": 0.53
 }
 
-export const getClassification = (result: DBRecord): string => {
-    let threshold = modelThresholds.both;
+/** Decision threshold of a single classifier, in probability units (0-1). */
+export const classifierThreshold = (modelType: ClassifierModel) =>
+    modelType === "efficientnet.onnx" ? modelThresholds.m1 : modelThresholds.m2;
+
+const cascadeStats = { runs: 0, escalations: 0, efficientNetMs: 0 };
+
+/**
+ * Whether a ShuffleNet result is far enough from its own threshold to stand alone. An accepted
+ * result is a single-model result and is classified with the m2 threshold.
+ */
+export function cascadeAccepts(model2: { mean: number, stdDev: number }) {
+    const threshold = classifierThreshold("shufflenet.onnx");
+    const spread = CASCADE_OPTIONS.stdDevWeight * model2.stdDev / 100;
+    const lower = model2.mean / 100 - spread;
+    const upper = model2.mean / 100 + spread;
+    return lower > threshold + CASCADE_OPTIONS.band || upper < threshold - CASCADE_OPTIONS.band;
+}
+
+/**
+ * Cascade ensemble: ShuffleNet runs first and EfficientNet is only added when ShuffleNet lands
+ * near the ensemble threshold. When both run, the usual weighted blend is returned.
+ */
+export async function runCascadeInference(floatData: Float32Array) {
+    try {
+        console.log("runCascadeInference method called.");
+        const tic = Date.now();
+        const model2 = await inferAndSummarize("shufflenet.onnx", floatData);
+        const shuffleNetMs = Date.now() - tic;
+
+        cascadeStats.runs++;
+
+        if (cascadeAccepts(model2)) {
+            console.log(`Cascade: ShuffleNet ${model2.mean.toFixed(2)} ± ${model2.stdDev.toFixed(2)} is outside the band, `
+                + `accepted in ${shuffleNetMs} ms. ${JSON.stringify(getCascadeStats())}`);
+            // Stored with models set to ShuffleNet alone, so it is judged against the m2 threshold
+            return model2;
+        }
+
+        // The blend is classified against the ensemble threshold, so sampling continues on that
+        const escalatedAt = Date.now();
+        const result = await inferEnsembleMembers(floatData, model2.allLogits);
+        cascadeStats.escalations++;
+        cascadeStats.efficientNetMs += Date.now() - escalatedAt;
 
-    if (result?.selectedModel === "1") {
-        threshold = modelThresholds.m1;
-    } else if (result?.selectedModel === "2") {
-        threshold = modelThresholds.m2;
+        console.log(`Cascade: ShuffleNet ${model2.mean.toFixed(2)} ± ${model2.stdDev.toFixed(2)} is inside the band, `
+            + `escalated to EfficientNet, ${Date.now() - tic} ms total. ${JSON.stringify(getCascadeStats())}`);
+        return result;
+    } catch (err) {
+        console.error("Error occurred during cascade inference: ", err);
     }
+}
+
+/** Escalation rate and the EfficientNet time saved so far, estimated from escalated runs. */
+export function getCascadeStats() {
+    const { runs, escalations, efficientNetMs } = cascadeStats;
+    const averageEfficientNetMs = escalations > 0 ? efficientNetMs / escalations : 0;
+    return {
+        runs,
+        escalations,
+        escalationRate: runs > 0 ? escalations / runs : 0,
+        estimatedSavedMs: Math.round((runs - escalations) * averageEfficientNetMs)
+    };
+}
+
+/** Runs the ensemble with the configured strategy. */
+export function runEnsemble(floatData: Float32Array) {
+    return ENSEMBLE_STRATEGY === "cascade" ? runCascadeInference(floatData) : runEnsembleInference(floatData);
+}
+
+export const classifierModels: Record<string, ClassifierModel[]> = {
+    "1": ["efficientnet.onnx"],
+    "2": ["shufflenet.onnx"],
+    "3": ["efficientnet.onnx", "shufflenet.onnx"]
+};
+
+/**
+ * Loads and warms up the models on whichever path analyses will take, so they are only held once:
+ * the native engine when NATIVE_INFERENCE is set, the JS sessions otherwise.
+ */
+export async function warmUpInference() {
+    if (!NATIVE_INFERENCE) {
+        await warmUpSessions();
+        return;
+    }
+    try {
+        const elapsedMs = await NativeInference.warmUp({
+            engine: NATIVE_ENGINE,
+            models: classifierModels["3"],
+            targetWidth: CLASSIFIER_INPUT_SIZE,
+            targetHeight: CLASSIFIER_INPUT_SIZE
+        });
+        console.log(`Native inference warmed up in ${elapsedMs} ms`);
+    } catch (err) {
+        console.warn("Native warm-up failed:", err);
+    }
+}
+
+/**
+ * Preprocesses the region and samples the selected model(s) natively, with the same adaptive
+ * stopping, ensemble strategy and thresholds as the JS path. Only the summary and the raw
+ * per-pass logits come back, the tensor stays on the native side. The preprocessed tensor is
+ * cached natively, so switching models on the same image skips it.
+ */
+export async function analyseNatively(fileUri: string, box: RoiBox, selectedModel: string,
+    contentHash?: string): Promise<ModelSummary> {
+    const result = await NativeInference.analyse(fileUri.replace("file://", ""), {
+        box,
+        contentHash,
+        engine: NATIVE_ENGINE,
+        models: classifierModels[selectedModel],
+        passes: NUM_OF_PASSES,
+        sampling: ADAPTIVE_SAMPLING,
+        strategy: ENSEMBLE_STRATEGY,
+        cascade: CASCADE_OPTIONS,
+        thresholds: modelThresholds,
+        primaryModel: "efficientnet.onnx",
+        ensembleWeight: ENSEMBLE_WEIGHT_MODEL1,
+        targetWidth: CLASSIFIER_INPUT_SIZE,
+        targetHeight: CLASSIFIER_INPUT_SIZE,
+        clahe: true,
+        mean: IMAGENET_MEAN,
+        std: IMAGENET_STD
+    });
+    const used: ClassifierModel[] = result.used;
+    console.log(`Native analysis took ${result.elapsedMs} ms (preprocess ${result.preprocessMs} ms` +
+        `${result.preprocessCached ? ", cached" : ""}), ${result.passes} passes of ${used.join(", ")}, ` +
+        `Java heap ${result.javaHeapDeltaBytes} B, native heap ${result.nativeHeapDeltaBytes} B`);
+
+    if (ENSEMBLE_STRATEGY === "cascade" && selectedModel === "3") {
+        cascadeStats.runs++;
+        if (used.length > 1) {
+            cascadeStats.escalations++;
+            cascadeStats.efficientNetMs += result.models["efficientnet.onnx"].inferenceMs;
+        }
+    }
+
+    const logits: PassLogits = {};
+    for (const model of used) {
+        logits[model] = result.models[model].logits;
+    }
+    return { mean: result.mean, stdDev: result.stdDev, passes: result.passes, logits, models: used };
+}
+
+export type RescoredRecord = {
+    id: number,
+    probability: number,
+    uncertainity: number,
+    previousProbability: number,
+    classification: string
+};
+
+/**
+ * Recomputes probability, uncertainity and classification of every stored result from its
+ * per-pass logits, with the given thresholds and EfficientNet ensemble weight. No image is read
+ * and no model is run. With `write` the new scores replace the stored ones. Only the records
+ * whose classification differs from the one under `previousThresholds` come back. Android only.
+ */
+export async function rescoreHistory(
+    thresholds: typeof modelThresholds = modelThresholds,
+    ensembleWeight: number = ENSEMBLE_WEIGHT_MODEL1,
+    write: boolean = false,
+    previousThresholds: typeof modelThresholds = modelThresholds
+) {
+    if (Platform.OS !== 'android') return;
+    const result: { records: number, positives: number, updated: number, changed: RescoredRecord[], elapsedMs: number } =
+        await NativeInference.rescore({
+            thresholds, previousThresholds, ensembleWeight, primaryModel: "efficientnet.onnx", write
+        });
+    console.log(`Rescored ${result.records} records in ${result.elapsedMs} ms, ${result.positives} positive, ` +
+        `${result.changed.length} changed, ${result.updated} updated`);
+    return result;
+}
+
+/** Threshold a stored result is judged against, from the classifiers that actually produced it. */
+export const getThreshold = (result: DBRecord): number => {
+    // Rows written before the models column are judged by the selected mode
+    const models = result?.models ? result.models.split(",") as ClassifierModel[] : classifierModels[result?.selectedModel];
+    if (models?.length === 1) {
+        return classifierThreshold(models[0]);
+    }
+    return modelThresholds.both;
+}
+
+export const getClassification = (result: DBRecord): string => {
+    const threshold = getThreshold(result);
 
     // Probability is a percentage.
     let probability = result?.probability! / 100;
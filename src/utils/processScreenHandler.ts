@@ -1,19 +1,23 @@
-import { NativeModules } from 'react-native';
 import { DatabaseHandler } from "./dbHandler";
-import { deleteFileIfExist } from './fileHandler';
-import { cropAndMapBack, runEfficientNetInference, runShuffleNetInference } from './modelHandler';
-
-const { CLAHEBridge } = NativeModules;
+import {
+    analyseNatively, ClassifierModel, detectRoi, NATIVE_INFERENCE, PassLogits, preprocessRoi, RoiBox, runEfficientNetInference,
+    runEnsemble, runShuffleNetInference
+} from './modelHandler';
 
 // src/utils/ImageProcessingPipeline.ts
 export class ImageProcessingPipeline {
-    private croppedUri: string = "";
+    private roiBox: RoiBox | undefined;
+    private inputData: Float32Array | undefined;
+    private passes = 0;
+    private logits: PassLogits | undefined;
+    private models: ClassifierModel[] = [];
 
     constructor(
         private fileUri: string,
         private name: string,
         private selectedType: string,
         private selectedModel: string,
+        private contentHash?: string,
         private probability: number = Number.NEGATIVE_INFINITY,
         private uncertainity: number = Number.NEGATIVE_INFINITY,
         private databaseHandler = DatabaseHandler.getInstance()
@@ -21,57 +25,71 @@ export class ImageProcessingPipeline {
     }
 
     async roiAndCropImage() {
-        let response = await cropAndMapBack(this.fileUri);
-        // Store the intermediates in croppedUri
-        this.croppedUri = response! as string
+        // Only the box is kept, cropping happens in memory during preprocessing
+        this.roiBox = await detectRoi(this.fileUri, this.contentHash);
     }
 
     async applyContrastEqualisation() {
         try {
-            const rawPath = this.croppedUri.replace("file://", "");
-            console.log("Loading image for CLAHE from: ", rawPath);
-
-            const enhancedUri = await CLAHEBridge.applyClahe(rawPath);
-
-            await deleteFileIfExist(this.croppedUri);
+            if (!this.roiBox) throw new Error("No region of interest was detected.");
 
-            this.croppedUri = enhancedUri;
-            console.log("CLAHE applied. New file path:", this.croppedUri);
+            this.inputData = await preprocessRoi(this.fileUri, this.roiBox);
+            console.log("Crop, letterbox and CLAHE applied in the native pipeline.");
         } catch (err) {
-            console.warn("Failed to apply CLAHE:", err);
+            console.warn("Failed to preprocess image:", err);
         }
     }
 
     async runModel1() {
-        const result = await runEfficientNetInference(this.croppedUri);
+        if (!this.inputData) throw new Error("Preprocessing failed!");
+        const result = await runEfficientNetInference(this.inputData);
         if (!result) throw new Error("Inference failed!");
 
         this.probability = result.mean;
         this.uncertainity = result.stdDev;
+        this.passes = result.passes;
+        this.logits = result.logits;
+        this.models = result.models;
     }
 
     async runModel2() {
-        const result = await runShuffleNetInference(this.croppedUri);
+        if (!this.inputData) throw new Error("Preprocessing failed!");
+        const result = await runShuffleNetInference(this.inputData);
         if (!result) throw new Error("Inference failed!");
 
-        if (this.probability === Number.NEGATIVE_INFINITY) {
-            // Model 2 is run separately
-            this.probability = result.mean;
-            this.uncertainity = result.stdDev;
-        } else {
-            // Model 2 is run in Ensemble mode with weighted averaging
-            const weight1 = 0.7;
-            const weight2 = 1 - weight1;
-
-            this.probability = (this.probability * weight1) + (result.mean * weight2);
-            this.uncertainity = (this.uncertainity * weight1) + (result.stdDev * weight2);
-        }
+        this.probability = result.mean;
+        this.uncertainity = result.stdDev;
+        this.passes = result.passes;
+        this.logits = result.logits;
+        this.models = result.models;
     }
 
-    async writeResultsToStorage() {
-        // Delete the temp CroppedUri
-        await deleteFileIfExist(this.croppedUri);
+    async runEnsemble() {
+        if (!this.inputData) throw new Error("Preprocessing failed!");
+        // Concurrent or cascaded depending on the configured ensemble strategy
+        const result = await runEnsemble(this.inputData);
+        if (!result) throw new Error("Inference failed!");
+
+        this.probability = result.mean;
+        this.uncertainity = result.stdDev;
+        this.passes = result.passes;
+        this.logits = result.logits;
+        this.models = result.models;
+    }
+
+    async runNativeAnalysis() {
+        if (!this.roiBox) throw new Error("No region of interest was detected.");
+        // Preprocessing and every pass of the selected model(s) run in one native call
+        const result = await analyseNatively(this.fileUri, this.roiBox, this.selectedModel, this.contentHash);
+
+        this.probability = result.mean;
+        this.uncertainity = result.stdDev;
+        this.passes = result.passes;
+        this.logits = result.logits;
+        this.models = result.models;
+    }
 
+    async writeResultsToStorage() {
         if (this.probability === Number.NEGATIVE_INFINITY &&
             this.uncertainity === Number.NEGATIVE_INFINITY) {
             console.log("Adjusting probability and uncertainity with random values.");
@@ -86,13 +104,19 @@ export class ImageProcessingPipeline {
             selectedType: this.selectedType,
             selectedModel: this.selectedModel,
             probability: this.probability,
-            uncertainity: this.uncertainity
+            uncertainity: this.uncertainity,
+            passes: this.passes,
+            contentHash: this.contentHash,
+            models: this.models.join(",")
         };
 
         const insertId = await this.databaseHandler.insertRecord(record)
 
         if (insertId != null) {
             console.log("Record written to database.", record);
+            if (this.logits) {
+                await this.databaseHandler.insertPassLogits(insertId, this.logits);
+            }
         }
 
         return insertId
@@ -101,14 +125,22 @@ export class ImageProcessingPipeline {
     getSteps(): { label: string; fn: () => Promise<void | null | number> }[] {
         const steps: { label: string; fn: () => Promise<void | null | number> }[] = [
             { label: "Detection Region Of Interest", fn: () => this.roiAndCropImage() },
-            { label: "Applying Contrast Equalisation", fn: () => this.applyContrastEqualisation() },
         ];
 
-        if (this.selectedModel === "1" || this.selectedModel === "3") {
-            steps.push({ label: "Running Model 1", fn: () => this.runModel1() });
+        if (NATIVE_INFERENCE) {
+            steps.push({ label: "Analysing Region Of Interest", fn: () => this.runNativeAnalysis() });
+            steps.push({ label: "Writing results to Storage", fn: () => this.writeResultsToStorage() });
+            return steps;
         }
-        if (this.selectedModel === "2" || this.selectedModel === "3") {
+
+        steps.push({ label: "Applying Contrast Equalisation", fn: () => this.applyContrastEqualisation() });
+
+        if (this.selectedModel === "1") {
+            steps.push({ label: "Running Model 1", fn: () => this.runModel1() });
+        } else if (this.selectedModel === "2") {
             steps.push({ label: "Running Model 2", fn: () => this.runModel2() });
+        } else if (this.selectedModel === "3") {
+            steps.push({ label: "Running Models 1 and 2", fn: () => this.runEnsemble() });
         }
 
         steps.push({ label: "Writing results to Storage", fn: () => this.writeResultsToStorage() });
@@ -0,0 +1,290 @@
+import * as ort from "onnxruntime-react-native";
+import { AppState, NativeEventEmitter, NativeModules, Platform } from 'react-native';
+import RNFS from 'react-native-fs';
+
+const { CLAHEBridge, ModelStore } = NativeModules;
+const MEMORY_PRESSURE_EVENT = "CLAHEBridgeMemoryPressure";
+// Roughly app launch, this module is loaded with the rest of the bundle
+const LOADED_AT = Date.now();
+// Android: "asset" optimises models memory-mapped from the APK, "copy" copies them to the
+// document directory first. Kept switchable to compare first-launch latency of both.
+const ANDROID_MODEL_SOURCE: "asset" | "copy" = "asset";
+
+export type ModelType = "yolo.onnx" | "efficientnet.onnx" | "shufflenet.onnx";
+
+// Input shapes used for the warm-up run, must match what modelHandler feeds each model
+const MODEL_INPUT_SHAPES: Record<ModelType, number[]> = {
+    "yolo.onnx": [1, 3, 640, 640],
+    "efficientnet.onnx": [1, 3, 224, 224],
+    "shufflenet.onnx": [1, 3, 224, 224],
+};
+
+/**
+ * Splits the cores between the two ensemble models so they can run side by side without
+ * oversubscribing the CPU. EfficientNet is the heavier model and gets the larger share.
+ */
+export function ensembleThreadBudgets() {
+    const cores: number = CLAHEBridge?.cpuCores ?? 4;
+    const total = Math.max(2, cores - 1);
+    const efficientNetThreads = Math.max(1, Math.ceil(total * 2 / 3));
+    const shuffleNetThreads = Math.max(1, total - efficientNetThreads);
+    return { efficientNetThreads, shuffleNetThreads };
+}
+
+// Options of the one shared session per model. The classifiers are budgeted for the concurrent
+// ensemble; single-model runs and warm-up use the same sessions so no model is loaded twice.
+function defaultSessionOptions(modelType: ModelType): ort.InferenceSession.SessionOptions | undefined {
+    const { efficientNetThreads, shuffleNetThreads } = ensembleThreadBudgets();
+    switch (modelType) {
+        case "efficientnet.onnx": return { intraOpNumThreads: efficientNetThreads };
+        case "shufflenet.onnx": return { intraOpNumThreads: shuffleNetThreads };
+        default: return undefined;
+    }
+}
+
+type OptimizedModelEntry = {
+    modelPath: string,
+    optimizedPath: string,
+    pendingPath: string,
+    cached: boolean,
+    hashMs: number
+};
+
+export type SessionLatency = {
+    createMs: number,
+    optimizedCache: "hit" | "miss" | "unavailable",
+    source: "asset" | "copy" | "bundle",
+    coldRunMs?: number,
+    warmRunMs?: number,
+    warmRuns: number
+};
+
+const modelPaths = new Map<ModelType, Promise<string>>();
+const sessions = new Map<string, Promise<ort.InferenceSession>>();
+const latencies = new Map<string, SessionLatency>();
+// Runs still in progress, a session must not be released underneath them
+const pendingRuns = new Set<Promise<unknown>>();
+let timeToFirstInferenceMs: number | undefined;
+
+async function resolveModelPath(modelType: ModelType) {
+    // Determine the correct path for the model based on the platform
+    let modelPath: string;
+
+    if (Platform.OS === 'android') {
+        // Copy the model file from Android assets to the document directory if not already present
+        const destPath = `${RNFS.DocumentDirectoryPath}/${modelType}`;
+        const fileExists = await RNFS.exists(destPath);
+        if (!fileExists) {
+            // modelType should match the filename in android/app/src/main/assets
+            await RNFS.copyFileAssets(modelType, destPath);
+        }
+        modelPath = destPath;
+    } else {
+        // iOS: models are bundled in the main bundle directory
+        modelPath = `${RNFS.MainBundlePath}/${modelType}`;
+    }
+
+    let fileExists = await RNFS.exists(modelPath)
+
+    if (!fileExists) {
+        console.error("Model does not exist at: ", modelPath);
+    } else {
+        console.log("Model is present at: ", modelPath);
+    }
+
+    return modelPath;
+}
+
+export function getModelPath(modelType: ModelType) {
+    // The asset copy and exists checks only need to happen once per launch
+    let path = modelPaths.get(modelType);
+    if (!path) {
+        path = resolveModelPath(modelType);
+        path.catch(() => modelPaths.delete(modelType));
+        modelPaths.set(modelType, path);
+    }
+    return path;
+}
+
+function sessionKey(modelType: ModelType, options?: ort.InferenceSession.SessionOptions) {
+    return `${modelType}:${JSON.stringify(options ?? {})}`;
+}
+
+function runtimeKey(options?: ort.InferenceSession.SessionOptions) {
+    // The optimised graph depends on the runtime and the optimisation level, not on thread counts
+    return `ort-${ort.env.versions?.common ?? "unknown"}-${options?.graphOptimizationLevel ?? "all"}`;
+}
+
+async function resolveOptimizedModel(modelPath: string, options?: ort.InferenceSession.SessionOptions) {
+    if (!ModelStore) return undefined;
+    try {
+        return await ModelStore.resolveOptimizedModel(modelPath.replace("file://", ""), runtimeKey(options)) as OptimizedModelEntry;
+    } catch (err) {
+        console.warn("Optimised model cache unavailable:", err);
+        return undefined;
+    }
+}
+
+/**
+ * Creates a session, going through the persisted optimised-model cache when it is available.
+ * On Android the model is optimised natively from its memory-mapped APK asset, so only the
+ * optimised copy ever lands on disk; copying the asset out is kept as a fallback.
+ *
+ * A cached model is loaded with graph optimisation disabled since it is already optimised,
+ * otherwise the runtime writes its optimised graph out while creating the session.
+ */
+async function createSession(modelType: ModelType, options?: ort.InferenceSession.SessionOptions) {
+    if (Platform.OS === 'android' && ModelStore && ANDROID_MODEL_SOURCE === "asset") {
+        try {
+            const tic = Date.now();
+            const entry = await ModelStore.prepareAssetModel(
+                modelType, runtimeKey(options), options?.graphOptimizationLevel ?? "all"
+            );
+            console.log(`Prepared ${modelType} from mapped asset in ${Date.now() - tic} ms: `, entry);
+            const session = await ort.InferenceSession.create(entry.optimizedPath, {
+                ...options, graphOptimizationLevel: "disabled"
+            });
+            return { session, optimizedCache: entry.cached ? "hit" as const : "miss" as const, source: "asset" as const };
+        } catch (err) {
+            console.warn(`Could not load ${modelType} from mapped asset, falling back to a copy:`, err);
+        }
+    }
+
+    const source = Platform.OS === 'android' ? "copy" as const : "bundle" as const;
+    const copyTic = Date.now();
+    const modelPath = await getModelPath(modelType);
+    console.log(`Resolved ${modelType} path in ${Date.now() - copyTic} ms (${source})`);
+    const entry = await resolveOptimizedModel(modelPath, options);
+
+    if (entry?.cached) {
+        try {
+            const session = await ort.InferenceSession.create(entry.optimizedPath, {
+                ...options, graphOptimizationLevel: "disabled"
+            });
+            return { session, optimizedCache: "hit" as const, source };
+        } catch (err) {
+            console.warn(`Cached optimised ${modelType} could not be loaded, rebuilding:`, err);
+        }
+    }
+
+    if (entry) {
+        const session = await ort.InferenceSession.create(modelPath, {
+            ...options, optimizedModelFilePath: entry.pendingPath
+        });
+        const committed = await ModelStore.commitOptimizedModel(entry).catch(() => false);
+        console.log(`Optimised ${modelType} ${committed ? "saved to" : "could not be saved to"}: `, entry.optimizedPath);
+        return { session, optimizedCache: "miss" as const, source };
+    }
+
+    const session = await ort.InferenceSession.create(modelPath, options);
+    return { session, optimizedCache: "unavailable" as const, source };
+}
+
+/**
+ * Returns the session for a model, creating it on first use only. Sessions are keyed by model
+ * file and session options, so callers asking for different execution options get their own.
+ */
+export function getSession(
+    modelType: ModelType,
+    options: ort.InferenceSession.SessionOptions | undefined = defaultSessionOptions(modelType)
+) {
+    const key = sessionKey(modelType, options);
+    let session = sessions.get(key);
+    if (!session) {
+        session = (async () => {
+            const tic = Date.now();
+            const { session: created, optimizedCache, source } = await createSession(modelType, options);
+            latencies.set(key, { createMs: Date.now() - tic, optimizedCache, source, warmRuns: 0 });
+            console.log(`Session for ${modelType} created in ${Date.now() - tic} ms (${source}, optimised cache ${optimizedCache})`);
+            return created;
+        })();
+        // A failed load should be retried on the next call instead of being cached
+        session.catch(() => sessions.delete(key));
+        sessions.set(key, session);
+    }
+    return session;
+}
+
+/** Runs a session obtained from getSession and records cold (first) and warm run latency. */
+export async function runSession(
+    modelType: ModelType,
+    feeds: ort.InferenceSession.FeedsType,
+    options: ort.InferenceSession.SessionOptions | undefined = defaultSessionOptions(modelType)
+) {
+    const session = await getSession(modelType, options);
+    const tic = Date.now();
+    const run = session.run(feeds);
+    pendingRuns.add(run);
+    let outputMap;
+    try {
+        outputMap = await run;
+    } finally {
+        pendingRuns.delete(run);
+    }
+    const elapsed = Date.now() - tic;
+
+    if (timeToFirstInferenceMs === undefined) {
+        timeToFirstInferenceMs = Date.now() - LOADED_AT;
+        console.log(`Time to first inference after launch: ${timeToFirstInferenceMs} ms (${modelType})`);
+    }
+
+    const latency = latencies.get(sessionKey(modelType, options));
+    if (latency) {
+        if (latency.coldRunMs === undefined) {
+            latency.coldRunMs = elapsed;
+        } else {
+            // Running mean over the warm runs
+            latency.warmRuns++;
+            latency.warmRunMs = (latency.warmRunMs ?? 0) + (elapsed - (latency.warmRunMs ?? 0)) / latency.warmRuns;
+        }
+    }
+    return outputMap;
+}
+
+/**
+ * Loads every model and pushes a zero tensor through it once, so the first real analysis only
+ * pays for warm runs. Failures are logged and do not stop the other models from loading.
+ */
+export async function warmUpSessions(models: ModelType[] = ["yolo.onnx", "efficientnet.onnx", "shufflenet.onnx"]) {
+    for (const modelType of models) {
+        try {
+            const session = await getSession(modelType);
+            const shape = MODEL_INPUT_SHAPES[modelType];
+            const size = shape.reduce((total, dim) => total * dim, 1);
+            const input = new ort.Tensor('float32', new Float32Array(size), shape);
+            await runSession(modelType, { [session.inputNames[0]]: input });
+        } catch (err) {
+            console.warn(`Warm-up failed for ${modelType}:`, err);
+        }
+    }
+    console.log("Session latency after warm-up: ", getSessionLatencies());
+}
+
+/** Drops every cached session, the next call to getSession loads the model again. */
+export async function releaseSessions() {
+    const cached = Array.from(sessions.values());
+    sessions.clear();
+    latencies.clear();
+    await Promise.allSettled(Array.from(pendingRuns));
+    for (const session of cached) {
+        try {
+            await (await session).release();
+        } catch (err) {
+            console.warn("Failed to release session:", err);
+        }
+    }
+    console.log(`Released ${cached.length} inference sessions.`);
+}
+
+export function getSessionLatencies() {
+    return { timeToFirstInferenceMs, sessions: Object.fromEntries(latencies) };
+}
+
+/** Evicts cached sessions when the OS reports memory pressure. Returns an unsubscribe function. */
+export function registerMemoryPressureHandler() {
+    // Android forwards onTrimMemory through the native module, iOS reports it via AppState
+    const subscription = Platform.OS === 'android'
+        ? new NativeEventEmitter(CLAHEBridge).addListener(MEMORY_PRESSURE_EVENT, () => releaseSessions())
+        : AppState.addEventListener('memoryWarning', () => releaseSessions());
+    return () => subscription.remove();
+}